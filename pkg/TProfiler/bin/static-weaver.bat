@@ -0,0 +1,2 @@
+@echo off
+call startup.bat com.taobao.profile.instrument.StaticWeaver
@@ -0,0 +1,151 @@
+/**
+ * (C) 2011-2012 Alibaba Group Holding Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ */
+package com.taobao.profile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.Instrumentation;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.util.Enumeration;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+/**
+ * 把探针调用的运行时类复制到一个小jar包中并追加到启动类加载器的搜索路径,
+ * JDK的类和所有类加载器加载的类都能看到同一个Profiler.
+ * 须在任何代码引用Profiler之前调用
+ *
+ * @author shutong.dy
+ * @since 2026-10-19
+ */
+public class BootstrapInjector {
+
+	/**
+	 * 运行时类,内部类一并复制.这些类只能引用JDK的类和本列表中的类
+	 */
+	private static final String[] RUNTIME_CLASSES = { "com/taobao/profile/Profiler",
+			"com/taobao/profile/StartupProfiler", "com/taobao/profile/runtime/ThreadData",
+			"com/taobao/profile/runtime/ProfStack", "com/taobao/profile/dependence_query/SlowQueryData",
+			"com/taobao/profile/dependence_query/SlowQueryFrame", "com/taobao/profile/dependence_query/RecordSlowQuery" };
+
+	/**
+	 * 是否已经注入启动类加载器
+	 */
+	private static volatile boolean injected = false;
+
+	private BootstrapInjector() {
+	}
+
+	/**
+	 * @return
+	 */
+	public static boolean isInjected() {
+		return injected;
+	}
+
+	/**
+	 * 从Agent的jar包中复制运行时类到临时jar包,追加到启动类加载器.
+	 * Agent不是从jar包加载时(如开发环境)不注入
+	 *
+	 * @param inst
+	 * @return 是否注入成功
+	 */
+	public static boolean inject(Instrumentation inst) {
+		try {
+			File agentJar = getAgentJar();
+			if (agentJar == null) {
+				return false;
+			}
+			File bootJar = File.createTempFile("tprofiler-boot", ".jar");
+			bootJar.deleteOnExit();
+			writeRuntimeJar(agentJar, bootJar);
+			inst.appendToBootstrapClassLoaderSearch(new JarFile(bootJar));
+			injected = true;
+		} catch (Throwable e) {
+			System.err.println("TProfiler: append runtime classes to bootstrap class path failed");
+			e.printStackTrace();
+		}
+		return injected;
+	}
+
+	/**
+	 * @return Agent所在的jar包,不是jar包返回null
+	 * @throws URISyntaxException
+	 */
+	private static File getAgentJar() throws URISyntaxException {
+		CodeSource codeSource = BootstrapInjector.class.getProtectionDomain().getCodeSource();
+		if (codeSource == null) {
+			return null;
+		}
+		URL location = codeSource.getLocation();
+		if (location == null || !"file".equals(location.getProtocol())) {
+			return null;
+		}
+		File file = new File(location.toURI());
+		if (!file.isFile()) {
+			return null;
+		}
+		return file;
+	}
+
+	/**
+	 * @param agentJar
+	 * @param bootJar
+	 * @throws IOException
+	 */
+	private static void writeRuntimeJar(File agentJar, File bootJar) throws IOException {
+		JarFile jar = new JarFile(agentJar);
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(bootJar));
+		try {
+			Enumeration<JarEntry> entries = jar.entries();
+			while (entries.hasMoreElements()) {
+				JarEntry entry = entries.nextElement();
+				if (!isRuntimeClass(entry.getName())) {
+					continue;
+				}
+				out.putNextEntry(new JarEntry(entry.getName()));
+				InputStream in = jar.getInputStream(entry);
+				try {
+					byte[] buffer = new byte[4096];
+					for (int len = -1; (len = in.read(buffer)) != -1;) {
+						out.write(buffer, 0, len);
+					}
+				} finally {
+					in.close();
+				}
+				out.closeEntry();
+			}
+		} finally {
+			out.close();
+			jar.close();
+		}
+	}
+
+	/**
+	 * @param name jar包中的路径
+	 * @return
+	 */
+	private static boolean isRuntimeClass(String name) {
+		if (!name.endsWith(".class")) {
+			return false;
+		}
+		String className = name.substring(0, name.length() - ".class".length());
+		for (String runtimeClass : RUNTIME_CLASSES) {
+			if (className.equals(runtimeClass) || className.startsWith(runtimeClass + "$")) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
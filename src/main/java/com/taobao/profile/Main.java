@@ -9,7 +9,12 @@
 package com.taobao.profile;
 
 import java.lang.instrument.Instrumentation;
+import java.security.SecureClassLoader;
+import java.util.ArrayList;
+import java.util.List;
 
+import com.taobao.profile.config.MethodFilter;
+import com.taobao.profile.dependence_query.ProbeRegistry;
 import com.taobao.profile.instrument.ProfTransformer;
 
 /**
@@ -25,8 +30,62 @@ public class Main {
 	 * @param inst
 	 */
 	public static void premain(String args, Instrumentation inst) {
+		// 须在加载Profiler之前
+		BootstrapInjector.inject(inst);
 		Manager.instance().initialization();
-		inst.addTransformer(new ProfTransformer());
+		Manager.instance().loadMethodTable();
+		// 须在注册转换器之前找出要重新转换的类并加载探针注册表:转换器用到的正则等JDK类
+		// 如果在注册之后才首次加载,转换它们时会再次用到正在加载的类,抛出ClassCircularityError
+		List<Class<?>> jdkClasses = getLoadedJdkClasses(inst);
+		ProbeRegistry.getInstance();
+		inst.addTransformer(new ProfTransformer(), true);
+		retransformJdkClasses(inst, jdkClasses);
 		Manager.instance().startupThread();
 	}
+
+	/**
+	 * @param inst
+	 * @return Agent启动前已经加载的、JDK方法规则选中的类,启动剖析时还有SecureClassLoader
+	 */
+	private static List<Class<?>> getLoadedJdkClasses(Instrumentation inst) {
+		List<Class<?>> classes = new ArrayList<Class<?>>();
+		if (!BootstrapInjector.isInjected()) {
+			return classes;
+		}
+		if (MethodFilter.hasJdkMethods()) {
+			for (Class<?> clazz : inst.getAllLoadedClasses()) {
+				if (clazz.getClassLoader() == null && inst.isModifiableClass(clazz)
+						&& MethodFilter.isJdkClass(clazz.getName().replace('.', '/'))) {
+					classes.add(clazz);
+				}
+			}
+		}
+		// 系统类加载器是SecureClassLoader的子类,Agent启动时它已经加载
+		if (StartupProfiler.isEnabled() && inst.isModifiableClass(SecureClassLoader.class)
+				&& !classes.contains(SecureClassLoader.class)) {
+			classes.add(SecureClassLoader.class);
+		}
+		return classes;
+	}
+
+	/**
+	 * Agent启动前已经加载的JDK类需要重新转换才能注入
+	 * 
+	 * @param inst
+	 * @param classes
+	 */
+	private static void retransformJdkClasses(Instrumentation inst, List<Class<?>> classes) {
+		if (classes.isEmpty()) {
+			return;
+		}
+		if (!inst.isRetransformClassesSupported()) {
+			System.err.println("TProfiler: retransform not supported, JDK classes loaded before the agent are not instrumented");
+			return;
+		}
+		try {
+			inst.retransformClasses(classes.toArray(new Class<?>[classes.size()]));
+		} catch (Throwable e) {
+			e.printStackTrace();
+		}
+	}
 }
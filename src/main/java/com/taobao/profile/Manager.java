@@ -8,15 +8,20 @@
  */
 package com.taobao.profile;
 
+import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
+import com.taobao.profile.config.MethodFilter;
 import com.taobao.profile.config.ProfConfig;
 import com.taobao.profile.config.ProfFilter;
+import com.taobao.profile.config.RecordThreshold;
+import com.taobao.profile.runtime.MethodCache;
 import com.taobao.profile.thread.DataDumpThread;
 import com.taobao.profile.thread.InnerSocketThread;
 import com.taobao.profile.thread.SamplerThread;
+import com.taobao.profile.thread.StartupReportThread;
 import com.taobao.profile.thread.TimeControlThread;
 
 /**
@@ -52,9 +57,37 @@ public class Manager {
 	 */
 	private static boolean NEED_NANO_TIME;
 	/**
-	 * 是否忽略get/set方法
+	 * 是否忽略平凡方法
 	 */
-	private static boolean IGNORE_GETSET_METHOD;
+	private static boolean IGNORE_TRIVIAL_METHOD;
+	/**
+	 * 平凡方法的字节码长度上限
+	 */
+	private static int TRIVIAL_METHOD_SIZE;
+	/**
+	 * 是否避免注入越过JIT内联或编译上限
+	 */
+	private static boolean JIT_AWARE_INSTRUMENT;
+	/**
+	 * 对应HotSpot -XX:MaxInlineSize
+	 */
+	private static int MAX_INLINE_SIZE;
+	/**
+	 * 对应HotSpot -XX:FreqInlineSize
+	 */
+	private static int FREQ_INLINE_SIZE;
+	/**
+	 * 对应HotSpot -XX:+DontCompileHugeMethods的8000字节上限
+	 */
+	private static int HUGE_METHOD_LIMIT;
+	/**
+	 * 是否只统计方法调用次数
+	 */
+	private static boolean COUNT_MODE;
+	/**
+	 * 是否对包名过滤选中的类也按继承关系查找JDBC驱动
+	 */
+	private static boolean JDBC_DETECT_INCLUDE_PACKAGES;
 	/**
 	 * 默认方法log位置
 	 */
@@ -124,8 +157,16 @@ public class Manager {
 	public void initialization() {
 		profConfig = new ProfConfig();
 		NEED_NANO_TIME = profConfig.isNeedNanoTime();
-		IGNORE_GETSET_METHOD = profConfig.isIgnoreGetSetMethod();
+		IGNORE_TRIVIAL_METHOD = profConfig.isIgnoreTrivialMethod();
+		TRIVIAL_METHOD_SIZE = profConfig.getTrivialMethodSize();
+		JIT_AWARE_INSTRUMENT = profConfig.isJitAwareInstrument();
+		MAX_INLINE_SIZE = profConfig.getMaxInlineSize();
+		FREQ_INLINE_SIZE = profConfig.getFreqInlineSize();
+		HUGE_METHOD_LIMIT = profConfig.getHugeMethodLimit();
+		COUNT_MODE = profConfig.isCountMode();
+		JDBC_DETECT_INCLUDE_PACKAGES = profConfig.isJdbcDetectIncludePackages();
 		METHOD_LOG_PATH = profConfig.getMethodFilePath();
+		StartupProfiler.setEnabled(profConfig.isStartupProfile());
 		// 判断启动时间是否大于采集结束时间 2012-05-25
 		DateFormat df = new SimpleDateFormat("HH:mm:ss");
 		String now = df.format(new Date());
@@ -133,6 +174,11 @@ public class Manager {
 		isDebugMode = profConfig.isDebugMode();
         PORT = profConfig.getPort();
 		recordTime = profConfig.getRecordTime();
+		// Profiler可能在启动类加载器中,不直接读取Manager
+		Profiler.setNeedNanoTime(NEED_NANO_TIME);
+		Profiler.setRecordTime(recordTime);
+		long threshold = profConfig.getRecordThreshold();
+		RecordThreshold.setDefaultThreshold(threshold >= 0 ? threshold : (NEED_NANO_TIME ? 500 : 1000));
 		setProfFilter();
 	}
 
@@ -151,10 +197,59 @@ public class Manager {
 	}
 
 	/**
-	 * @return the ignoreGetSetMethod
+	 * @return the ignoreTrivialMethod
+	 */
+	public static boolean isIgnoreTrivialMethod() {
+		return IGNORE_TRIVIAL_METHOD;
+	}
+
+	/**
+	 * @return the trivialMethodSize
+	 */
+	public static int getTrivialMethodSize() {
+		return TRIVIAL_METHOD_SIZE;
+	}
+
+	/**
+	 * @return the jitAwareInstrument
+	 */
+	public static boolean isJitAwareInstrument() {
+		return JIT_AWARE_INSTRUMENT;
+	}
+
+	/**
+	 * @return the maxInlineSize
+	 */
+	public static int getMaxInlineSize() {
+		return MAX_INLINE_SIZE;
+	}
+
+	/**
+	 * @return the freqInlineSize
+	 */
+	public static int getFreqInlineSize() {
+		return FREQ_INLINE_SIZE;
+	}
+
+	/**
+	 * @return the hugeMethodLimit
+	 */
+	public static int getHugeMethodLimit() {
+		return HUGE_METHOD_LIMIT;
+	}
+
+	/**
+	 * @return the countMode
+	 */
+	public static boolean isCountMode() {
+		return COUNT_MODE;
+	}
+
+	/**
+	 * @return the jdbcDetectIncludePackages
 	 */
-	public static boolean isIgnoreGetSetMethod() {
-		return IGNORE_GETSET_METHOD;
+	public static boolean isJdbcDetectIncludePackages() {
+		return JDBC_DETECT_INCLUDE_PACKAGES;
 	}
 
 	/**
@@ -176,6 +271,7 @@ public class Manager {
 	 */
 	public void setProfileFlag(boolean value) {
 		profileFlag = value;
+		Profiler.setProfileFlag(value);
 	}
 
 	/**
@@ -230,6 +326,7 @@ public class Manager {
 
 	public static void setRecordTime(int recordTime) {
 		Manager.recordTime = recordTime;
+		Profiler.setRecordTime(recordTime);
 	}
 
 	/**
@@ -244,6 +341,12 @@ public class Manager {
 				ProfFilter.addExcludeClassLoader(pack);
 			}
 		}
+		String parentClassLoader = profConfig.getExcludeClassLoaderParent();
+		if (parentClassLoader != null && parentClassLoader.trim().length() > 0) {
+			for (String pack : parentClassLoader.split(";")) {
+				ProfFilter.addExcludeClassLoaderParent(pack);
+			}
+		}
 		String include = profConfig.getIncludePackageStartsWith();
 		if (include != null && include.trim().length() > 0) {
 			String[] _includes = include.split(";");
@@ -258,6 +361,51 @@ public class Manager {
 				ProfFilter.addExcludeClass(pack);
 			}
 		}
+		String methods = profConfig.getIncludeMethods();
+		if (methods != null && methods.trim().length() > 0) {
+			for (String pattern : methods.split(";")) {
+				MethodFilter.addIncludeMethod(pattern);
+			}
+		}
+		String jdkMethods = profConfig.getIncludeJdkMethods();
+		if (jdkMethods != null && jdkMethods.trim().length() > 0) {
+			for (String pattern : jdkMethods.split(";")) {
+				MethodFilter.addJdkMethod(pattern);
+			}
+		}
+		String annotations = profConfig.getProfiledAnnotations();
+		if (annotations != null && annotations.trim().length() > 0) {
+			for (String annotation : annotations.split(";")) {
+				MethodFilter.addProfiledAnnotation(annotation);
+			}
+		}
+		String packageThresholds = profConfig.getPackageRecordThreshold();
+		if (packageThresholds != null && packageThresholds.trim().length() > 0) {
+			for (String rule : packageThresholds.split(";")) {
+				RecordThreshold.addRule(rule, true);
+			}
+		}
+		String methodThresholds = profConfig.getMethodRecordThreshold();
+		if (methodThresholds != null && methodThresholds.trim().length() > 0) {
+			for (String rule : methodThresholds.split(";")) {
+				RecordThreshold.addRule(rule, false);
+			}
+		}
+	}
+
+	/**
+	 * 加载离线织入的方法表,须在注册ClassFileTransformer之前调用
+	 */
+	public void loadMethodTable() {
+		String path = profConfig.getMethodTablePath();
+		if (path == null || path.trim().length() == 0) {
+			return;
+		}
+		try {
+			MethodCache.loadMethodTable(path.trim());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
 
 	/**
@@ -285,5 +433,12 @@ public class Manager {
 		socketThread.start();
 		dumpThread.start();
 		samplerThread.start();
+
+		if (profConfig.isStartupProfile()) {
+			StartupReportThread startupThread = new StartupReportThread(profConfig);
+			startupThread.setName("TProfiler-StartupReport");
+			startupThread.setDaemon(true);
+			startupThread.start();
+		}
 	}
 }
@@ -10,11 +10,19 @@ package com.taobao.profile;
 
 import com.taobao.profile.dependence_query.RecordSlowQuery;
 import com.taobao.profile.dependence_query.SlowQueryData;
+import com.taobao.profile.dependence_query.SlowQueryFrame;
 import com.taobao.profile.runtime.ThreadData;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * 此类收集应用代码的运行时数据
@@ -43,13 +51,151 @@ public class Profiler {
 	 */
 	public static SlowQueryData[] slowQueryProfile = new SlowQueryData[size];
 
+	/**
+	 * 计数分段数,按线程ID分散到不同的计数数组,减少多线程对同一方法计数的竞争
+	 */
+	private static final int COUNT_STRIPES = 8;
+	/**
+	 * 每个计数块的方法数为2^COUNT_CHUNK_BITS,与MethodCache的分块一致
+	 */
+	private static final int COUNT_CHUNK_BITS = 12;
+	private static final int COUNT_CHUNK_SIZE = 1 << COUNT_CHUNK_BITS;
+	private static final int COUNT_CHUNK_MASK = COUNT_CHUNK_SIZE - 1;
+	private static final int COUNT_MAX_CHUNKS = 1024;
+	/**
+	 * 调用计数,下标为 分段 * COUNT_MAX_CHUNKS + 方法ID所在的块,按需创建
+	 */
+	private static final AtomicReferenceArray<AtomicLongArray> countChunks = new AtomicReferenceArray<AtomicLongArray>(
+			COUNT_STRIPES * COUNT_MAX_CHUNKS);
+
+	/**
+	 * 令牌中开始时间所占的位数,纳秒可以表示约78小时的耗时
+	 */
+	private static final int TOKEN_TIME_BITS = 48;
+	private static final long TOKEN_TIME_MASK = (1L << TOKEN_TIME_BITS) - 1;
+	/**
+	 * 令牌能表示的最大栈深度
+	 */
+	private static final int TOKEN_MAX_DEPTH = (1 << (64 - TOKEN_TIME_BITS - 1)) - 1;
+
+	/**
+	 * 没有单独配置阈值的方法的记录阈值,单位与计时一致(纳秒或毫秒)
+	 */
+	private static volatile long defaultRecordThreshold = 500000;
+	/**
+	 * 阈值块中表示没有单独配置阈值的值,读到时使用当前的全局阈值
+	 */
+	private static final long DEFAULT_THRESHOLD = Long.MIN_VALUE;
+	/**
+	 * 单独配置的记录阈值,单位与计时一致;与调用计数相同的分块,下标为方法ID所在的块,按需创建,不复制已有数据
+	 */
+	private static final AtomicReferenceArray<AtomicLongArray> thresholdChunks = new AtomicReferenceArray<AtomicLongArray>(
+			COUNT_MAX_CHUNKS);
+
+	/**
+	 * 线程是否正在执行探针,防止注入的JDK方法在探针内部被再次调用时递归
+	 */
+	private static final boolean[] inProbe = new boolean[size];
+
+	/**
+	 * 是否可以采集数据,由Manager设置.
+	 * 本类可能由启动类加载器加载,不能引用Manager等Agent的其他类
+	 */
+	private static volatile boolean profileFlag = false;
+	/**
+	 * 是否用纳秒计时
+	 */
+	private static volatile boolean needNanoTime = false;
+	/**
+	 * 慢查询记录阈值,-1表示不记录
+	 */
+	private static volatile int recordTime = -1;
+
+	/**
+	 * @param value
+	 */
+	public static void setProfileFlag(boolean value) {
+		profileFlag = value;
+	}
+
+	/**
+	 * @param value
+	 */
+	public static void setNeedNanoTime(boolean value) {
+		needNanoTime = value;
+	}
+
+	/**
+	 * @param value
+	 */
+	public static void setRecordTime(int value) {
+		recordTime = value;
+	}
+
+	/**
+	 * @param micros 全局记录阈值(微秒)
+	 */
+	public static void setDefaultRecordThreshold(long micros) {
+		defaultRecordThreshold = toClockUnit(micros);
+	}
+
+	/**
+	 * 设置一个方法的记录阈值,在注入时调用,无锁,可被并行的类加载同时调用
+	 * 
+	 * @param methodId
+	 * @param micros 微秒
+	 */
+	public static void setRecordThreshold(int methodId, long micros) {
+		int chunk = methodId >>> COUNT_CHUNK_BITS;
+		if (methodId < 0 || chunk >= COUNT_MAX_CHUNKS) {
+			return;
+		}
+		AtomicLongArray thresholds = thresholdChunks.get(chunk);
+		if (thresholds == null) {
+			// 新块中的方法都还没有单独的阈值,不能填入当前的全局阈值,否则全局阈值修改后仍用旧值
+			AtomicLongArray created = new AtomicLongArray(COUNT_CHUNK_SIZE);
+			for (int i = 0; i < COUNT_CHUNK_SIZE; i++) {
+				created.set(i, DEFAULT_THRESHOLD);
+			}
+			thresholdChunks.compareAndSet(chunk, null, created);
+			thresholds = thresholdChunks.get(chunk);
+		}
+		thresholds.set(methodId & COUNT_CHUNK_MASK, toClockUnit(micros));
+	}
+
+	/**
+	 * @param methodId
+	 * @return 方法的记录阈值,单位与计时一致
+	 */
+	private static long getRecordThreshold(long methodId) {
+		long chunk = methodId >>> COUNT_CHUNK_BITS;
+		if (chunk < COUNT_MAX_CHUNKS) {
+			AtomicLongArray thresholds = thresholdChunks.get((int) chunk);
+			if (thresholds != null) {
+				long threshold = thresholds.get((int) methodId & COUNT_CHUNK_MASK);
+				if (threshold != DEFAULT_THRESHOLD) {
+					return threshold;
+				}
+			}
+		}
+		return defaultRecordThreshold;
+	}
+
+	/**
+	 * @param micros
+	 * @return 换算成纳秒或毫秒
+	 */
+	private static long toClockUnit(long micros) {
+		return needNanoTime ? micros * 1000 : micros / 1000;
+	}
+
 	/**
 	 * 方法开始时调用,采集开始时间
 	 * 
 	 * @param methodId
 	 */
 	public static void Start(int methodId) {
-		if (!Manager.instance().canProfile()) {
+		if (!profileFlag) {
 			return;
 		}
 		long threadId = Thread.currentThread().getId();
@@ -57,14 +203,18 @@ public class Profiler {
 			return;
 		}
 
+		int threadIndex = (int) threadId;
+		if (inProbe[threadIndex]) {
+			return;
+		}
+		inProbe[threadIndex] = true;
 		long startTime;
-		if (Manager.isNeedNanoTime()) {
+		if (needNanoTime) {
 			startTime = System.nanoTime();
 		} else {
 			startTime = System.currentTimeMillis();
 		}
 		try {
-			int threadIndex = (int) threadId;
 			synchronized (threadProfile) {
 				ThreadData thrData = threadProfile[threadIndex];
 				if (thrData == null) {
@@ -78,12 +228,64 @@ public class Profiler {
 					frameData[1] = thrData.stackNum;
 					frameData[2] = startTime;
 					thrData.stackFrame.push(frameData);
+					thrData.setMethod(thrData.stackNum, methodId);
 					thrData.stackNum++;
 				}
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			inProbe[threadIndex] = false;
+		}
+	}
+
+	/**
+	 * 计数模式下方法开始时调用,只累加调用次数,不读时钟也不维护调用栈
+	 * 
+	 * @param methodId
+	 */
+	public static void Count(int methodId) {
+		if (!profileFlag) {
+			return;
+		}
+		int chunk = methodId >>> COUNT_CHUNK_BITS;
+		if (chunk >= COUNT_MAX_CHUNKS) {
+			return;
+		}
+		int stripe = (int) Thread.currentThread().getId() & (COUNT_STRIPES - 1);
+		int slot = stripe * COUNT_MAX_CHUNKS + chunk;
+		AtomicLongArray counters = countChunks.get(slot);
+		if (counters == null) {
+			countChunks.compareAndSet(slot, null, new AtomicLongArray(COUNT_CHUNK_SIZE));
+			counters = countChunks.get(slot);
+		}
+		counters.getAndIncrement(methodId & COUNT_CHUNK_MASK);
+	}
+
+	/**
+	 * 取出并清零所有分段的调用计数
+	 * 
+	 * @param size 方法数
+	 * @return 下标为方法ID的调用次数
+	 */
+	public static long[] drainCounts(int size) {
+		long[] counts = new long[size];
+		for (int stripe = 0; stripe < COUNT_STRIPES; stripe++) {
+			for (int chunk = 0; chunk < COUNT_MAX_CHUNKS && (chunk << COUNT_CHUNK_BITS) < size; chunk++) {
+				AtomicLongArray counters = countChunks.get(stripe * COUNT_MAX_CHUNKS + chunk);
+				if (counters == null) {
+					continue;
+				}
+				int base = chunk << COUNT_CHUNK_BITS;
+				int end = Math.min(COUNT_CHUNK_SIZE, size - base);
+				for (int i = 0; i < end; i++) {
+					if (counters.get(i) != 0) {
+						counts[base + i] += counters.getAndSet(i, 0);
+					}
+				}
+			}
 		}
+		return counts;
 	}
 
 	/**
@@ -92,7 +294,7 @@ public class Profiler {
 	 * @param methodId
 	 */
 	public static void End(int methodId) {
-		if (!Manager.instance().canProfile()) {
+		if (!profileFlag) {
 			return;
 		}
 		long threadId = Thread.currentThread().getId();
@@ -100,14 +302,18 @@ public class Profiler {
 			return;
 		}
 
+		int threadIndex = (int) threadId;
+		if (inProbe[threadIndex]) {
+			return;
+		}
+		inProbe[threadIndex] = true;
 		long endTime;
-		if (Manager.isNeedNanoTime()) {
+		if (needNanoTime) {
 			endTime = System.nanoTime();
 		} else {
 			endTime = System.currentTimeMillis();
 		}
 		try {
-			int threadIndex = (int) threadId;
 			ThreadData thrData = threadProfile[threadIndex];
 			if (thrData == null) {
 				return;
@@ -131,18 +337,103 @@ public class Profiler {
 					return;
 				}
 				long useTime = endTime - frameData[2];
-				if (Manager.isNeedNanoTime()) {
-					if (useTime > 500000) {
-						frameData[2] = useTime;
-						thrData.profileData.push(frameData);
-					}
-				} else if (useTime > 1) {
+				if (useTime > getRecordThreshold(id)) {
 					frameData[2] = useTime;
 					thrData.profileData.push(frameData);
 				}
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			inProbe[threadIndex] = false;
+		}
+	}
+
+	/**
+	 * 方法开始时调用,返回的令牌由注入的代码保存在方法的局部变量中,
+	 * 高16位为栈深度+1,低48位为开始时间;返回0表示不采集
+	 * 
+	 * @param methodId
+	 * @return
+	 */
+	public static long StartToken(int methodId) {
+		if (!profileFlag) {
+			return 0;
+		}
+		long threadId = Thread.currentThread().getId();
+		if (threadId < 0 || threadId >= size) {
+			return 0;
+		}
+		int threadIndex = (int) threadId;
+		if (inProbe[threadIndex]) {
+			return 0;
+		}
+		inProbe[threadIndex] = true;
+		try {
+			ThreadData thrData = threadProfile[threadIndex];
+			if (thrData == null) {
+				synchronized (threadProfile) {
+					thrData = threadProfile[threadIndex];
+					if (thrData == null) {
+						thrData = new ThreadData();
+						threadProfile[threadIndex] = thrData;
+					}
+				}
+			}
+			int depth = thrData.stackNum;
+			if (depth >= TOKEN_MAX_DEPTH) {
+				return 0;
+			}
+			thrData.setMethod(depth, methodId);
+			thrData.stackNum = depth + 1;
+			long startTime = needNanoTime ? System.nanoTime() : System.currentTimeMillis();
+			return ((long) (depth + 1) << TOKEN_TIME_BITS) | (startTime & TOKEN_TIME_MASK);
+		} finally {
+			inProbe[threadIndex] = false;
+		}
+	}
+
+	/**
+	 * 方法退出(包括异常退出)时调用,根据令牌直接算出耗时和栈深度,不需要查找和匹配栈帧
+	 * 
+	 * @param token StartToken的返回值
+	 * @param methodId
+	 */
+	public static void End(long token, int methodId) {
+		if (token == 0 || !profileFlag) {
+			return;
+		}
+		long threadId = Thread.currentThread().getId();
+		if (threadId < 0 || threadId >= size) {
+			return;
+		}
+		int threadIndex = (int) threadId;
+		ThreadData thrData = threadProfile[threadIndex];
+		if (thrData == null || inProbe[threadIndex]) {
+			return;
+		}
+		long endTime = needNanoTime ? System.nanoTime() : System.currentTimeMillis();
+		int depth = (int) (token >>> TOKEN_TIME_BITS) - 1;
+		// 恢复本方法开始时的栈深度,即使内层方法没有执行End也不会错位
+		thrData.stackNum = depth;
+		long useTime = (endTime - token) & TOKEN_TIME_MASK;
+		if (useTime <= getRecordThreshold(methodId)) {
+			return;
+		}
+		inProbe[threadIndex] = true;
+		try {
+			long[] frameData = new long[3];
+			frameData[0] = methodId;
+			frameData[1] = depth;
+			frameData[2] = useTime;
+			synchronized (thrData) {
+				// 栈太深则抛弃部分数据
+				if (thrData.profileData.size() <= 20000) {
+					thrData.profileData.push(frameData);
+				}
+			}
+		} finally {
+			inProbe[threadIndex] = false;
 		}
 	}
 
@@ -179,7 +470,7 @@ public class Profiler {
 	 * @return
 	 */
 	private static long getThreadID(){
-		if (!Manager.instance().canProfile()) {
+		if (!profileFlag) {
 			return -1;
 		}
 		long threadId = Thread.currentThread().getId();
@@ -195,7 +486,7 @@ public class Profiler {
 	 */
 	private static long getCurTime(){
 		long curTime;
-		if (Manager.isNeedNanoTime()) {
+		if (needNanoTime) {
 			curTime = System.nanoTime();
 		} else {
 			curTime = System.currentTimeMillis();
@@ -210,8 +501,12 @@ public class Profiler {
 	 */
 	private static SlowQueryData getThreadData(long threadId){
 		int threadIndex = (int) threadId;
+		SlowQueryData thrData = slowQueryProfile[threadIndex];
+		if (thrData != null) {
+			return thrData;
+		}
 		synchronized (slowQueryProfile) {
-			SlowQueryData thrData = slowQueryProfile[threadIndex];
+			thrData = slowQueryProfile[threadIndex];
 			if (thrData == null) {
 				thrData = new SlowQueryData();
 				slowQueryProfile[threadIndex] = thrData;
@@ -226,8 +521,8 @@ public class Profiler {
 	 * @return
 	 */
 	private static boolean isNeedRecord(long useTime){
-		int time = Manager.getRecordTime();
-		if (Manager.isNeedNanoTime()) {
+		int time = recordTime;
+		if (needNanoTime) {
 			time = time * 1000000;
 			if (useTime > time) {
 				return true;
@@ -239,42 +534,35 @@ public class Profiler {
 	}
 
 	/**
-	 * 弹出方法的堆栈信息；
-	 * @param thrData
-	 * @return
+	 * 开始记录mysql的信息
+	 * @param host
+	 * @param port
+	 * @param db
+	 * @param sql
 	 */
-	private static Object[] popStack(SlowQueryData thrData){
-		if(thrData==null){
-			return null;
-		}
-		synchronized (thrData) {
-			// 栈太深则抛弃部分数据
-			if (thrData.profileData.size() > 20000) {
-				thrData.stackNum--;
-				thrData.stackFrame.pop();
-				return null;
-			}
-			thrData.stackNum--;
-			Object[] frameData = thrData.stackFrame.pop();
-			return frameData;
-		}
+	public static void start4Mysql(String host,int port,String db,String sql){
+		start4Mysql(host, port, db, sql, null, 0, 0);
 	}
 
 	/**
-	 * 开始记录mysql的信息
+	 * 开始记录mysql的信息;sql为空时复制数据包中sql的字节,慢查询才在end4Mysql中解码.
+	 * 驱动的数据包缓冲区会被复用,不能保存其引用到查询结束
 	 * @param host
 	 * @param port
 	 * @param db
 	 * @param sql
+	 * @param packet 数据包的字节数组
+	 * @param offset sql在数据包中的开始位置
+	 * @param length 数据包的有效长度
 	 */
-	public static void start4Mysql(String host,int port,String db,String sql){
+	public static void start4Mysql(String host,int port,String db,String sql,byte[] packet,int offset,int length){
 		long threadId = getThreadID();
 
 		if(threadId==-1){
 			return;
 		}
 
-		if(Manager.getRecordTime()==-1){
+		if(recordTime==-1){
 			return;
 		}
 
@@ -283,21 +571,82 @@ public class Profiler {
 			SlowQueryData thrData = getThreadData(threadId);
 
 			synchronized (thrData) {
-				Object[] frameData = new Object[6];
-				frameData[0] = thrData.stackNum;
-				frameData[1] = startTime;
-				frameData[2] = host;
-				frameData[3] = port;
-				frameData[4] = db;
-				frameData[5] = sql;
-				thrData.stackFrame.push(frameData);
-				thrData.stackNum++;
+				SlowQueryFrame frame = thrData.push();
+				frame.startTime = startTime;
+				frame.host = host;
+				frame.port = port;
+				frame.db = db;
+				frame.sql = sql;
+				frame.packet = sql == null ? copySql(packet, offset, length) : null;
+				frame.offset = 0;
+				frame.length = frame.packet != null ? frame.packet.length : 0;
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * 慢查询记录的调用链最多保留的方法数,超过时只保留最内层的
+	 */
+	private static final int MAX_METHOD_PATH = 64;
+
+	/**
+	 * 记录慢查询的开始时间(墙上时间)、线程和调用链上的被注入方法,只在慢查询时调用
+	 * @param record
+	 * @param threadIndex
+	 * @param useTime
+	 */
+	private static void setContext(RecordSlowQuery record, int threadIndex, long useTime) {
+		record.setStartMillis(System.currentTimeMillis() - (needNanoTime ? useTime / 1000000 : useTime));
+		record.setThreadIndex(threadIndex);
+		ThreadData methodData = threadProfile[threadIndex];
+		if (methodData != null) {
+			record.setMethodPath(methodData.getMethodPath(MAX_METHOD_PATH));
+		}
+	}
+
+	/**
+	 * 复制数据包中sql的字节,只复制有效长度之内的部分
+	 * @param packet
+	 * @param offset
+	 * @param length
+	 * @return 没有sql时返回null
+	 */
+	private static byte[] copySql(byte[] packet, int offset, int length) {
+		if (packet == null) {
+			return null;
+		}
+		int end = Math.min(length, packet.length);
+		if (offset < 0 || offset >= end) {
+			return null;
+		}
+		return Arrays.copyOfRange(packet, offset, end);
+	}
+
+	/**
+	 * 从数据包中解码sql
+	 * @param packet
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	private static String decodeSql(byte[] packet, int offset, int length) {
+		if (packet == null) {
+			return null;
+		}
+		int end = Math.min(length, packet.length);
+		if (offset < 0 || offset >= end) {
+			return null;
+		}
+		try {
+			return new String(packet, offset, end - offset, "utf-8");
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
 	/**
 	 * mysql记录结束
 	 */
@@ -308,42 +657,537 @@ public class Profiler {
 			return;
 		}
 
-		if(Manager.getRecordTime()==-1){
+		if(recordTime==-1){
+			return;
+		}
+
+		long endTime = getCurTime();
+
+		SlowQueryData thrData = getThreadData(threadId);
+		synchronized (thrData) {
+			SlowQueryFrame frame = thrData.pop();
+			if (frame == null) {
+				return;
+			}
+			long useTime = endTime - frame.startTime;
+			// 栈太深则抛弃部分数据
+			if (isNeedRecord(useTime) && thrData.profileData.size() <= 20000) {
+				RecordSlowQuery record = new RecordSlowQuery();
+				record.setType("MYSQL");
+				record.setUseTime(useTime);
+				record.setNanoTime(needNanoTime);
+				record.setHost(frame.host);
+				record.setPort(frame.port);
+				record.setDb(frame.db);
+				record.setSql(frame.sql != null ? frame.sql : decodeSql(frame.packet, frame.offset, frame.length));
+				setContext(record, (int) threadId, useTime);
+				thrData.profileData.push(record);
+			}
+			frame.clear();
+		}
+	}
+
+	/**
+	 * JDBC Statement的execute方法开始时调用,嵌套调用只记录最外层
+	 * @param statement
+	 * @param sql 方法参数中的sql,PreparedStatement为null
+	 */
+	public static void startJdbc(Object statement, String sql){
+		long threadId = getThreadID();
+
+		if(threadId==-1){
+			return;
+		}
+
+		if(recordTime==-1){
+			return;
+		}
+
+		SlowQueryData thrData = getThreadData(threadId);
+		synchronized (thrData) {
+			if (thrData.jdbcDepth++ > 0) {
+				return;
+			}
+			SlowQueryFrame frame = thrData.jdbcFrame;
+			frame.statement = statement;
+			frame.sql = sql;
+			frame.startTime = getCurTime();
+		}
+	}
+
+	/**
+	 * JDBC Statement的execute方法结束(包括异常退出)时调用
+	 */
+	public static void endJdbc(){
+		long threadId = getThreadID();
+
+		if(threadId==-1){
+			return;
+		}
+
+		if(recordTime==-1){
 			return;
 		}
 
 		long endTime = getCurTime();
 
 		SlowQueryData thrData = getThreadData(threadId);
-		Object[] frameData = popStack(thrData);
-		if(frameData==null){
-			return ;
+		RecordSlowQuery record;
+		Object statement;
+		String sql;
+		synchronized (thrData) {
+			if (thrData.jdbcDepth <= 0 || --thrData.jdbcDepth > 0) {
+				return;
+			}
+			SlowQueryFrame frame = thrData.jdbcFrame;
+			long useTime = endTime - frame.startTime;
+			statement = frame.statement;
+			sql = frame.sql;
+			frame.clear();
+			if (!isNeedRecord(useTime) || thrData.profileData.size() > 20000) {
+				return;
+			}
+			record = new RecordSlowQuery();
+			record.setUseTime(useTime);
+			setContext(record, (int) threadId, useTime);
 		}
+		// 只有慢查询才取sql和连接信息,反射调用驱动方法不能持有锁
+		record.setType("JDBC");
+		record.setNanoTime(needNanoTime);
+		record.setUrl(getJdbcUrl(statement));
+		record.setSql(sql != null ? sql : String.valueOf(statement));
+		record.setStatement(statement == null ? "null" : statement.getClass().getName());
 
-		RecordSlowQuery record = new RecordSlowQuery();
-		Map<String, String> map = new HashMap<String, String>();
+		synchronized (thrData) {
+			thrData.profileData.push(record);
+		}
+	}
+
+	/**
+	 * Redis命令发送前调用,命令加入本线程的等待队列,Jedis在调用线程上发送命令和读回复
+	 * @param connection Jedis的Connection
+	 * @param command 命令,Jedis 4为CommandArguments
+	 * @param args Jedis 2/3的参数,Jedis 4为null
+	 */
+	public static void startRedis(Object connection, Object command, Object args){
+		long threadId = getThreadID();
+
+		if(threadId==-1){
+			return;
+		}
+
+		if(recordTime==-1){
+			return;
+		}
 
-		map.put("host", (String) frameData[2]);
-		map.put("port", frameData[3].toString());
-		map.put("db", (String) frameData[4]);
-		map.put("sql", (String) frameData[5]);
-		record.setRequestDesc(map);
-		record.setUseTime(endTime - (Long) frameData[1]);
-		record.setType("MYSQL");
+		SlowQueryData thrData = getThreadData(threadId);
+		synchronized (thrData) {
+			SlowQueryFrame frame = thrData.addPending();
+			frame.connection = connection;
+			frame.statement = command;
+			frame.args = args;
+			frame.startTime = getCurTime();
+		}
+	}
 
-		StringBuilder sb = new StringBuilder();
-		sb.append("MYSQL");
-		sb.append((String) frameData[2]);
-		sb.append(frameData[3].toString());
-		sb.append((String) frameData[4]);
+	/**
+	 * Redis命令发送失败时调用,撤销startRedis加入的命令
+	 */
+	public static void cancelRedis(){
+		long threadId = getThreadID();
 
-		if(!isNeedRecord(record.getUseTime())){
+		if(threadId==-1){
 			return;
 		}
-		map.put("nanoTime", Manager.isNeedNanoTime() + "");
+
+		SlowQueryData thrData = slowQueryProfile[(int) threadId];
+		if (thrData == null) {
+			return;
+		}
+		synchronized (thrData) {
+			thrData.removeLastPending();
+		}
+	}
+
+	/**
+	 * 收到Redis回复(包括读回复异常)时调用,查找本线程等待队列中该连接最早发送的命令
+	 * @param connection
+	 */
+	public static void endRedis(Object connection){
+		long threadId = getThreadID();
+
+		if(threadId==-1){
+			return;
+		}
+
+		if(recordTime==-1){
+			return;
+		}
+
+		long endTime = getCurTime();
+
+		SlowQueryData thrData = slowQueryProfile[(int) threadId];
+		if (thrData == null) {
+			return;
+		}
+		RecordSlowQuery record;
+		Object command;
+		Object args;
+		synchronized (thrData) {
+			SlowQueryFrame frame = thrData.removePending(connection);
+			if (frame == null) {
+				return;
+			}
+			long useTime = endTime - frame.startTime;
+			command = frame.statement;
+			args = frame.args;
+			frame.clear();
+			if (!isNeedRecord(useTime) || thrData.profileData.size() > 20000) {
+				return;
+			}
+			record = new RecordSlowQuery();
+			record.setUseTime(useTime);
+			setContext(record, (int) threadId, useTime);
+		}
+		// 只有慢命令才通过反射取地址、命令名和key,不能持有锁
+		record.setType("REDIS");
+		record.setNanoTime(needNanoTime);
+		record.setUrl(getRedisAddress(connection));
+		record.setSql(getRedisCommand(command, args));
+		record.setStatement(connection == null ? "null" : connection.getClass().getName());
 
 		synchronized (thrData) {
 			thrData.profileData.push(record);
 		}
 	}
+
+	/**
+	 * 记录的Redis key最大长度
+	 */
+	private static final int MAX_REDIS_KEY = 128;
+
+	/**
+	 * @param connection
+	 * @return host:port,取不到返回空串
+	 */
+	private static String getRedisAddress(Object connection){
+		if (connection == null) {
+			return "";
+		}
+		try {
+			// Jedis 4
+			Object address = invokeDeclared(connection, "getHostAndPort");
+			if (address != null) {
+				return address.toString();
+			}
+			// Jedis 2/3
+			return invokeDeclared(connection, "getHost") + ":" + invokeDeclared(connection, "getPort");
+		} catch (Throwable e) {
+			return "";
+		}
+	}
+
+	/**
+	 * @param command
+	 * @param args
+	 * @return 命令名和第一个key,如"GET user:1";AUTH、HELLO不记录参数
+	 */
+	private static String getRedisCommand(Object command, Object args){
+		if (command == null) {
+			return "";
+		}
+		try {
+			// Jedis 4的CommandArguments
+			Object type = invokeDeclared(command, "getCommand");
+			String name = getRedisName(type != null ? type : command);
+			if ("AUTH".equalsIgnoreCase(name) || "HELLO".equalsIgnoreCase(name)) {
+				return name;
+			}
+			String key = getRedisKey(command, args);
+			if (key == null) {
+				return name;
+			}
+			if (key.length() > MAX_REDIS_KEY) {
+				key = key.substring(0, MAX_REDIS_KEY);
+			}
+			return name + " " + key;
+		} catch (Throwable e) {
+			return String.valueOf(command);
+		}
+	}
+
+	/**
+	 * @param type Jedis的ProtocolCommand,2.x的Protocol.Command没有getRaw
+	 * @return
+	 * @throws Exception
+	 */
+	private static String getRedisName(Object type) throws Exception {
+		Object raw = invokeDeclared(type, "getRaw");
+		if (raw instanceof byte[]) {
+			return new String((byte[]) raw, "utf-8");
+		}
+		return String.valueOf(type);
+	}
+
+	/**
+	 * @param command
+	 * @param args
+	 * @return 第一个参数,没有返回null
+	 * @throws Exception
+	 */
+	private static String getRedisKey(Object command, Object args) throws Exception {
+		// Jedis 2/3
+		if (args instanceof byte[][]) {
+			byte[][] values = (byte[][]) args;
+			return values.length == 0 ? null : new String(values[0], "utf-8");
+		}
+		// Jedis 4,第一个元素是命令
+		if (!(command instanceof Iterable)) {
+			return null;
+		}
+		Iterator<?> it = ((Iterable<?>) command).iterator();
+		if (it.hasNext()) {
+			it.next();
+		}
+		if (!it.hasNext()) {
+			return null;
+		}
+		Object raw = invokeDeclared(it.next(), "getRaw");
+		return raw instanceof byte[] ? new String((byte[]) raw, "utf-8") : null;
+	}
+
+	/**
+	 * HTTP请求开始时调用,嵌套调用(如失败重试)只记录最外层
+	 * @param target JDK为HttpURLConnection;Apache HttpClient为HttpHost,可能为null
+	 * @param request Apache HttpClient的HttpRequest,JDK为null
+	 */
+	public static void startHttp(Object target, Object request){
+		long threadId = getThreadID();
+
+		if(threadId==-1){
+			return;
+		}
+
+		if(recordTime==-1){
+			return;
+		}
+
+		SlowQueryData thrData = getThreadData(threadId);
+		synchronized (thrData) {
+			if (thrData.httpDepth++ > 0) {
+				return;
+			}
+			SlowQueryFrame frame = thrData.httpFrame;
+			frame.connection = target;
+			frame.statement = request;
+			frame.startTime = getCurTime();
+		}
+	}
+
+	/**
+	 * HTTP请求结束(包括异常退出)时调用
+	 * @param response JDK为响应的状态行;Apache HttpClient为HttpResponse;异常退出为null
+	 */
+	public static void endHttp(Object response){
+		long threadId = getThreadID();
+
+		if(threadId==-1){
+			return;
+		}
+
+		if(recordTime==-1){
+			return;
+		}
+
+		long endTime = getCurTime();
+
+		SlowQueryData thrData = slowQueryProfile[(int) threadId];
+		if (thrData == null) {
+			return;
+		}
+		RecordSlowQuery record;
+		Object target;
+		Object request;
+		synchronized (thrData) {
+			if (thrData.httpDepth <= 0 || --thrData.httpDepth > 0) {
+				return;
+			}
+			SlowQueryFrame frame = thrData.httpFrame;
+			long useTime = endTime - frame.startTime;
+			target = frame.connection;
+			request = frame.statement;
+			frame.clear();
+			if (!isNeedRecord(useTime) || thrData.profileData.size() > 20000) {
+				return;
+			}
+			record = new RecordSlowQuery();
+			record.setUseTime(useTime);
+			setContext(record, (int) threadId, useTime);
+		}
+		// 只有慢请求才取地址、路径和状态码,反射调用不能持有锁
+		record.setType("HTTP");
+		record.setNanoTime(needNanoTime);
+		setHttpRequest(record, target, request, response);
+
+		synchronized (thrData) {
+			thrData.profileData.push(record);
+		}
+	}
+
+	/**
+	 * 记录的HTTP路径最大长度
+	 */
+	private static final int MAX_HTTP_PATH = 256;
+
+	/**
+	 * 设置目标host:port、"方法 路径 状态码",路径不含查询参数,没有响应时状态码为-
+	 * @param record
+	 * @param target
+	 * @param request
+	 * @param response
+	 */
+	private static void setHttpRequest(RecordSlowQuery record, Object target, Object request, Object response){
+		String method = "";
+		String path = "";
+		String status = "-";
+		record.setUrl("");
+		try {
+			if (target instanceof HttpURLConnection) {
+				HttpURLConnection connection = (HttpURLConnection) target;
+				URL url = connection.getURL();
+				record.setUrl(url.getHost() + ":" + (url.getPort() == -1 ? url.getDefaultPort() : url.getPort()));
+				record.setStatement(target.getClass().getName());
+				method = connection.getRequestMethod();
+				path = url.getPath();
+				if (response != null) {
+					// 状态行形如"HTTP/1.1 200 OK"
+					String[] statusLine = response.toString().split(" ");
+					status = statusLine.length > 1 ? statusLine[1] : status;
+				}
+			} else if (request != null) {
+				record.setStatement(request.getClass().getName());
+				Object requestLine = invokeGetter(request, "getRequestLine");
+				method = String.valueOf(invokeGetter(requestLine, "getMethod"));
+				String uri = String.valueOf(invokeGetter(requestLine, "getUri"));
+				record.setUrl(target != null ? getHttpHost(target) : getHttpHost(uri));
+				path = getHttpPath(uri);
+				if (response != null) {
+					Object statusLine = invokeGetter(response, "getStatusLine");
+					status = String.valueOf(invokeGetter(statusLine, "getStatusCode"));
+				}
+			}
+		} catch (Throwable e) {
+			// 取不到的部分留空
+		}
+		if (path.length() == 0) {
+			path = "/";
+		} else if (path.length() > MAX_HTTP_PATH) {
+			path = path.substring(0, MAX_HTTP_PATH);
+		}
+		record.setSql(method + " " + path + " " + status);
+	}
+
+	/**
+	 * @param host Apache HttpClient的HttpHost
+	 * @return host:port,没有端口时按协议取默认端口
+	 * @throws Exception
+	 */
+	private static String getHttpHost(Object host) throws Exception {
+		int port = ((Integer) invokeGetter(host, "getPort")).intValue();
+		if (port == -1) {
+			port = "https".equalsIgnoreCase(String.valueOf(invokeGetter(host, "getSchemeName"))) ? 443 : 80;
+		}
+		return invokeGetter(host, "getHostName") + ":" + port;
+	}
+
+	/**
+	 * @param uri 绝对URI
+	 * @return host:port,不是绝对URI返回空串
+	 */
+	private static String getHttpHost(String uri) {
+		try {
+			URL url = new URL(uri);
+			return url.getHost() + ":" + (url.getPort() == -1 ? url.getDefaultPort() : url.getPort());
+		} catch (MalformedURLException e) {
+			return "";
+		}
+	}
+
+	/**
+	 * @param uri 请求行中的URI,可能是绝对URI
+	 * @return 去掉协议、主机和查询参数的路径
+	 */
+	private static String getHttpPath(String uri) {
+		int start = 0;
+		int scheme = uri.indexOf("://");
+		if (scheme >= 0) {
+			start = uri.indexOf('/', scheme + 3);
+			if (start < 0) {
+				return "";
+			}
+		}
+		int end = uri.length();
+		int query = uri.indexOf('?', start);
+		if (query >= 0) {
+			end = query;
+		}
+		int fragment = uri.indexOf('#', start);
+		if (fragment >= 0 && fragment < end) {
+			end = fragment;
+		}
+		return uri.substring(start, end);
+	}
+
+	/**
+	 * 通过反射取statement.getConnection().getMetaData().getURL();
+	 * 本类可能由启动类加载器加载,高版本JDK中看不到java.sql
+	 * @param statement
+	 * @return
+	 */
+	private static String getJdbcUrl(Object statement){
+		if (statement == null) {
+			return "";
+		}
+		try {
+			Object connection = invokeGetter(statement, "getConnection");
+			Object metaData = invokeGetter(connection, "getMetaData");
+			return String.valueOf(invokeGetter(metaData, "getURL"));
+		} catch (Throwable e) {
+			return "";
+		}
+	}
+
+	/**
+	 * 驱动的实现类可能不是public的,须setAccessible
+	 * @param target
+	 * @param name
+	 * @return
+	 * @throws Exception
+	 */
+	private static Object invokeGetter(Object target, String name) throws Exception {
+		Method method = target.getClass().getMethod(name);
+		method.setAccessible(true);
+		return method.invoke(target);
+	}
+
+	/**
+	 * 调用target类或其父类中声明的无参方法,包括非public的方法
+	 * @param target
+	 * @param name
+	 * @return 方法不存在返回null
+	 * @throws Exception
+	 */
+	private static Object invokeDeclared(Object target, String name) throws Exception {
+		for (Class<?> clazz = target.getClass(); clazz != null; clazz = clazz.getSuperclass()) {
+			Method method;
+			try {
+				method = clazz.getDeclaredMethod(name);
+			} catch (NoSuchMethodException e) {
+				continue;
+			}
+			method.setAccessible(true);
+			return method.invoke(target);
+		}
+		return null;
+	}
 }
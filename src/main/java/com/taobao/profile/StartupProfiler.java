@@ -0,0 +1,372 @@
+/**
+ * (C) 2011-2012 Alibaba Group Holding Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ */
+package com.taobao.profile;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 启动剖析,采集类初始化(&lt;clinit&gt;)耗时、类定义(SecureClassLoader.defineClass)耗时和Agent转换每个类的耗时.
+ * 启动报告写出后自动关闭,探针退化为一次volatile读
+ *
+ * @author shutong.dy
+ * @since 2026-10-19
+ */
+public class StartupProfiler {
+
+	/**
+	 * 是否正在采集
+	 */
+	private static volatile boolean enabled = false;
+
+	/**
+	 * 每个线程正在执行的&lt;clinit&gt;栈,元素为{方法ID, 开始时间, 子初始化耗时}
+	 */
+	private static final ThreadLocal<List<long[]>> clinitStack = new ThreadLocal<List<long[]>>() {
+		protected List<long[]> initialValue() {
+			return new ArrayList<long[]>();
+		}
+	};
+
+	/**
+	 * 每个线程正在执行的defineClass栈,定义一个类时可能先加载并定义它的父类
+	 */
+	private static final ThreadLocal<List<DefineFrame>> defineStack = new ThreadLocal<List<DefineFrame>>() {
+		protected List<DefineFrame> initialValue() {
+			return new ArrayList<DefineFrame>();
+		}
+	};
+
+	/**
+	 * 类初始化记录,元素为{方法ID, 总耗时, 自身耗时, 线程ID}
+	 */
+	private static final ConcurrentLinkedQueue<long[]> clinitRecords = new ConcurrentLinkedQueue<long[]>();
+
+	/**
+	 * 类定义记录
+	 */
+	private static final ConcurrentLinkedQueue<DefineRecord> defineRecords = new ConcurrentLinkedQueue<DefineRecord>();
+
+	/**
+	 * 类转换记录
+	 */
+	private static final ConcurrentLinkedQueue<TransformRecord> transformRecords = new ConcurrentLinkedQueue<TransformRecord>();
+
+	/**
+	 * 按类加载器汇总的数据,元素为{转换类数, 字节数, 转换耗时, 类定义自身耗时}
+	 */
+	private static final Map<String, long[]> loaderStats = new HashMap<String, long[]>();
+
+	/**
+	 * @return
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param value
+	 */
+	public static void setEnabled(boolean value) {
+		enabled = value;
+	}
+
+	/**
+	 * 类初始化开始时调用
+	 *
+	 * @param methodId
+	 */
+	public static void clinitStart(int methodId) {
+		if (!enabled) {
+			return;
+		}
+		long[] frame = new long[3];
+		frame[0] = methodId;
+		frame[1] = System.nanoTime();
+		clinitStack.get().add(frame);
+	}
+
+	/**
+	 * 类初始化结束(包括异常退出)时调用.停止采集后先判断开关,不再访问ThreadLocal,
+	 * 停止前未结束的栈帧随之丢弃
+	 *
+	 * @param methodId
+	 */
+	public static void clinitEnd(int methodId) {
+		if (!enabled) {
+			return;
+		}
+		List<long[]> stack = clinitStack.get();
+		if (stack.isEmpty()) {
+			return;
+		}
+		long[] frame = stack.remove(stack.size() - 1);
+		if (frame[0] != methodId) {
+			return;
+		}
+		long total = System.nanoTime() - frame[1];
+		if (!stack.isEmpty()) {
+			stack.get(stack.size() - 1)[2] += total;
+		}
+		long[] record = new long[4];
+		record[0] = methodId;
+		record[1] = total;
+		record[2] = total - frame[2];
+		record[3] = Thread.currentThread().getId();
+		clinitRecords.add(record);
+	}
+
+	/**
+	 * SecureClassLoader.defineClass开始时调用.URLClassLoader和JDK 9起的内置类加载器都经由它定义类,
+	 * 耗时包括解析、Agent转换和加载父类,不包括读取字节码
+	 *
+	 * @param loader
+	 * @param className 二进制类名,可能为null
+	 */
+	public static void defineStart(ClassLoader loader, String className) {
+		if (!enabled) {
+			return;
+		}
+		defineStack.get().add(new DefineFrame(loader, className, System.nanoTime()));
+	}
+
+	/**
+	 * SecureClassLoader.defineClass结束(包括异常退出)时调用
+	 */
+	public static void defineEnd() {
+		if (!enabled) {
+			return;
+		}
+		List<DefineFrame> stack = defineStack.get();
+		if (stack.isEmpty()) {
+			return;
+		}
+		DefineFrame frame = stack.remove(stack.size() - 1);
+		long total = System.nanoTime() - frame.start;
+		if (!stack.isEmpty()) {
+			stack.get(stack.size() - 1).children += total;
+		}
+		String loaderName = getLoaderName(frame.loader);
+		String className = frame.className == null ? "null" : frame.className.replace('.', '/');
+		long self = total - frame.children;
+		defineRecords.add(new DefineRecord(className, loaderName, total, self));
+		synchronized (loaderStats) {
+			getLoaderStat(loaderName)[3] += self;
+		}
+	}
+
+	/**
+	 * 记录Agent转换一个类的耗时
+	 *
+	 * @param loader
+	 * @param className
+	 * @param size 类字节码长度
+	 * @param useTime 纳秒
+	 */
+	public static void addTransform(ClassLoader loader, String className, int size, long useTime) {
+		String loaderName = getLoaderName(loader);
+		transformRecords.add(new TransformRecord(className, loaderName, size, useTime));
+		synchronized (loaderStats) {
+			long[] stat = getLoaderStat(loaderName);
+			stat[0]++;
+			stat[1] += size;
+			stat[2] += useTime;
+		}
+	}
+
+	/**
+	 * @return 类初始化记录
+	 */
+	public static List<long[]> getClinitRecords() {
+		return new ArrayList<long[]>(clinitRecords);
+	}
+
+	/**
+	 * @return 类定义记录
+	 */
+	public static List<DefineRecord> getDefineRecords() {
+		return new ArrayList<DefineRecord>(defineRecords);
+	}
+
+	/**
+	 * @return 类转换记录
+	 */
+	public static List<TransformRecord> getTransformRecords() {
+		return new ArrayList<TransformRecord>(transformRecords);
+	}
+
+	/**
+	 * @return 类加载器名到{转换类数, 字节数, 转换耗时, 类定义自身耗时}的映射
+	 */
+	public static Map<String, long[]> getLoaderStats() {
+		synchronized (loaderStats) {
+			Map<String, long[]> copy = new HashMap<String, long[]>();
+			for (Map.Entry<String, long[]> entry : loaderStats.entrySet()) {
+				copy.put(entry.getKey(), entry.getValue().clone());
+			}
+			return copy;
+		}
+	}
+
+	/**
+	 * 清除已采集的数据
+	 */
+	public static void clear() {
+		clinitRecords.clear();
+		defineRecords.clear();
+		transformRecords.clear();
+		synchronized (loaderStats) {
+			loaderStats.clear();
+		}
+	}
+
+	/**
+	 * 须持有loaderStats的锁
+	 *
+	 * @param loaderName
+	 * @return
+	 */
+	private static long[] getLoaderStat(String loaderName) {
+		long[] stat = loaderStats.get(loaderName);
+		if (stat == null) {
+			stat = new long[4];
+			loaderStats.put(loaderName, stat);
+		}
+		return stat;
+	}
+
+	/**
+	 * @param loader
+	 * @return
+	 */
+	private static String getLoaderName(ClassLoader loader) {
+		if (loader == null) {
+			return "bootstrap";
+		}
+		return loader.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(loader));
+	}
+
+	/**
+	 * 正在执行的defineClass
+	 */
+	private static class DefineFrame {
+		private final ClassLoader loader;
+		private final String className;
+		private final long start;
+		/**
+		 * 其中嵌套定义其他类的耗时
+		 */
+		private long children;
+
+		DefineFrame(ClassLoader loader, String className, long start) {
+			this.loader = loader;
+			this.className = className;
+			this.start = start;
+		}
+	}
+
+	/**
+	 * 一个类的定义记录
+	 *
+	 * @author shutong.dy
+	 * @since 2026-10-19
+	 */
+	public static class DefineRecord {
+		private final String className;
+		private final String loaderName;
+		private final long total;
+		private final long self;
+
+		DefineRecord(String className, String loaderName, long total, long self) {
+			this.className = className;
+			this.loaderName = loaderName;
+			this.total = total;
+			this.self = self;
+		}
+
+		/**
+		 * @return 内部类名
+		 */
+		public String getClassName() {
+			return className;
+		}
+
+		/**
+		 * @return the loaderName
+		 */
+		public String getLoaderName() {
+			return loaderName;
+		}
+
+		/**
+		 * @return 纳秒
+		 */
+		public long getTotal() {
+			return total;
+		}
+
+		/**
+		 * @return 不含嵌套定义其他类的耗时,纳秒
+		 */
+		public long getSelf() {
+			return self;
+		}
+	}
+
+	/**
+	 * 一个类的转换记录
+	 *
+	 * @author shutong.dy
+	 * @since 2026-10-19
+	 */
+	public static class TransformRecord {
+		private final String className;
+		private final String loaderName;
+		private final int size;
+		private final long useTime;
+
+		TransformRecord(String className, String loaderName, int size, long useTime) {
+			this.className = className;
+			this.loaderName = loaderName;
+			this.size = size;
+			this.useTime = useTime;
+		}
+
+		/**
+		 * @return the className
+		 */
+		public String getClassName() {
+			return className;
+		}
+
+		/**
+		 * @return the loaderName
+		 */
+		public String getLoaderName() {
+			return loaderName;
+		}
+
+		/**
+		 * @return the size
+		 */
+		public int getSize() {
+			return size;
+		}
+
+		/**
+		 * @return 纳秒
+		 */
+		public long getUseTime() {
+			return useTime;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/**
+ * (C) 2011-2012 Alibaba Group Holding Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ */
+package com.taobao.profile.analysis;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.taobao.profile.runtime.MethodCache;
+
+/**
+ * 读取MethodCache写出的方法log,一遍流式解析类名字典和方法行
+ *
+ * @author shutong.dy
+ * @since 2026-10-19
+ */
+public class MethodDictionary {
+
+	private MethodDictionary() {
+	}
+
+	/**
+	 * @param methodPath tmethod.log路径
+	 * @return 方法ID到"类名:方法名:行号"的映射
+	 * @throws IOException
+	 */
+	public static Map<Long, String> read(String methodPath) throws IOException {
+		Map<Long, String> methodIdMap = new HashMap<Long, String>();
+		List<String> classDict = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(methodPath));
+		try {
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("instrument")) {
+					continue;
+				}
+				if (line.equals(MethodCache.DICT_RESET)) {
+					classDict.clear();
+					continue;
+				}
+				String[] data = line.split(" ");
+				if (data[0].equals(MethodCache.DICT_CLASS) && data.length == 3) {
+					setDict(classDict, Integer.parseInt(data[1]), data[2]);
+					continue;
+				}
+				if (data.length == 5 && !data[0].startsWith("@") && !data[0].startsWith("#")) {
+					String className = classDict.get(Integer.parseInt(data[1]));
+					methodIdMap.put(Long.parseLong(data[0]), className + ":" + data[3] + ":" + data[4]);
+				} else if (data.length == 2) {
+					// 旧格式: 方法ID 类名:方法名:行号
+					methodIdMap.put(Long.parseLong(data[0]), data[1]);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return methodIdMap;
+	}
+
+	/**
+	 * @param dict
+	 * @param index
+	 * @param value
+	 */
+	private static void setDict(List<String> dict, int index, String value) {
+		while (dict.size() <= index) {
+			dict.add(null);
+		}
+		dict.set(index, value);
+	}
+}
@@ -0,0 +1,361 @@
+/**
+ * (C) 2011-2012 Alibaba Group Holding Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ */
+package com.taobao.profile.analysis;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.taobao.profile.dependence_query.SlowQueryStat;
+
+/**
+ * 分析DataDumpThread生成的mysqlProfiler.log,合并所有窗口中同一目标、同一SQL指纹的统计,
+ * 分别按总耗时和p99耗时排序输出,每组附带最慢的几条查询;
+ * 另按(调用链, SQL指纹)排序输出,找出哪个业务方法在哪种SQL上耗时最多
+ *
+ * @author shutong.dy
+ * @since 2026-10-19
+ */
+public class SlowQueryLogAnalysis {
+
+	/**
+	 * 每组输出的最慢查询条数
+	 */
+	private static final int EXEMPLARS = 3;
+
+	private String logPath;
+	private Map<String, SlowQueryStat> statMap = new HashMap<String, SlowQueryStat>();
+	/**
+	 * 每组最慢的查询,E行按tab拆分后的字段,按耗时降序
+	 */
+	private Map<SlowQueryStat, List<String[]>> exemplarMap = new HashMap<SlowQueryStat, List<String[]>>();
+	private Map<Long, String> methodIdMap = new HashMap<Long, String>();
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		if (args.length != 4 && args.length != 5) {
+			System.err.println("Usage: <mysqlProfiler.log path> <slowquerytotal.log path> <slowquerytail.log path> "
+					+ "<slowquerypath.log path> [tmethod.log path]");
+			return;
+		}
+		SlowQueryLogAnalysis analysis = new SlowQueryLogAnalysis(args[0], args.length == 5 ? args[4] : null);
+		analysis.reader();
+		analysis.printResult(args[1], analysis.getTotalResult());
+		analysis.printResult(args[2], analysis.getTailResult());
+		analysis.printPathResult(args[3]);
+	}
+
+	/**
+	 * @param inPath
+	 * @param methodPath 方法log路径,为空时只输出方法ID
+	 */
+	public SlowQueryLogAnalysis(String inPath, String methodPath) {
+		this.logPath = inPath;
+		if (methodPath != null) {
+			try {
+				methodIdMap = MethodDictionary.read(methodPath);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * 读取log,并解析
+	 */
+	private void reader() {
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(logPath)));
+			String line = null;
+			SlowQueryStat current = null;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("S\t")) {
+					current = addStat(line.split("\t", 8));
+				} else if (line.startsWith("P\t") && current != null) {
+					addPath(current, line.split("\t", 6));
+				} else if (line.startsWith("E\t") && current != null) {
+					addExemplar(current, line.split("\t", 7));
+				} else {
+					current = null;
+				}
+			}
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * S 类型 目标 次数 总耗时 最大耗时 耗时分布 指纹
+	 *
+	 * @param data
+	 * @return 合并后的统计
+	 */
+	private SlowQueryStat addStat(String[] data) {
+		if (data.length != 8) {
+			return null;
+		}
+		String key = data[1] + "\t" + data[2] + "\t" + data[7];
+		SlowQueryStat stat = statMap.get(key);
+		if (stat == null) {
+			stat = new SlowQueryStat(data[1], data[2], data[7], 0);
+			statMap.put(key, stat);
+			exemplarMap.put(stat, new ArrayList<String[]>());
+		}
+		stat.merge(Long.parseLong(data[3]), Long.parseLong(data[4]), Long.parseLong(data[5]),
+				SlowQueryStat.parseHistogram(data[6]));
+		return stat;
+	}
+
+	/**
+	 * P 调用链哈希 次数 总耗时 最大耗时 方法稳定ID
+	 *
+	 * @param stat
+	 * @param data
+	 */
+	private void addPath(SlowQueryStat stat, String[] data) {
+		if (data.length != 6) {
+			return;
+		}
+		String[] ids = data[5].length() == 0 ? new String[0] : data[5].split(",");
+		long[] stableIds = new long[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			stableIds[i] = Long.parseLong(ids[i]);
+		}
+		stat.addPath(Long.parseLong(data[1]), stableIds, Long.parseLong(data[2]), Long.parseLong(data[3]),
+				Long.parseLong(data[4]));
+	}
+
+	/**
+	 * E 耗时 开始时间 线程 方法ID 调用链哈希 sql
+	 *
+	 * @param stat
+	 * @param data
+	 */
+	private void addExemplar(SlowQueryStat stat, String[] data) {
+		if (data.length != 7) {
+			return;
+		}
+		List<String[]> exemplars = exemplarMap.get(stat);
+		exemplars.add(data);
+		Collections.sort(exemplars, new Comparator<String[]>() {
+			public int compare(String[] o1, String[] o2) {
+				return compareLong(Long.parseLong(o2[1]), Long.parseLong(o1[1]));
+			}
+		});
+		if (exemplars.size() > EXEMPLARS) {
+			exemplars.remove(EXEMPLARS);
+		}
+	}
+
+	/**
+	 * @return 按总耗时降序
+	 */
+	public List<SlowQueryStat> getTotalResult() {
+		List<SlowQueryStat> result = new ArrayList<SlowQueryStat>(statMap.values());
+		Collections.sort(result, new Comparator<SlowQueryStat>() {
+			public int compare(SlowQueryStat o1, SlowQueryStat o2) {
+				return compareLong(o2.getTotal(), o1.getTotal());
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * @return 按p99耗时降序,相同时按最大耗时
+	 */
+	public List<SlowQueryStat> getTailResult() {
+		List<SlowQueryStat> result = new ArrayList<SlowQueryStat>(statMap.values());
+		Collections.sort(result, new Comparator<SlowQueryStat>() {
+			public int compare(SlowQueryStat o1, SlowQueryStat o2) {
+				int cmp = compareLong(o2.percentile(99), o1.percentile(99));
+				return cmp != 0 ? cmp : compareLong(o2.getMax(), o1.getMax());
+			}
+		});
+		return result;
+	}
+
+	private static int compareLong(long x, long y) {
+		return x < y ? -1 : (x == y ? 0 : 1);
+	}
+
+	/**
+	 * 输出分析结果,每组一行:类型 目标 次数 总耗时 平均耗时 p99 最大耗时 指纹(耗时单位微秒),
+	 * 之后缩进输出最慢的查询:耗时 开始时间 线程 调用方法 sql
+	 *
+	 * @param outPath
+	 * @param result
+	 */
+	public void printResult(String outPath, List<SlowQueryStat> result) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		BufferedWriter writer = null;
+		try {
+			writer = new BufferedWriter(new FileWriter(outPath));
+			int count = 0;
+			for (SlowQueryStat stat : result) {
+				writer.write(stat.getType());
+				writer.write("\t");
+				writer.write(stat.getTarget());
+				writer.write("\t");
+				writer.write(String.valueOf(stat.getCount()));
+				writer.write("\t");
+				writer.write(String.valueOf(stat.getTotal()));
+				writer.write("\t");
+				writer.write(String.valueOf(stat.getCount() == 0 ? 0 : stat.getTotal() / stat.getCount()));
+				writer.write("\t");
+				writer.write(String.valueOf(stat.percentile(99)));
+				writer.write("\t");
+				writer.write(String.valueOf(stat.getMax()));
+				writer.write("\t");
+				writer.write(stat.getFingerprint());
+				writer.write("\n");
+				for (String[] exemplar : exemplarMap.get(stat)) {
+					writer.write("\t");
+					writer.write(exemplar[1]);
+					writer.write("\t");
+					writer.write(format.format(new Date(Long.parseLong(exemplar[2]))));
+					writer.write("\t");
+					writer.write(exemplar[3]);
+					writer.write("\t");
+					writer.write(getMethodName(exemplar[4]));
+					writer.write("\t");
+					writer.write(exemplar[6]);
+					writer.write("\n");
+				}
+
+				count++;
+				if ((count % 30) == 0) {
+					writer.flush();
+				}
+			}
+			writer.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * 按(调用链, SQL指纹)的总耗时降序输出,每行:调用方法 类型 目标 次数 总耗时 最大耗时 指纹,
+	 * 之后缩进输出从外到内的调用链
+	 *
+	 * @param outPath
+	 */
+	public void printPathResult(String outPath) {
+		final List<Object[]> result = new ArrayList<Object[]>();
+		for (SlowQueryStat stat : statMap.values()) {
+			for (SlowQueryStat.PathStat path : stat.getPaths()) {
+				result.add(new Object[] { stat, path });
+			}
+		}
+		Collections.sort(result, new Comparator<Object[]>() {
+			public int compare(Object[] o1, Object[] o2) {
+				SlowQueryStat.PathStat p1 = (SlowQueryStat.PathStat) o1[1];
+				SlowQueryStat.PathStat p2 = (SlowQueryStat.PathStat) o2[1];
+				return compareLong(p2.getTotal(), p1.getTotal());
+			}
+		});
+
+		BufferedWriter writer = null;
+		try {
+			writer = new BufferedWriter(new FileWriter(outPath));
+			int count = 0;
+			for (Object[] entry : result) {
+				SlowQueryStat stat = (SlowQueryStat) entry[0];
+				SlowQueryStat.PathStat path = (SlowQueryStat.PathStat) entry[1];
+				long[] stableIds = path.getStableIds();
+				if (path.getHash() == 0) {
+					writer.write("(other)");
+				} else if (stableIds.length == 0) {
+					writer.write("(none)");
+				} else {
+					writer.write(getMethodName(String.valueOf(stableIds[stableIds.length - 1])));
+				}
+				writer.write("\t");
+				writer.write(stat.getType());
+				writer.write("\t");
+				writer.write(stat.getTarget());
+				writer.write("\t");
+				writer.write(String.valueOf(path.getCount()));
+				writer.write("\t");
+				writer.write(String.valueOf(path.getTotal()));
+				writer.write("\t");
+				writer.write(String.valueOf(path.getMax()));
+				writer.write("\t");
+				writer.write(stat.getFingerprint());
+				writer.write("\n");
+				for (long id : stableIds) {
+					writer.write("\t");
+					writer.write(getMethodName(String.valueOf(id)));
+					writer.write("\n");
+				}
+
+				count++;
+				if ((count % 30) == 0) {
+					writer.flush();
+				}
+			}
+			writer.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param methodId 稳定方法ID
+	 * @return 方法名,查不到时返回ID
+	 */
+	private String getMethodName(String methodId) {
+		try {
+			String name = methodIdMap.get(Long.parseLong(methodId));
+			return name == null ? methodId : name;
+		} catch (NumberFormatException e) {
+			return methodId;
+		}
+	}
+}
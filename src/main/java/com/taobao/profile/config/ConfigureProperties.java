@@ -36,7 +36,8 @@ import com.taobao.profile.utils.VariableNotFoundException;
  *   port = 50000
  *   debugMode = false
  *   needNanoTime = false
- *   ignoreGetSetMethod = true
+ *   ignoreTrivialMethod = true
+ *   trivialMethodSize = 10
  *   
  *   logFilePath = ${user.home}/logs/${logFileName}
  *   methodFilePath = ${user.home}/logs/${methodFileName}
@@ -200,6 +201,9 @@ public class ConfigureProperties extends Properties {
 
   public String getProperty(String key) {
     String value = delegate.getProperty(key);
+    if (value == null) {
+      return null;
+    }
     try {
       return Utilities.repleseVariables(value, context);
     } catch (VariableNotFoundException e) {
@@ -209,6 +213,9 @@ public class ConfigureProperties extends Properties {
 
   public String getProperty(String key, String defaultValue) {
     String value = delegate.getProperty(key, defaultValue);
+    if (value == null) {
+      return null;
+    }
     try {
       return Utilities.repleseVariables(value, context);
     } catch (VariableNotFoundException e) {
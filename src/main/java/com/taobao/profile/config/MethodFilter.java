@@ -0,0 +1,273 @@
+/**
+ * (C) 2011-2012 Alibaba Group Holding Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ * 
+ */
+package com.taobao.profile.config;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * 方法过滤器,在包名过滤之后按方法规则和注解选择需要注入的方法.
+ * 没有配置任何规则时所有方法都注入
+ * 
+ * 规则形如com.taobao.Foo#bar(Ljava/lang/String;)V, *匹配任意字符,
+ * 省略#method表示类中所有方法,省略(desc)表示所有重载;regex:前缀表示正则表达式
+ * 
+ * @author shutong.dy
+ * @since 2026-10-19
+ */
+public class MethodFilter {
+
+	/**
+	 * 正则表达式规则前缀
+	 */
+	private static final String REGEX_PREFIX = "regex:";
+
+	/**
+	 * 方法规则,转换为正则表达式
+	 */
+	private static List<String> includeMethods = new ArrayList<String>();
+	/**
+	 * 注解描述符集合,如Lcom/taobao/profile/Profiled;
+	 */
+	private static Set<String> profiledAnnotations = new HashSet<String>();
+	/**
+	 * 所有方法规则编译成的一个正则表达式
+	 */
+	private static volatile Pattern methodPattern;
+
+	/**
+	 * JDK方法规则,须在Profiler注入启动类加载器之后才能生效
+	 */
+	private static List<String> jdkMethods = new ArrayList<String>();
+	/**
+	 * JDK方法规则中的类名部分
+	 */
+	private static List<String> jdkClasses = new ArrayList<String>();
+	/**
+	 * JDK方法规则编译成的正则表达式
+	 */
+	private static volatile Pattern jdkMethodPattern;
+	/**
+	 * JDK方法规则的类名部分编译成的正则表达式
+	 */
+	private static volatile Pattern jdkClassPattern;
+
+	/**
+	 * 探针自身会用到的JDK类,不允许注入
+	 */
+	private static final String[] JDK_EXCLUDE = { "java/lang/", "java/util/Vector", "java/util/Stack",
+			"java/util/Arrays", "java/util/concurrent/atomic/", "sun/misc/", "sun/reflect/", "jdk/internal/" };
+
+	/**
+	 * @param pattern
+	 */
+	public static synchronized void addIncludeMethod(String pattern) {
+		pattern = pattern.trim();
+		if (pattern.length() == 0) {
+			return;
+		}
+		includeMethods.add(toRegex(pattern));
+		methodPattern = compile(includeMethods);
+	}
+
+	/**
+	 * @param pattern JDK方法规则,格式同includeMethods,须包含类名部分
+	 */
+	public static synchronized void addJdkMethod(String pattern) {
+		pattern = pattern.trim();
+		if (pattern.length() == 0) {
+			return;
+		}
+		jdkMethods.add(toRegex(pattern));
+		jdkClasses.add(toClassRegex(pattern));
+		jdkMethodPattern = compile(jdkMethods);
+		jdkClassPattern = compile(jdkClasses);
+	}
+
+	/**
+	 * @param annotation 注解类名
+	 */
+	public static synchronized void addProfiledAnnotation(String annotation) {
+		annotation = annotation.trim();
+		if (annotation.length() == 0) {
+			return;
+		}
+		Set<String> annotations = new HashSet<String>(profiledAnnotations);
+		annotations.add("L" + annotation.replace('.', '/') + ";");
+		profiledAnnotations = annotations;
+	}
+
+	/**
+	 * 是否配置了方法级规则
+	 * 
+	 * @return
+	 */
+	public static boolean isActive() {
+		return methodPattern != null || !profiledAnnotations.isEmpty();
+	}
+
+	/**
+	 * 是否是需要注入的方法
+	 * 
+	 * @param className 内部类名,如com/taobao/Foo
+	 * @param methodName
+	 * @param descriptor
+	 * @param annotations 方法和类上的注解描述符
+	 * @return
+	 */
+	public static boolean isNeedInject(String className, String methodName, String descriptor,
+			Set<String> annotations) {
+		if (!isActive()) {
+			return true;
+		}
+		for (String annotation : annotations) {
+			if (profiledAnnotations.contains(annotation)) {
+				return true;
+			}
+		}
+		Pattern pattern = methodPattern;
+		if (pattern == null) {
+			return false;
+		}
+		String key = className.replace('/', '.') + "#" + methodName + descriptor;
+		return pattern.matcher(key).matches();
+	}
+
+	/**
+	 * 是否配置了JDK方法规则
+	 * 
+	 * @return
+	 */
+	public static boolean hasJdkMethods() {
+		return jdkClassPattern != null;
+	}
+
+	/**
+	 * 是否是JDK方法规则选中的类
+	 * 
+	 * @param className 内部类名,如java/net/SocketInputStream
+	 * @return
+	 */
+	public static boolean isJdkClass(String className) {
+		Pattern pattern = jdkClassPattern;
+		if (pattern == null || className == null) {
+			return false;
+		}
+		for (String prefix : JDK_EXCLUDE) {
+			if (className.startsWith(prefix)) {
+				return false;
+			}
+		}
+		return pattern.matcher(className.replace('/', '.')).matches();
+	}
+
+	/**
+	 * 是否是JDK方法规则选中的方法
+	 * 
+	 * @param className
+	 * @param methodName
+	 * @param descriptor
+	 * @return
+	 */
+	public static boolean isJdkMethod(String className, String methodName, String descriptor) {
+		Pattern pattern = jdkMethodPattern;
+		if (pattern == null) {
+			return false;
+		}
+		String key = className.replace('/', '.') + "#" + methodName + descriptor;
+		return pattern.matcher(key).matches();
+	}
+
+	/**
+	 * @param regexes
+	 * @return 所有规则的或
+	 */
+	private static Pattern compile(List<String> regexes) {
+		StringBuilder sb = new StringBuilder();
+		for (String regex : regexes) {
+			if (sb.length() > 0) {
+				sb.append('|');
+			}
+			sb.append("(?:").append(regex).append(')');
+		}
+		return Pattern.compile(sb.toString());
+	}
+
+	/**
+	 * @param pattern
+	 * @return
+	 */
+	static String toRegex(String pattern) {
+		if (pattern.startsWith(REGEX_PREFIX)) {
+			return pattern.substring(REGEX_PREFIX.length());
+		}
+		return globToRegex(pattern);
+	}
+
+	/**
+	 * 规则中的类名部分,即#之前的部分
+	 * 
+	 * @param pattern
+	 * @return
+	 */
+	private static String toClassRegex(String pattern) {
+		if (pattern.startsWith(REGEX_PREFIX)) {
+			String regex = pattern.substring(REGEX_PREFIX.length());
+			int method = regex.indexOf('#');
+			return method < 0 ? regex : regex.substring(0, method);
+		}
+		int method = pattern.indexOf('#');
+		StringBuilder sb = new StringBuilder();
+		appendGlob(sb, (method < 0 ? pattern : pattern.substring(0, method)).replace('/', '.'));
+		return sb.toString();
+	}
+
+	/**
+	 * 通配符规则转换为正则表达式
+	 * 
+	 * @param glob
+	 * @return
+	 */
+	static String globToRegex(String glob) {
+		int method = glob.indexOf('#');
+		String className = method < 0 ? glob : glob.substring(0, method);
+		String methodName = method < 0 ? "*" : glob.substring(method + 1);
+		if (methodName.indexOf('(') < 0) {
+			methodName = methodName + "(*";
+		}
+		StringBuilder sb = new StringBuilder();
+		appendGlob(sb, className.replace('/', '.'));
+		sb.append('#');
+		appendGlob(sb, methodName);
+		return sb.toString();
+	}
+
+	/**
+	 * @param sb
+	 * @param glob
+	 */
+	private static void appendGlob(StringBuilder sb, String glob) {
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if (c == '*') {
+				sb.append(".*");
+			} else if (c == '?') {
+				sb.append('.');
+			} else {
+				if ("\\.[]{}()+-^$|".indexOf(c) >= 0) {
+					sb.append('\\');
+				}
+				sb.append(c);
+			}
+		}
+	}
+}
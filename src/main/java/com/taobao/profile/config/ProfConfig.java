@@ -64,11 +64,36 @@ public class ProfConfig {
 	 */
 	private String samplerFilePath;
 
+	/**
+	 * 离线织入生成的方法表路径
+	 */
+	private String methodTablePath;
+
+	/**
+	 * startup文件路径
+	 */
+	private String startupFilePath;
+
+	/**
+	 * 是否开启启动剖析(类初始化、类定义和Agent转换耗时)
+	 */
+	private boolean startupProfile;
+
+	/**
+	 * 启动剖析持续时间(秒),到时写出启动报告
+	 */
+	private int startupProfileTime;
+
 	/**
 	 * 不包括的ClassLoader
 	 */
 	private String excludeClassLoader;
 
+	/**
+	 * 父加载器链上出现即不注入的ClassLoader
+	 */
+	private String excludeClassLoaderParent;
+
 	/**
 	 * 包括的包名
 	 */
@@ -79,6 +104,21 @@ public class ProfConfig {
 	 */
 	private String excludePackageStartsWith;
 
+	/**
+	 * 方法级注入规则,形如Class#method(desc),支持通配符和regex:前缀
+	 */
+	private String includeMethods;
+
+	/**
+	 * 需要注入的JDK方法规则,格式同includeMethods
+	 */
+	private String includeJdkMethods;
+
+	/**
+	 * 标记需要注入的方法的注解类名
+	 */
+	private String profiledAnnotations;
+
 	/**
 	 * 每次profile用时
 	 */
@@ -100,9 +140,69 @@ public class ProfConfig {
 	private boolean needNanoTime;
 
 	/**
-	 * 是否忽略get/set方法
+	 * 是否忽略平凡方法(字节码很短,或者没有方法调用、循环和对象分配)
+	 */
+	private boolean ignoreTrivialMethod;
+
+	/**
+	 * 平凡方法的字节码长度上限
+	 */
+	private int trivialMethodSize;
+
+	/**
+	 * 是否避免注入越过JIT内联或编译上限,默认关闭
+	 */
+	private boolean jitAwareInstrument;
+
+	/**
+	 * 对应HotSpot -XX:MaxInlineSize
+	 */
+	private int maxInlineSize;
+
+	/**
+	 * 对应HotSpot -XX:FreqInlineSize
+	 */
+	private int freqInlineSize;
+
+	/**
+	 * 对应HotSpot -XX:+DontCompileHugeMethods的字节码上限
+	 */
+	private int hugeMethodLimit;
+
+	/**
+	 * 是否只统计方法调用次数,不计时
+	 */
+	private boolean countMode;
+
+	/**
+	 * count文件路径
+	 */
+	private String countFilePath;
+
+	/**
+	 * 方法耗时的全局记录阈值(微秒),-1表示纳秒计时500微秒、毫秒计时1毫秒
+	 */
+	private long recordThreshold = -1;
+
+	/**
+	 * 按包名前缀的记录阈值,形如com.taobao.rpc:50;com.taobao.batch:100000
+	 */
+	private String packageRecordThreshold;
+
+	/**
+	 * 按方法规则的记录阈值,形如com.taobao.Foo#bar*:20
+	 */
+	private String methodRecordThreshold;
+
+	/**
+	 * 慢查询按SQL指纹聚合后,每组保留完整SQL的条数
 	 */
-	private boolean ignoreGetSetMethod;
+	private int slowQueryExemplars;
+
+	/**
+	 * 是否对包名过滤选中的类也按继承关系查找JDBC驱动
+	 */
+	private boolean jdbcDetectIncludePackages;
 
 	/**
 	 * 是否进入调试模式
@@ -221,14 +321,35 @@ public class ProfConfig {
     String logFilePath = properties.getProperty("logFilePath");
     String methodFilePath = properties.getProperty("methodFilePath");
     String samplerFilePath = properties.getProperty("samplerFilePath");
+    String methodTablePath = properties.getProperty("methodTablePath");
+    String startupFilePath = properties.getProperty("startupFilePath");
+    String startupProfile = properties.getProperty("startupProfile");
+    String startupProfileTime = properties.getProperty("startupProfileTime");
     String includePackageStartsWith = properties.getProperty("includePackageStartsWith");
     String eachProfUseTime = properties.getProperty("eachProfUseTime");
     String eachProfIntervalTime = properties.getProperty("eachProfIntervalTime");
     String samplerIntervalTime = properties.getProperty("samplerIntervalTime");
     String excludePackageStartsWith = properties.getProperty("excludePackageStartsWith");
+    String includeMethods = properties.getProperty("includeMethods");
+    String profiledAnnotations = properties.getProperty("profiledAnnotations");
+    String includeJdkMethods = properties.getProperty("includeJdkMethods");
     String needNanoTime = properties.getProperty("needNanoTime");
-    String ignoreGetSetMethod = properties.getProperty("ignoreGetSetMethod");
+    // 兼容旧配置ignoreGetSetMethod
+    String ignoreTrivialMethod = properties.getProperty("ignoreTrivialMethod", properties.getProperty("ignoreGetSetMethod"));
+    String trivialMethodSize = properties.getProperty("trivialMethodSize");
     String excludeClassLoader = properties.getProperty("excludeClassLoader");
+    String excludeClassLoaderParent = properties.getProperty("excludeClassLoaderParent");
+    String jitAwareInstrument = properties.getProperty("jitAwareInstrument");
+    String maxInlineSize = properties.getProperty("maxInlineSize");
+    String freqInlineSize = properties.getProperty("freqInlineSize");
+    String hugeMethodLimit = properties.getProperty("hugeMethodLimit");
+    String profileMode = properties.getProperty("profileMode");
+    String countFilePath = properties.getProperty("countFilePath");
+    String recordThreshold = properties.getProperty("recordThreshold");
+    String packageRecordThreshold = properties.getProperty("packageRecordThreshold");
+    String methodRecordThreshold = properties.getProperty("methodRecordThreshold");
+    String slowQueryExemplars = properties.getProperty("slowQueryExemplars");
+    String jdbcDetectIncludePackages = properties.getProperty("jdbcDetectIncludePackages");
     String debugMode = properties.getProperty("debugMode");
     String port = properties.getProperty("port");
 	String recordTime = properties.getProperty("recordTime","-1");
@@ -236,15 +357,51 @@ public class ProfConfig {
     setPort(port == null ? 50000 : Integer.valueOf(port));
     setDebugMode("true".equalsIgnoreCase(debugMode == null ? null : debugMode.trim()));
     setExcludeClassLoader(excludeClassLoader);
+    setExcludeClassLoaderParent(excludeClassLoaderParent);
     setExcludePackageStartsWith(excludePackageStartsWith);
     setEndProfTime(endProfTime);
     setIncludePackageStartsWith(includePackageStartsWith);
+    setIncludeMethods(includeMethods);
+    setProfiledAnnotations(profiledAnnotations);
+    setIncludeJdkMethods(includeJdkMethods);
     setLogFilePath(logFilePath);
     setMethodFilePath(methodFilePath);
     setSamplerFilePath(samplerFilePath);
+    setMethodTablePath(methodTablePath);
+    if (startupFilePath == null) {
+    	setStartupFilePath(System.getProperty("user.home") + "/logs/tstartup.log");
+    } else {
+    	setStartupFilePath(startupFilePath);
+    }
+    setStartupProfile("true".equals(startupProfile));
+    setStartupProfileTime(startupProfileTime == null ? 120 : Integer.valueOf(startupProfileTime.trim()));
     setStartProfTime(startProfTime);
     setNeedNanoTime("true".equals(needNanoTime));
-    setIgnoreGetSetMethod("true".equals(ignoreGetSetMethod));
+    setIgnoreTrivialMethod("true".equals(ignoreTrivialMethod));
+    if (trivialMethodSize == null) {
+    	setTrivialMethodSize(10);
+    } else {
+    	setTrivialMethodSize(Integer.valueOf(trivialMethodSize.trim()));
+    }
+    setJitAwareInstrument("true".equals(jitAwareInstrument));
+    setMaxInlineSize(maxInlineSize == null ? 35 : Integer.valueOf(maxInlineSize.trim()));
+    setFreqInlineSize(freqInlineSize == null ? 325 : Integer.valueOf(freqInlineSize.trim()));
+    setHugeMethodLimit(hugeMethodLimit == null ? 8000 : Integer.valueOf(hugeMethodLimit.trim()));
+    setCountMode("count".equals(profileMode == null ? null : profileMode.trim()));
+    if (countFilePath == null) {
+    	setCountFilePath(System.getProperty("user.home") + "/logs/tcount.log");
+    } else {
+    	setCountFilePath(countFilePath);
+    }
+    if (recordThreshold == null || recordThreshold.trim().length() == 0) {
+    	setRecordThreshold(-1);
+    } else {
+    	setRecordThreshold(Long.valueOf(recordThreshold.trim()));
+    }
+    setPackageRecordThreshold(packageRecordThreshold);
+    setMethodRecordThreshold(methodRecordThreshold);
+    setSlowQueryExemplars(slowQueryExemplars == null ? 3 : Integer.valueOf(slowQueryExemplars.trim()));
+    setJdbcDetectIncludePackages("true".equals(jdbcDetectIncludePackages == null ? null : jdbcDetectIncludePackages.trim()));
     if (eachProfUseTime == null) {
     	setEachProfUseTime(5);
     } else {
@@ -327,6 +484,111 @@ public class ProfConfig {
 		this.methodFilePath = methodFilePath;
 	}
 
+	/**
+	 * @return the startupFilePath
+	 */
+	public String getStartupFilePath() {
+		return startupFilePath;
+	}
+
+	/**
+	 * @param startupFilePath
+	 *            the startupFilePath to set
+	 */
+	public void setStartupFilePath(String startupFilePath) {
+		this.startupFilePath = startupFilePath;
+	}
+
+	/**
+	 * @return the startupProfile
+	 */
+	public boolean isStartupProfile() {
+		return startupProfile;
+	}
+
+	/**
+	 * @param startupProfile
+	 *            the startupProfile to set
+	 */
+	public void setStartupProfile(boolean startupProfile) {
+		this.startupProfile = startupProfile;
+	}
+
+	/**
+	 * @return the startupProfileTime
+	 */
+	public int getStartupProfileTime() {
+		return startupProfileTime;
+	}
+
+	/**
+	 * @param startupProfileTime
+	 *            the startupProfileTime to set
+	 */
+	public void setStartupProfileTime(int startupProfileTime) {
+		this.startupProfileTime = startupProfileTime;
+	}
+
+	/**
+	 * @return the includeMethods
+	 */
+	public String getIncludeMethods() {
+		return includeMethods;
+	}
+
+	/**
+	 * @param includeMethods
+	 *            the includeMethods to set
+	 */
+	public void setIncludeMethods(String includeMethods) {
+		this.includeMethods = includeMethods;
+	}
+
+	/**
+	 * @return the includeJdkMethods
+	 */
+	public String getIncludeJdkMethods() {
+		return includeJdkMethods;
+	}
+
+	/**
+	 * @param includeJdkMethods
+	 *            the includeJdkMethods to set
+	 */
+	public void setIncludeJdkMethods(String includeJdkMethods) {
+		this.includeJdkMethods = includeJdkMethods;
+	}
+
+	/**
+	 * @return the profiledAnnotations
+	 */
+	public String getProfiledAnnotations() {
+		return profiledAnnotations;
+	}
+
+	/**
+	 * @param profiledAnnotations
+	 *            the profiledAnnotations to set
+	 */
+	public void setProfiledAnnotations(String profiledAnnotations) {
+		this.profiledAnnotations = profiledAnnotations;
+	}
+
+	/**
+	 * @return the methodTablePath
+	 */
+	public String getMethodTablePath() {
+		return methodTablePath;
+	}
+
+	/**
+	 * @param methodTablePath
+	 *            the methodTablePath to set
+	 */
+	public void setMethodTablePath(String methodTablePath) {
+		this.methodTablePath = methodTablePath;
+	}
+
 	/**
 	 * @return
 	 */
@@ -400,15 +662,29 @@ public class ProfConfig {
 	/**
 	 * @return
 	 */
-	public boolean isIgnoreGetSetMethod() {
-		return ignoreGetSetMethod;
+	public boolean isIgnoreTrivialMethod() {
+		return ignoreTrivialMethod;
 	}
 
 	/**
-	 * @param ignoreGetSetMethod
+	 * @param ignoreTrivialMethod
 	 */
-	public void setIgnoreGetSetMethod(boolean ignoreGetSetMethod) {
-		this.ignoreGetSetMethod = ignoreGetSetMethod;
+	public void setIgnoreTrivialMethod(boolean ignoreTrivialMethod) {
+		this.ignoreTrivialMethod = ignoreTrivialMethod;
+	}
+
+	/**
+	 * @return the trivialMethodSize
+	 */
+	public int getTrivialMethodSize() {
+		return trivialMethodSize;
+	}
+
+	/**
+	 * @param trivialMethodSize the trivialMethodSize to set
+	 */
+	public void setTrivialMethodSize(int trivialMethodSize) {
+		this.trivialMethodSize = trivialMethodSize;
 	}
 
 	/**
@@ -441,6 +717,20 @@ public class ProfConfig {
 		return samplerIntervalTime;
 	}
 
+	/**
+	 * @return the excludeClassLoaderParent
+	 */
+	public String getExcludeClassLoaderParent() {
+		return excludeClassLoaderParent;
+	}
+
+	/**
+	 * @param excludeClassLoaderParent the excludeClassLoaderParent to set
+	 */
+	public void setExcludeClassLoaderParent(String excludeClassLoaderParent) {
+		this.excludeClassLoaderParent = excludeClassLoaderParent;
+	}
+
 	/**
 	 * @return the excludeClassLoader
 	 */
@@ -455,6 +745,160 @@ public class ProfConfig {
 		this.excludeClassLoader = excludeClassLoader;
 	}
 
+	/**
+	 * @return the jitAwareInstrument
+	 */
+	public boolean isJitAwareInstrument() {
+		return jitAwareInstrument;
+	}
+
+	/**
+	 * @param jitAwareInstrument the jitAwareInstrument to set
+	 */
+	public void setJitAwareInstrument(boolean jitAwareInstrument) {
+		this.jitAwareInstrument = jitAwareInstrument;
+	}
+
+	/**
+	 * @return the maxInlineSize
+	 */
+	public int getMaxInlineSize() {
+		return maxInlineSize;
+	}
+
+	/**
+	 * @param maxInlineSize the maxInlineSize to set
+	 */
+	public void setMaxInlineSize(int maxInlineSize) {
+		this.maxInlineSize = maxInlineSize;
+	}
+
+	/**
+	 * @return the freqInlineSize
+	 */
+	public int getFreqInlineSize() {
+		return freqInlineSize;
+	}
+
+	/**
+	 * @param freqInlineSize the freqInlineSize to set
+	 */
+	public void setFreqInlineSize(int freqInlineSize) {
+		this.freqInlineSize = freqInlineSize;
+	}
+
+	/**
+	 * @return the hugeMethodLimit
+	 */
+	public int getHugeMethodLimit() {
+		return hugeMethodLimit;
+	}
+
+	/**
+	 * @param hugeMethodLimit the hugeMethodLimit to set
+	 */
+	public void setHugeMethodLimit(int hugeMethodLimit) {
+		this.hugeMethodLimit = hugeMethodLimit;
+	}
+
+	/**
+	 * @return the countMode
+	 */
+	public boolean isCountMode() {
+		return countMode;
+	}
+
+	/**
+	 * @param countMode the countMode to set
+	 */
+	public void setCountMode(boolean countMode) {
+		this.countMode = countMode;
+	}
+
+	/**
+	 * @return the countFilePath
+	 */
+	public String getCountFilePath() {
+		return countFilePath;
+	}
+
+	/**
+	 * @param countFilePath the countFilePath to set
+	 */
+	public void setCountFilePath(String countFilePath) {
+		this.countFilePath = countFilePath;
+	}
+
+	/**
+	 * @return the recordThreshold
+	 */
+	public long getRecordThreshold() {
+		return recordThreshold;
+	}
+
+	/**
+	 * @param recordThreshold the recordThreshold to set
+	 */
+	public void setRecordThreshold(long recordThreshold) {
+		this.recordThreshold = recordThreshold;
+	}
+
+	/**
+	 * @return the packageRecordThreshold
+	 */
+	public String getPackageRecordThreshold() {
+		return packageRecordThreshold;
+	}
+
+	/**
+	 * @param packageRecordThreshold the packageRecordThreshold to set
+	 */
+	public void setPackageRecordThreshold(String packageRecordThreshold) {
+		this.packageRecordThreshold = packageRecordThreshold;
+	}
+
+	/**
+	 * @return the methodRecordThreshold
+	 */
+	public String getMethodRecordThreshold() {
+		return methodRecordThreshold;
+	}
+
+	/**
+	 * @param methodRecordThreshold the methodRecordThreshold to set
+	 */
+	public void setMethodRecordThreshold(String methodRecordThreshold) {
+		this.methodRecordThreshold = methodRecordThreshold;
+	}
+
+	/**
+	 * @return the slowQueryExemplars
+	 */
+	public int getSlowQueryExemplars() {
+		return slowQueryExemplars;
+	}
+
+	/**
+	 * @param slowQueryExemplars the slowQueryExemplars to set
+	 */
+	public void setSlowQueryExemplars(int slowQueryExemplars) {
+		this.slowQueryExemplars = slowQueryExemplars;
+	}
+
+	/**
+	 * @return the jdbcDetectIncludePackages
+	 */
+	public boolean isJdbcDetectIncludePackages() {
+		return jdbcDetectIncludePackages;
+	}
+
+	/**
+	 * @param jdbcDetectIncludePackages the jdbcDetectIncludePackages to set
+	 */
+	public void setJdbcDetectIncludePackages(boolean jdbcDetectIncludePackages) {
+		this.jdbcDetectIncludePackages = jdbcDetectIncludePackages;
+	}
+
 	/**
 	 * @return the debugMode
 	 */
@@ -11,6 +11,8 @@ package com.taobao.profile.config;
 import java.util.HashSet;
 import java.util.Set;
 
+import com.taobao.profile.utils.WeakIdentityMap;
+
 /**
  * 包名过滤器,过滤注入或者不注入的Package
  * 
@@ -31,6 +33,15 @@ public class ProfFilter {
 	 * 不注入的ClassLoader集合
 	 */
 	private static Set<String> excludeClassLoader = new HashSet<String>();
+	/**
+	 * 父加载器链上出现这些ClassLoader时不注入
+	 */
+	private static Set<String> excludeClassLoaderParent = new HashSet<String>();
+	/**
+	 * 每个ClassLoader实例的判断结果,按实例比较,弱引用不阻止ClassLoader卸载;
+	 * 每次类加载都要查询,读不加锁
+	 */
+	private static final WeakIdentityMap<ClassLoader, Boolean> classLoaderDecisions = new WeakIdentityMap<ClassLoader, Boolean>();
 
 	static {
 		// 默认不注入的Package
@@ -66,7 +77,17 @@ public class ProfFilter {
 	 * @param classLoader
 	 */
 	public static void addExcludeClassLoader(String classLoader) {
-		excludeClassLoader.add(classLoader);
+		excludeClassLoader.add(classLoader.trim());
+		clearClassLoaderDecisions();
+	}
+
+	/**
+	 * 
+	 * @param classLoader
+	 */
+	public static void addExcludeClassLoaderParent(String classLoader) {
+		excludeClassLoaderParent.add(classLoader.trim());
+		clearClassLoaderDecisions();
 	}
 
 	/**
@@ -101,6 +122,25 @@ public class ProfFilter {
 		return false;
 	}
 
+	/**
+	 * 是否是不需要注入的类加载器,判断结果按ClassLoader实例缓存
+	 * 
+	 * @param classLoader
+	 * @return
+	 */
+	public static boolean isNotNeedInjectClassLoader(ClassLoader classLoader) {
+		if (classLoader == null) {
+			return false;
+		}
+		Boolean decision = classLoaderDecisions.get(classLoader);
+		if (decision != null) {
+			return decision.booleanValue();
+		}
+		boolean result = isExcludedClassLoader(classLoader);
+		classLoaderDecisions.put(classLoader, Boolean.valueOf(result));
+		return result;
+	}
+
 	/**
 	 * 是否是不需要注入的类加载器
 	 * 
@@ -108,11 +148,34 @@ public class ProfFilter {
 	 * @return
 	 */
 	public static boolean isNotNeedInjectClassLoader(String classLoader) {
-		for (String v : excludeClassLoader) {
-			if (classLoader.equals(v)) {
+		return excludeClassLoader.contains(classLoader);
+	}
+
+	/**
+	 * 按类名判断ClassLoader本身,再沿父加载器链判断
+	 * 
+	 * @param classLoader
+	 * @return
+	 */
+	private static boolean isExcludedClassLoader(ClassLoader classLoader) {
+		if (isNotNeedInjectClassLoader(classLoader.getClass().getName())) {
+			return true;
+		}
+		if (excludeClassLoaderParent.isEmpty()) {
+			return false;
+		}
+		for (ClassLoader loader = classLoader; loader != null; loader = loader.getParent()) {
+			if (excludeClassLoaderParent.contains(loader.getClass().getName())) {
 				return true;
 			}
 		}
 		return false;
 	}
+
+	/**
+	 * 过滤配置变化后清除缓存的判断结果
+	 */
+	private static void clearClassLoaderDecisions() {
+		classLoaderDecisions.clear();
+	}
 }
@@ -0,0 +1,167 @@
+/**
+ * (C) 2011-2012 Alibaba Group Holding Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ */
+package com.taobao.profile.config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.taobao.profile.Profiler;
+
+/**
+ * 方法耗时的记录阈值(微秒),耗时不超过阈值的调用不记录.
+ * 优先级:方法规则(按配置顺序第一个匹配) &gt; 最长的包名前缀 &gt; 全局阈值.
+ * 注入时按方法ID解析好写入Profiler,End只需读一次数组
+ *
+ * @author shutong.dy
+ * @since 2026-10-19
+ */
+public class RecordThreshold {
+
+	/**
+	 * 全局阈值
+	 */
+	private static volatile long defaultThreshold = 500;
+	/**
+	 * 包名前缀,内部类名形式,如com/taobao/rpc
+	 */
+	private static List<String> packages = new ArrayList<String>();
+	/**
+	 * 与packages一一对应的阈值
+	 */
+	private static List<Long> packageThresholds = new ArrayList<Long>();
+	/**
+	 * 方法规则,格式同includeMethods
+	 */
+	private static List<Pattern> methods = new ArrayList<Pattern>();
+	/**
+	 * 与methods一一对应的阈值
+	 */
+	private static List<Long> methodThresholds = new ArrayList<Long>();
+
+	/**
+	 * @param micros 全局阈值
+	 */
+	public static void setDefaultThreshold(long micros) {
+		defaultThreshold = micros;
+		Profiler.setDefaultRecordThreshold(micros);
+	}
+
+	/**
+	 * @return 全局阈值
+	 */
+	public static long getDefaultThreshold() {
+		return defaultThreshold;
+	}
+
+	/**
+	 * @param prefix 包名前缀,如com.taobao.rpc
+	 * @param micros
+	 */
+	public static synchronized void addPackageThreshold(String prefix, long micros) {
+		prefix = prefix.trim();
+		if (prefix.length() == 0) {
+			return;
+		}
+		packages.add(prefix.replace('.', '/'));
+		packageThresholds.add(micros);
+	}
+
+	/**
+	 * @param pattern 方法规则,如com.taobao.rpc.*Handler#handle*
+	 * @param micros
+	 */
+	public static synchronized void addMethodThreshold(String pattern, long micros) {
+		pattern = pattern.trim();
+		if (pattern.length() == 0) {
+			return;
+		}
+		methods.add(Pattern.compile(MethodFilter.toRegex(pattern)));
+		methodThresholds.add(micros);
+	}
+
+	/**
+	 * 解析"规则:阈值"形式的配置项,阈值在最后一个冒号之后,阈值不是整数的规则忽略
+	 *
+	 * @param rule
+	 * @param isPackage 是包名前缀还是方法规则
+	 */
+	public static void addRule(String rule, boolean isPackage) {
+		int colon = rule.lastIndexOf(':');
+		if (colon <= 0) {
+			return;
+		}
+		long micros;
+		try {
+			micros = Long.parseLong(rule.substring(colon + 1).trim());
+		} catch (NumberFormatException e) {
+			System.err.println("TProfiler: invalid record threshold, rule ignored: " + rule);
+			return;
+		}
+		if (isPackage) {
+			addPackageThreshold(rule.substring(0, colon), micros);
+		} else {
+			addMethodThreshold(rule.substring(0, colon), micros);
+		}
+	}
+
+	/**
+	 * 方法的记录阈值
+	 *
+	 * @param className 内部类名,如com/taobao/Foo
+	 * @param methodName
+	 * @param descriptor
+	 * @return 微秒
+	 */
+	public static synchronized long getThreshold(String className, String methodName, String descriptor) {
+		if (!methods.isEmpty()) {
+			String key = className.replace('/', '.') + "#" + methodName + descriptor;
+			for (int i = 0; i < methods.size(); i++) {
+				if (methods.get(i).matcher(key).matches()) {
+					return methodThresholds.get(i);
+				}
+			}
+		}
+		long threshold = defaultThreshold;
+		int matched = -1;
+		for (int i = 0; i < packages.size(); i++) {
+			String prefix = packages.get(i);
+			if (prefix.length() > matched && className.startsWith(prefix)) {
+				matched = prefix.length();
+				threshold = packageThresholds.get(i);
+			}
+		}
+		return threshold;
+	}
+
+	/**
+	 * 解析方法的阈值并写入Profiler,没有单独配置的方法使用全局阈值,不占用数组
+	 *
+	 * @param methodId
+	 * @param className
+	 * @param methodName
+	 * @param descriptor
+	 */
+	public static void apply(int methodId, String className, String methodName, String descriptor) {
+		long threshold = getThreshold(className, methodName, descriptor);
+		if (threshold != defaultThreshold) {
+			Profiler.setRecordThreshold(methodId, threshold);
+		}
+	}
+
+	/**
+	 * 清除包名和方法规则
+	 */
+	public static synchronized void clear() {
+		packages.clear();
+		packageThresholds.clear();
+		methods.clear();
+		methodThresholds.clear();
+	}
+}
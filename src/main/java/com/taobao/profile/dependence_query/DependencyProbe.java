@@ -0,0 +1,43 @@
+package com.taobao.profile.dependence_query;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+
+/**
+ * 依赖探针SPI,通过ServiceLoader加载,在META-INF/services/com.taobao.profile.dependence_query.DependencyProbe中注册.
+ * ProbeRegistry按类名前缀把类分派给探针,不匹配任何前缀的类不会调用探针
+ *
+ * @author shutong.dy
+ * @since 2026-10-19
+ */
+public interface DependencyProbe {
+
+    /**
+     * @return 探针名,用于调试输出
+     */
+    String getName();
+
+    /**
+     * @return 关心的类名前缀(内部类名,如com/mysql/),完整类名也是前缀;
+     *         空字符串表示所有类,每次类加载都会调用isNeedInject,不应使用
+     */
+    String[] getClassPrefixes();
+
+    /**
+     * 前缀匹配之后的精确判断
+     * @param loader
+     * @param className
+     * @param classfileBuffer
+     * @return 是否需要注入
+     */
+    boolean isNeedInject(ClassLoader loader, String className, byte[] classfileBuffer);
+
+    /**
+     * 创建类配置器,类以ClassReader.EXPAND_FRAMES读入
+     * @param visitor
+     * @param className
+     * @param reader 可以用来预先扫描类
+     * @return
+     */
+    IClassAdapter createClassAdapter(ClassVisitor visitor, String className, ClassReader reader);
+}
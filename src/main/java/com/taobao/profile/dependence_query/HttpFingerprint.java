@@ -0,0 +1,95 @@
+package com.taobao.profile.dependence_query;
+
+/**
+ * HTTP请求指纹:方法加路由和状态码类别.路径按'/'分段,纯数字、UUID或长十六进制串、过长的段替换为{id},
+ * 如"GET /users/123/orders 200"得到"GET /users/{id}/orders 2xx"
+ *
+ * @author shutong.dy
+ * @since 2026-10-19
+ */
+public class HttpFingerprint {
+
+    /**
+     * 变量段占位符
+     */
+    private static final String ID = "{id}";
+    /**
+     * 超过此长度的段视为变量
+     */
+    private static final int MAX_SEGMENT = 32;
+    /**
+     * 不短于此长度、含数字的十六进制串(可含'-')视为变量
+     */
+    private static final int MIN_HEX = 8;
+
+    private HttpFingerprint() {
+    }
+
+    /**
+     * @param request "方法 路径 状态码"
+     * @return 请求的指纹
+     */
+    public static String fingerprint(String request) {
+        if (request == null) {
+            return "";
+        }
+        int first = request.indexOf(' ');
+        int last = request.lastIndexOf(' ');
+        if (first < 0 || last <= first) {
+            return request;
+        }
+        StringBuilder sb = new StringBuilder(request.length());
+        sb.append(request, 0, first + 1);
+        int start = first + 1;
+        while (start <= last) {
+            int end = request.indexOf('/', start);
+            if (end < 0 || end > last) {
+                end = last;
+            }
+            if (isVariable(request, start, end)) {
+                sb.append(ID);
+            } else {
+                sb.append(request, start, end);
+            }
+            if (end < last) {
+                sb.append('/');
+            }
+            start = end + 1;
+        }
+        sb.append(' ');
+        String status = request.substring(last + 1);
+        if (status.length() == 3 && Character.isDigit(status.charAt(0))) {
+            sb.append(status.charAt(0)).append("xx");
+        } else {
+            sb.append(status);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param path
+     * @param start
+     * @param end
+     * @return 段是否是变量
+     */
+    private static boolean isVariable(String path, int start, int end) {
+        int length = end - start;
+        if (length == 0) {
+            return false;
+        }
+        if (length > MAX_SEGMENT) {
+            return true;
+        }
+        boolean digits = true;
+        boolean hex = true;
+        boolean hasDigit = false;
+        for (int i = start; i < end; i++) {
+            char c = path.charAt(i);
+            boolean digit = c >= '0' && c <= '9';
+            hasDigit |= digit;
+            digits &= digit;
+            hex &= digit || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F') || c == '-';
+        }
+        return digits || (hex && hasDigit && length >= MIN_HEX);
+    }
+}
@@ -1,6 +1,5 @@
 package com.taobao.profile.dependence_query;
 
-import com.taobao.profile.Profiler;
 import com.taobao.profile.runtime.MethodCache;
 import org.objectweb.asm.MethodAdapter;
 import org.objectweb.asm.MethodVisitor;
@@ -16,12 +15,10 @@ public abstract class IMethodAdapter extends MethodAdapter {
      */
     protected int mMethodId = 0;
 
-    public IMethodAdapter(MethodVisitor methodVisitor,String fileName, String className, String methodName) {
+    public IMethodAdapter(MethodVisitor methodVisitor, String fileName, String className, String methodName,
+                          String descriptor) {
         super(methodVisitor);
-        mMethodId = MethodCache.Request();
-        MethodCache.UpdateMethodName(mMethodId, fileName, className, methodName);
-        // 记录方法数
-        Profiler.instrumentMethodCount.getAndIncrement();
+        mMethodId = MethodCache.Request(fileName, className, methodName, descriptor);
     }
 
 }
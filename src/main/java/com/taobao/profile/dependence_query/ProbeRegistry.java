@@ -0,0 +1,217 @@
+package com.taobao.profile.dependence_query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import com.taobao.profile.Manager;
+import com.taobao.profile.Profiler;
+
+/**
+ * 依赖探针注册表,用ServiceLoader加载所有DependencyProbe,按类名前缀建成字典树,
+ * 每个类只需沿类名查找一次字典树.字典树建好后不再修改,注册新探针时整体重建后替换,
+ * 每次类加载的查找不加锁,匹配结果也预先算好
+ *
+ * @author shutong.dy
+ * @since 2026-10-19
+ */
+public class ProbeRegistry {
+
+    private static ProbeRegistry instance = new ProbeRegistry();
+
+    /**
+     * 前缀字典树的根
+     */
+    private volatile Node root;
+
+    /**
+     * 已注册的探针,只读
+     */
+    private volatile List<DependencyProbe> probes;
+
+    protected ProbeRegistry() {
+        List<DependencyProbe> loaded = new ArrayList<DependencyProbe>();
+        Iterator<DependencyProbe> it = ServiceLoader.load(DependencyProbe.class, ProbeRegistry.class.getClassLoader())
+                .iterator();
+        while (it.hasNext()) {
+            try {
+                loaded.add(it.next());
+            } catch (Throwable e) {
+                // 一个探针加载失败不影响其他探针
+                e.printStackTrace();
+            }
+        }
+        probes = Collections.unmodifiableList(loaded);
+        root = build(loaded);
+    }
+
+    public static ProbeRegistry getInstance() {
+        return instance;
+    }
+
+    /**
+     * 注册探针,重建字典树
+     * @param probe
+     */
+    public synchronized void register(DependencyProbe probe) {
+        List<DependencyProbe> list = new ArrayList<DependencyProbe>(probes);
+        list.add(probe);
+        Node newRoot = build(list);
+        probes = Collections.unmodifiableList(list);
+        root = newRoot;
+    }
+
+    /**
+     * @return 已注册的探针
+     */
+    public List<DependencyProbe> getProbes() {
+        return probes;
+    }
+
+    /**
+     * 沿类名查找字典树,长前缀(更具体)的探针在前
+     * @param className
+     * @return 前缀匹配的探针,不可修改
+     */
+    public List<DependencyProbe> match(String className) {
+        Node node = root;
+        List<DependencyProbe> matched = node.matched;
+        for (int i = 0; i < className.length(); i++) {
+            node = node.children.get(className.charAt(i));
+            if (node == null) {
+                break;
+            }
+            if (!node.matched.isEmpty()) {
+                matched = node.matched;
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * 由探针的类名前缀建字典树,并预先算好每个节点匹配的探针
+     * @param probes
+     * @return 根节点
+     */
+    private static Node build(List<DependencyProbe> probes) {
+        Node root = new Node();
+        for (DependencyProbe probe : probes) {
+            for (String prefix : probe.getClassPrefixes()) {
+                Node node = root;
+                for (int i = 0; i < prefix.length(); i++) {
+                    Node child = node.children.get(prefix.charAt(i));
+                    if (child == null) {
+                        child = new Node();
+                        node.children.put(prefix.charAt(i), child);
+                    }
+                    node = child;
+                }
+                if (!node.own.contains(probe)) {
+                    node.own.add(probe);
+                }
+            }
+        }
+        fill(root, Collections.<DependencyProbe> emptyList());
+        return root;
+    }
+
+    /**
+     * 节点匹配的探针为自身前缀的探针加上父节点匹配的探针
+     * @param node
+     * @param inherited 父节点匹配的探针
+     */
+    private static void fill(Node node, List<DependencyProbe> inherited) {
+        if (node.own.isEmpty()) {
+            node.matched = inherited;
+        } else {
+            List<DependencyProbe> matched = new ArrayList<DependencyProbe>(node.own);
+            for (DependencyProbe probe : inherited) {
+                if (!matched.contains(probe)) {
+                    matched.add(probe);
+                }
+            }
+            node.matched = Collections.unmodifiableList(matched);
+        }
+        for (Node child : node.children.values()) {
+            fill(child, node.matched);
+        }
+    }
+
+    /**
+     * 交给第一个需要注入的探针转换,只有前缀匹配的探针才会被调用
+     * @param loader
+     * @param className
+     * @param classfileBuffer
+     * @param redefined 是否是重新转换,重新转换的类已经计数
+     * @return 转换后的字节码,没有探针需要注入时返回null
+     */
+    public byte[] transform(ClassLoader loader, String className, byte[] classfileBuffer, boolean redefined) {
+        if (className == null) {
+            return null;
+        }
+        for (DependencyProbe probe : match(className)) {
+            byte[] result = transform(probe, loader, className, classfileBuffer, redefined);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 不经过前缀匹配,直接交给指定探针判断和转换
+     * @param probe
+     * @param loader
+     * @param className
+     * @param classfileBuffer
+     * @param redefined
+     * @return 转换后的字节码,不需要注入时返回null
+     */
+    public byte[] transform(DependencyProbe probe, ClassLoader loader, String className, byte[] classfileBuffer,
+            boolean redefined) {
+        try {
+            if (!probe.isNeedInject(loader, className, classfileBuffer)) {
+                return null;
+            }
+            if (Manager.instance().isDebugMode()) {
+                System.out.println(" ---- TProfiler Debug: ClassLoader:" + loader + " ---- class: " + className
+                        + "  by " + probe.getName());
+            }
+            if (!redefined) {
+                // 记录注入类数
+                Profiler.instrumentClassCount.getAndIncrement();
+            }
+
+            ClassReader reader = new ClassReader(classfileBuffer);
+            // 沿用原常量池,ASM 3原样复制的NestMembers等属性中的下标才不会错位
+            ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+            reader.accept(probe.createClassAdapter(writer, className, reader), ClassReader.EXPAND_FRAMES);
+            return writer.toByteArray();
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 字典树节点,建好后只读
+     */
+    private static class Node {
+        private Map<Character, Node> children = new HashMap<Character, Node>();
+        /**
+         * 前缀在此结束的探针
+         */
+        private List<DependencyProbe> own = new ArrayList<DependencyProbe>();
+        /**
+         * 类名经过此节点时匹配的探针,长前缀在前
+         */
+        private List<DependencyProbe> matched;
+    }
+}
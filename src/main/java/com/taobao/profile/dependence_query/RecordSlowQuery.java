@@ -1,17 +1,45 @@
 package com.taobao.profile.dependence_query;
 
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
-
 /**
+ * 一条慢查询记录
+ *
  * @author weigao
  * @since 15/7/15
  */
 public class RecordSlowQuery {
     private String type;
     private long useTime;
-    private Map<String, String> requestDesc;
+    /**
+     * useTime是纳秒还是毫秒
+     */
+    private boolean nanoTime;
+    /**
+     * 开始时间,墙上时间毫秒
+     */
+    private long startMillis;
+    /**
+     * 线程在Profiler中的下标,即线程ID
+     */
+    private int threadIndex;
+    /**
+     * 调用链上的被注入方法ID,从外到内
+     */
+    private int[] methodPath = new int[0];
+    private String host;
+    private int port;
+    private String db;
+    /**
+     * JDBC的连接url,Redis和HTTP为host:port
+     */
+    private String url;
+    /**
+     * sql,Redis为命令和第一个key,HTTP为方法、路径和状态码
+     */
+    private String sql;
+    /**
+     * JDBC的Statement实现类,Redis的连接实现类,HTTP客户端的实现类
+     */
+    private String statement;
 
     public long getUseTime() {
         return useTime;
@@ -21,31 +49,101 @@ public class RecordSlowQuery {
         this.useTime = useTime;
     }
 
+    public boolean isNanoTime() {
+        return nanoTime;
+    }
 
-    public Map<String, String> getRequestDesc() {
-        return requestDesc;
+    public void setNanoTime(boolean nanoTime) {
+        this.nanoTime = nanoTime;
     }
 
-    public void setRequestDesc(Map<String, String> requestDesc) {
-        this.requestDesc = requestDesc;
+    public long getStartMillis() {
+        return startMillis;
     }
 
-    private String map2Str() {
-        if (requestDesc == null) {
-            return "".intern();
-        }
+    public void setStartMillis(long startMillis) {
+        this.startMillis = startMillis;
+    }
+
+    public int getThreadIndex() {
+        return threadIndex;
+    }
+
+    public void setThreadIndex(int threadIndex) {
+        this.threadIndex = threadIndex;
+    }
+
+    /**
+     * @return 调用查询的被注入方法ID,没有返回-1
+     */
+    public int getMethodId() {
+        return methodPath.length == 0 ? -1 : methodPath[methodPath.length - 1];
+    }
+
+    public int[] getMethodPath() {
+        return methodPath;
+    }
+
+    public void setMethodPath(int[] methodPath) {
+        this.methodPath = methodPath;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public String getDb() {
+        return db;
+    }
+
+    public void setDb(String db) {
+        this.db = db;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public void setSql(String sql) {
+        this.sql = sql;
+    }
+
+    public String getStatement() {
+        return statement;
+    }
+
+    public void setStatement(String statement) {
+        this.statement = statement;
+    }
 
-        Set<Map.Entry<String, String>> entries = requestDesc.entrySet();
-        Iterator<Map.Entry<String, String>> iterator = entries.iterator();
-        StringBuilder sb = new StringBuilder();
-        while (iterator.hasNext()) {
-            Map.Entry<String, String> next = iterator.next();
-            sb.append(next.getKey());
-            sb.append(" : ");
-            sb.append(next.getValue());
-            sb.append(";");
+    /**
+     * @return 查询目标,有url时为url,否则为host:port/db
+     */
+    public String getTarget() {
+        if (url != null) {
+            return url;
         }
-        return sb.toString();
+        return host + ":" + port + "/" + db;
     }
 
     @Override
@@ -53,7 +151,8 @@ public class RecordSlowQuery {
         return "RecordSlowQuery{" +
                 "type=" + type +
                 ",useTime=" + useTime +
-                ", requestDesc=" + map2Str() +
+                ", target=" + getTarget() +
+                ", sql=" + sql +
                 '}';
     }
 
@@ -0,0 +1,76 @@
+package com.taobao.profile.dependence_query;
+
+/**
+ * Redis命令指纹:命令名加key的模式.key按':'分段,含数字或过长的段替换为*,
+ * 如"GET user:123:profile"得到"GET user:*:profile"
+ *
+ * @author shutong.dy
+ * @since 2026-10-19
+ */
+public class RedisFingerprint {
+
+    /**
+     * 变量段占位符
+     */
+    private static final String WILDCARD = "*";
+    /**
+     * 超过此长度的段视为变量
+     */
+    private static final int MAX_SEGMENT = 32;
+
+    private RedisFingerprint() {
+    }
+
+    /**
+     * @param command 命令名和第一个key,以空格分隔
+     * @return 命令的指纹
+     */
+    public static String fingerprint(String command) {
+        if (command == null) {
+            return "";
+        }
+        int space = command.indexOf(' ');
+        if (space < 0) {
+            return command;
+        }
+        StringBuilder sb = new StringBuilder(command.length());
+        sb.append(command, 0, space + 1);
+        int start = space + 1;
+        int n = command.length();
+        while (start <= n) {
+            int end = command.indexOf(':', start);
+            if (end < 0) {
+                end = n;
+            }
+            if (isVariable(command, start, end)) {
+                sb.append(WILDCARD);
+            } else {
+                sb.append(command, start, end);
+            }
+            if (end < n) {
+                sb.append(':');
+            }
+            start = end + 1;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param key
+     * @param start
+     * @param end
+     * @return 段是否含数字或过长
+     */
+    private static boolean isVariable(String key, int start, int end) {
+        if (end - start > MAX_SEGMENT) {
+            return true;
+        }
+        for (int i = start; i < end; i++) {
+            char c = key.charAt(i);
+            if (c >= '0' && c <= '9') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
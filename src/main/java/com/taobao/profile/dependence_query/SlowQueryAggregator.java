@@ -0,0 +1,132 @@
+package com.taobao.profile.dependence_query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.taobao.profile.runtime.MethodCache;
+
+/**
+ * 按(类型, 目标, 指纹)聚合一个统计窗口内的慢查询,组内再按调用链汇总,只在dump线程中使用
+ *
+ * @author shutong.dy
+ * @since 2026-10-19
+ */
+public class SlowQueryAggregator {
+
+    /**
+     * 每组保留完整查询的条数
+     */
+    private final int maxExemplars;
+
+    private final Map<String, SlowQueryStat> stats = new HashMap<String, SlowQueryStat>();
+
+    /**
+     * 同一条SQL在一个窗口内通常出现多次,按类型和SQL缓存其指纹
+     */
+    private final Map<String, String> fingerprints = new HashMap<String, String>();
+
+    public SlowQueryAggregator(int maxExemplars) {
+        this.maxExemplars = maxExemplars;
+    }
+
+    /**
+     * @param record
+     */
+    public void add(RecordSlowQuery record) {
+        String type = record.getType();
+        String sql = record.getSql();
+        String target = record.getTarget();
+        String cacheKey = type + '\t' + sql;
+        String fingerprint = fingerprints.get(cacheKey);
+        if (fingerprint == null) {
+            fingerprint = fingerprint(type, sql);
+            fingerprints.put(cacheKey, fingerprint);
+        }
+        String key = type + '\t' + target + '\t' + fingerprint;
+        SlowQueryStat stat = stats.get(key);
+        if (stat == null) {
+            stat = new SlowQueryStat(type, target, fingerprint, maxExemplars);
+            stats.put(key, stat);
+        }
+        long micros = toMicros(record.getUseTime(), record.isNanoTime());
+        stat.add(micros, record);
+        long[] stableIds = getStableIds(record);
+        stat.addPath(getPathHash(stableIds), stableIds, 1, micros, micros);
+    }
+
+    /**
+     * @param type
+     * @param sql
+     * @return Redis命令按key模式,HTTP请求按路由,其他按SQL指纹
+     */
+    private static String fingerprint(String type, String sql) {
+        if ("REDIS".equals(type)) {
+            return RedisFingerprint.fingerprint(sql);
+        }
+        if ("HTTP".equals(type)) {
+            return HttpFingerprint.fingerprint(sql);
+        }
+        return SqlFingerprint.fingerprint(sql);
+    }
+
+    /**
+     * @param record
+     * @return 调用链上方法的稳定ID,从外到内
+     */
+    public static long[] getStableIds(RecordSlowQuery record) {
+        int[] path = record.getMethodPath();
+        long[] stableIds = new long[path.length];
+        for (int i = 0; i < path.length; i++) {
+            stableIds[i] = MethodCache.getStableId(path[i]);
+        }
+        return stableIds;
+    }
+
+    /**
+     * 由稳定ID计算调用链哈希(FNV-1a),重启后同一调用链的哈希不变.0留给合并的调用链
+     * @param stableIds
+     * @return
+     */
+    public static long getPathHash(long[] stableIds) {
+        long hash = 0xcbf29ce484222325L;
+        for (long id : stableIds) {
+            for (int shift = 0; shift < 64; shift += 8) {
+                hash ^= (id >>> shift) & 0xff;
+                hash *= 0x100000001b3L;
+            }
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * 取出本窗口的统计并清空,按总耗时降序
+     * @return
+     */
+    public List<SlowQueryStat> drain() {
+        List<SlowQueryStat> result = new ArrayList<SlowQueryStat>(stats.values());
+        stats.clear();
+        fingerprints.clear();
+        Collections.sort(result, new Comparator<SlowQueryStat>() {
+            public int compare(SlowQueryStat o1, SlowQueryStat o2) {
+                if (o1.getTotal() != o2.getTotal()) {
+                    return o1.getTotal() > o2.getTotal() ? -1 : 1;
+                }
+                return o1.getFingerprint().compareTo(o2.getFingerprint());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @param useTime
+     * @param nanoTime useTime是否为纳秒,否则为毫秒
+     * @return 微秒
+     */
+    private static long toMicros(long useTime, boolean nanoTime) {
+        return nanoTime ? useTime / 1000 : useTime * 1000;
+    }
+}
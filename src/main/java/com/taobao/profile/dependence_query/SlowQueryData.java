@@ -2,9 +2,6 @@ package com.taobao.profile.dependence_query;
 
 import com.taobao.profile.runtime.ProfStack;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * @author weigao
  * @since 15/7/15
@@ -16,26 +13,156 @@ public class SlowQueryData {
     public ProfStack<RecordSlowQuery> profileData = new ProfStack<RecordSlowQuery>();
 
     /**
-     * 性能分析数据
+     * 栈帧池,下标小于stackNum的是正在执行的查询,其余留待复用
+     */
+    public SlowQueryFrame[] stackFrame = new SlowQueryFrame[4];
+    /**
+     * 当前栈深度
+     */
+    public int stackNum = 0;
+    /**
+     * JDBC执行方法的嵌套深度,只记录最外层的调用
+     */
+    public int jdbcDepth = 0;
+    /**
+     * 最外层JDBC调用
+     */
+    public SlowQueryFrame jdbcFrame = new SlowQueryFrame();
+    /**
+     * HTTP调用的嵌套深度,只记录最外层的调用
+     */
+    public int httpDepth = 0;
+    /**
+     * 最外层HTTP调用
      */
-    public Map<Integer,RecordSlowQuery> profileMap = new HashMap<Integer,RecordSlowQuery>();
+    public SlowQueryFrame httpFrame = new SlowQueryFrame();
+    /**
+     * 已发送、还没收到回复的Redis命令,环形队列,按发送顺序排列
+     */
+    public SlowQueryFrame[] pendingFrame = new SlowQueryFrame[PENDING_SIZE];
+    /**
+     * 队首下标
+     */
+    public int pendingHead = 0;
+    /**
+     * 队列长度
+     */
+    public int pendingSize = 0;
 
     /**
-     * 栈帧
+     * 一个线程最多等待回复的命令数,超过时丢弃最早的
      */
-    public ProfStack<Object[]> stackFrame = new ProfStack<Object[]>();
+    private static final int PENDING_SIZE = 256;
+
     /**
-     * 当前栈深度
+     * 取一个空闲栈帧压栈,只在栈第一次到达该深度时分配
+     * @return
      */
-    public int stackNum = 0;
+    public SlowQueryFrame push() {
+        if (stackNum == stackFrame.length) {
+            SlowQueryFrame[] frames = new SlowQueryFrame[stackNum * 2];
+            System.arraycopy(stackFrame, 0, frames, 0, stackNum);
+            stackFrame = frames;
+        }
+        SlowQueryFrame frame = stackFrame[stackNum];
+        if (frame == null) {
+            frame = new SlowQueryFrame();
+            stackFrame[stackNum] = frame;
+        }
+        stackNum++;
+        return frame;
+    }
+
+    /**
+     * @return 栈顶的栈帧,栈为空返回null.调用者用完后须clear
+     */
+    public SlowQueryFrame pop() {
+        if (stackNum <= 0) {
+            return null;
+        }
+        return stackFrame[--stackNum];
+    }
+
+    /**
+     * 取一个空闲栈帧加到等待队列的队尾,队列满时丢弃队首
+     * @return
+     */
+    public SlowQueryFrame addPending() {
+        if (pendingSize == PENDING_SIZE) {
+            pendingFrame[pendingHead].clear();
+            pendingHead = (pendingHead + 1) % PENDING_SIZE;
+            pendingSize--;
+        }
+        int tail = (pendingHead + pendingSize) % PENDING_SIZE;
+        SlowQueryFrame frame = pendingFrame[tail];
+        if (frame == null) {
+            frame = new SlowQueryFrame();
+            pendingFrame[tail] = frame;
+        }
+        pendingSize++;
+        return frame;
+    }
+
+    /**
+     * @return 移出的队首,队列为空返回null.调用者用完后须clear
+     */
+    private SlowQueryFrame pollPending() {
+        if (pendingSize == 0) {
+            return null;
+        }
+        SlowQueryFrame frame = pendingFrame[pendingHead];
+        pendingHead = (pendingHead + 1) % PENDING_SIZE;
+        pendingSize--;
+        return frame;
+    }
+
+    /**
+     * 撤销最后加入的栈帧,命令没有发送成功时使用
+     */
+    public void removeLastPending() {
+        if (pendingSize == 0) {
+            return;
+        }
+        pendingSize--;
+        pendingFrame[(pendingHead + pendingSize) % PENDING_SIZE].clear();
+    }
+
+    /**
+     * 从队首开始查找并移出第一个属于connection的栈帧.同一连接上的回复按发送顺序到达,通常就是队首
+     * @param connection
+     * @return 移出的栈帧,找不到返回null.调用者用完后须clear
+     */
+    public SlowQueryFrame removePending(Object connection) {
+        for (int i = 0; i < pendingSize; i++) {
+            SlowQueryFrame frame = pendingFrame[(pendingHead + i) % PENDING_SIZE];
+            if (frame.connection != connection) {
+                continue;
+            }
+            // 前面的栈帧依次后移一位,找到的栈帧放到队首再出队
+            for (int j = i; j > 0; j--) {
+                pendingFrame[(pendingHead + j) % PENDING_SIZE] = pendingFrame[(pendingHead + j - 1) % PENDING_SIZE];
+            }
+            pendingFrame[pendingHead] = frame;
+            return pollPending();
+        }
+        return null;
+    }
 
     /**
      * 清空数据
      */
     public void clear(){
         profileData.clear();
-        stackFrame.clear();
-        profileMap.clear();
+        for (int i = 0; i < stackNum; i++) {
+            stackFrame[i].clear();
+        }
         stackNum = 0;
+        jdbcDepth = 0;
+        jdbcFrame.clear();
+        httpDepth = 0;
+        httpFrame.clear();
+        while (pendingSize > 0) {
+            pollPending().clear();
+        }
     }
 }
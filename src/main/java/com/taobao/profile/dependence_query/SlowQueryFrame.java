@@ -0,0 +1,59 @@
+package com.taobao.profile.dependence_query;
+
+/**
+ * 一次正在执行的查询,由SlowQueryData按栈深度复用,查询结束后只清空引用.
+ * 没有超过阈值的查询不产生任何对象
+ *
+ * @author shutong.dy
+ * @since 2026-10-19
+ */
+public class SlowQueryFrame {
+    /**
+     * 开始时间
+     */
+    public long startTime;
+    public String host;
+    public int port;
+    public String db;
+    /**
+     * 方法参数中的sql,为空时从packet中解码
+     */
+    public String sql;
+    /**
+     * 从mysql数据包中复制的sql字节
+     */
+    public byte[] packet;
+    /**
+     * sql在packet中的开始位置
+     */
+    public int offset;
+    /**
+     * packet的有效长度
+     */
+    public int length;
+    /**
+     * JDBC的Statement,Redis的命令,HTTP请求
+     */
+    public Object statement;
+    /**
+     * Redis的连接,HTTP的目标主机或HttpURLConnection
+     */
+    public Object connection;
+    /**
+     * Redis命令的参数
+     */
+    public Object args;
+
+    /**
+     * 清空引用,避免线程池中的线程长期持有数据包和Statement
+     */
+    public void clear() {
+        host = null;
+        db = null;
+        sql = null;
+        packet = null;
+        statement = null;
+        connection = null;
+        args = null;
+    }
+}
@@ -0,0 +1,311 @@
+package com.taobao.profile.dependence_query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一个统计窗口内同一目标、同一SQL指纹的慢查询汇总:次数、总耗时、最大耗时、
+ * 以2为底的耗时分布,按调用链的汇总,以及最慢的几条查询
+ *
+ * @author shutong.dy
+ * @since 2026-10-19
+ */
+public class SlowQueryStat {
+
+    /**
+     * 分布的桶数,第i个桶(i>0)统计[2^(i-1), 2^i)微秒,最后一个桶不设上限
+     */
+    public static final int BUCKETS = 32;
+    /**
+     * 每组最多单独统计的调用链数,其余合并到哈希为0的调用链
+     */
+    public static final int MAX_PATHS = 16;
+
+    private final String type;
+    private final String target;
+    private final String fingerprint;
+
+    private long count;
+    /**
+     * 微秒
+     */
+    private long total;
+    /**
+     * 微秒
+     */
+    private long max;
+    private final long[] histogram = new long[BUCKETS];
+
+    /**
+     * 最慢的几条查询,按耗时降序
+     */
+    private final RecordSlowQuery[] exemplars;
+    private final long[] exemplarTimes;
+    private int exemplarCount;
+
+    /**
+     * 调用链哈希到汇总的映射
+     */
+    private final Map<Long, PathStat> paths = new HashMap<Long, PathStat>();
+
+    /**
+     * @param type 查询类型,如MYSQL、JDBC
+     * @param target 查询目标,如host:port/db
+     * @param fingerprint
+     * @param maxExemplars 保留完整查询的条数
+     */
+    public SlowQueryStat(String type, String target, String fingerprint, int maxExemplars) {
+        this.type = type;
+        this.target = target;
+        this.fingerprint = fingerprint;
+        int size = Math.max(0, maxExemplars);
+        this.exemplars = new RecordSlowQuery[size];
+        this.exemplarTimes = new long[size];
+    }
+
+    /**
+     * @param micros 耗时(微秒)
+     * @param record
+     */
+    public void add(long micros, RecordSlowQuery record) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        count++;
+        total += micros;
+        if (micros > max) {
+            max = micros;
+        }
+        histogram[bucket(micros)]++;
+        addExemplar(micros, record);
+    }
+
+    /**
+     * 累加一条调用链上的查询
+     * @param hash 调用链哈希
+     * @param stableIds 调用链上方法的稳定ID,从外到内
+     * @param count
+     * @param total 微秒
+     * @param max 微秒
+     */
+    public void addPath(long hash, long[] stableIds, long count, long total, long max) {
+        PathStat path = paths.get(hash);
+        if (path == null) {
+            if (paths.size() >= MAX_PATHS) {
+                hash = 0;
+                stableIds = new long[0];
+                path = paths.get(hash);
+            }
+            if (path == null) {
+                path = new PathStat(hash, stableIds);
+                paths.put(hash, path);
+            }
+        }
+        path.count += count;
+        path.total += total;
+        if (max > path.max) {
+            path.max = max;
+        }
+    }
+
+    /**
+     * @return 各调用链的汇总,按总耗时降序
+     */
+    public List<PathStat> getPaths() {
+        List<PathStat> result = new ArrayList<PathStat>(paths.values());
+        Collections.sort(result, new Comparator<PathStat>() {
+            public int compare(PathStat o1, PathStat o2) {
+                if (o1.total != o2.total) {
+                    return o1.total > o2.total ? -1 : 1;
+                }
+                return o1.hash < o2.hash ? -1 : (o1.hash == o2.hash ? 0 : 1);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 合并另一个窗口的统计,分析日志时使用
+     * @param count
+     * @param total
+     * @param max
+     * @param histogram
+     */
+    public void merge(long count, long total, long max, long[] histogram) {
+        this.count += count;
+        this.total += total;
+        if (max > this.max) {
+            this.max = max;
+        }
+        for (int i = 0; i < BUCKETS && i < histogram.length; i++) {
+            this.histogram[i] += histogram[i];
+        }
+    }
+
+    /**
+     * 插入排序,只保留最慢的exemplars.length条
+     * @param micros
+     * @param record
+     */
+    private void addExemplar(long micros, RecordSlowQuery record) {
+        int pos = exemplarCount;
+        while (pos > 0 && exemplarTimes[pos - 1] < micros) {
+            pos--;
+        }
+        if (pos >= exemplars.length) {
+            return;
+        }
+        int last = Math.min(exemplarCount, exemplars.length - 1);
+        for (int i = last; i > pos; i--) {
+            exemplars[i] = exemplars[i - 1];
+            exemplarTimes[i] = exemplarTimes[i - 1];
+        }
+        exemplars[pos] = record;
+        exemplarTimes[pos] = micros;
+        if (exemplarCount < exemplars.length) {
+            exemplarCount++;
+        }
+    }
+
+    /**
+     * @param micros
+     * @return 耗时所在的桶,即micros的二进制位数
+     */
+    public static int bucket(long micros) {
+        int bits = 64 - Long.numberOfLeadingZeros(micros);
+        return bits < BUCKETS ? bits : BUCKETS - 1;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long[] getHistogram() {
+        return histogram;
+    }
+
+    public int getExemplarCount() {
+        return exemplarCount;
+    }
+
+    public RecordSlowQuery getExemplar(int index) {
+        return exemplars[index];
+    }
+
+    public long getExemplarTime(int index) {
+        return exemplarTimes[index];
+    }
+
+    /**
+     * 由分布估算分位数,取所在桶的上界,不超过最大耗时
+     * @param percent 如99表示p99
+     * @return 微秒
+     */
+    public long percentile(double percent) {
+        long rank = (long) Math.ceil(count * percent / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram[i];
+            if (seen >= rank && histogram[i] > 0) {
+                return i == 0 ? 0 : Math.min(max, (1L << i) - 1);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @param value 形如"10:3,11:1"
+     * @return 分布数组
+     */
+    public static long[] parseHistogram(String value) {
+        long[] result = new long[BUCKETS];
+        if (value == null || value.length() == 0) {
+            return result;
+        }
+        for (String bucket : value.split(",")) {
+            int colon = bucket.indexOf(':');
+            int index = Integer.parseInt(bucket.substring(0, colon));
+            if (index >= 0 && index < BUCKETS) {
+                result[index] += Long.parseLong(bucket.substring(colon + 1));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return 非空的桶,形如"10:3,11:1"
+     */
+    public String histogramString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < BUCKETS; i++) {
+            if (histogram[i] == 0) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(i).append(':').append(histogram[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 一条调用链上的查询汇总
+     */
+    public static class PathStat {
+        private final long hash;
+        private final long[] stableIds;
+        private long count;
+        private long total;
+        private long max;
+
+        PathStat(long hash, long[] stableIds) {
+            this.hash = hash;
+            this.stableIds = stableIds;
+        }
+
+        public long getHash() {
+            return hash;
+        }
+
+        public long[] getStableIds() {
+            return stableIds;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public long getMax() {
+            return max;
+        }
+    }
+}
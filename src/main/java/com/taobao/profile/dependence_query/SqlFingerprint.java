@@ -0,0 +1,251 @@
+package com.taobao.profile.dependence_query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SQL指纹:去掉注释,字符串和数字常量替换为?,IN列表和多行VALUES折叠为(?+),
+ * 关键字和标识符转为小写,空白规范化.只差常量的SQL得到相同的指纹
+ *
+ * @author shutong.dy
+ * @since 2026-10-19
+ */
+public class SqlFingerprint {
+
+    /**
+     * 常量占位符
+     */
+    private static final String LITERAL = "?";
+    /**
+     * 折叠后的常量列表
+     */
+    private static final String LITERAL_LIST = "?+";
+    /**
+     * 运算符字符,连续的运算符字符作为一个记号
+     */
+    private static final String OPERATORS = "<>=!|&+-*/%^~:";
+
+    private SqlFingerprint() {
+    }
+
+    /**
+     * @param sql
+     * @return sql的指纹
+     */
+    public static String fingerprint(String sql) {
+        if (sql == null) {
+            return "";
+        }
+        return join(collapseLists(tokenize(sql)));
+    }
+
+    /**
+     * 切分记号,常量直接替换为?
+     * @param sql
+     * @return
+     */
+    static List<String> tokenize(String sql) {
+        List<String> tokens = new ArrayList<String>();
+        int n = sql.length();
+        int i = 0;
+        while (i < n) {
+            char c = sql.charAt(i);
+            char next = i + 1 < n ? sql.charAt(i + 1) : 0;
+            if (c <= ' ') {
+                // 空白和驱动数据包中的控制字符
+                i++;
+            } else if (c == '\'') {
+                i = skipQuoted(sql, i, c);
+                tokens.add(LITERAL);
+            } else if (c == '"' || c == '`') {
+                // 引号中的标识符原样保留
+                int end = skipQuoted(sql, i, c);
+                tokens.add(sql.substring(i, end));
+                i = end;
+            } else if (c == '/' && next == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? n : end + 2;
+            } else if ((c == '-' && next == '-') || c == '#') {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? n : end + 1;
+            } else if (isDigit(c) || (c == '.' && isDigit(next)) || (isSign(c) && isDigit(next) && isUnary(tokens))) {
+                i = skipNumber(sql, i + 1);
+                tokens.add(LITERAL);
+            } else if (isWordStart(c)) {
+                int end = i + 1;
+                while (end < n && isWordPart(sql.charAt(end))) {
+                    end++;
+                }
+                tokens.add(sql.substring(i, end).toLowerCase());
+                i = end;
+            } else if (OPERATORS.indexOf(c) >= 0) {
+                int end = i + 1;
+                while (end < n && OPERATORS.indexOf(sql.charAt(end)) >= 0) {
+                    // 运算符后紧跟的正负号属于数字
+                    if (isSign(sql.charAt(end)) && end + 1 < n && isDigit(sql.charAt(end + 1))) {
+                        break;
+                    }
+                    end++;
+                }
+                tokens.add(sql.substring(i, end));
+                i = end;
+            } else {
+                tokens.add(String.valueOf(c));
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * 把(?, ?, ...)折叠为(?+),再把连续的(?+), (?+)折叠为一个
+     * @param tokens
+     * @return
+     */
+    static List<String> collapseLists(List<String> tokens) {
+        List<String> result = new ArrayList<String>(tokens.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            String token = tokens.get(i);
+            if ("(".equals(token)) {
+                int end = literalListEnd(tokens, i);
+                if (end > 0) {
+                    // 多行VALUES中后续的行
+                    int size = result.size();
+                    if (size >= 4 && ",".equals(result.get(size - 1)) && ")".equals(result.get(size - 2))
+                            && LITERAL_LIST.equals(result.get(size - 3))) {
+                        result.remove(size - 1);
+                    } else {
+                        result.add("(");
+                        result.add(LITERAL_LIST);
+                        result.add(")");
+                    }
+                    i = end;
+                    continue;
+                }
+            }
+            result.add(token);
+        }
+        return result;
+    }
+
+    /**
+     * @param tokens
+     * @param open 左括号的位置
+     * @return 只含常量的列表对应右括号的位置,不是这样的列表返回-1
+     */
+    private static int literalListEnd(List<String> tokens, int open) {
+        boolean expectLiteral = true;
+        for (int i = open + 1; i < tokens.size(); i++) {
+            String token = tokens.get(i);
+            if (expectLiteral && (LITERAL.equals(token) || LITERAL_LIST.equals(token))) {
+                expectLiteral = false;
+            } else if (!expectLiteral && ",".equals(token)) {
+                expectLiteral = true;
+            } else if (!expectLiteral && ")".equals(token)) {
+                return i;
+            } else {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 记号之间用一个空格分隔,'('之后、')'和','之前以及'.'两侧不加空格
+     * @param tokens
+     * @return
+     */
+    private static String join(List<String> tokens) {
+        StringBuilder sb = new StringBuilder();
+        String prev = null;
+        for (String token : tokens) {
+            if (prev != null && !"(".equals(prev) && !".".equals(prev) && !")".equals(token) && !",".equals(token)
+                    && !".".equals(token)) {
+                sb.append(' ');
+            }
+            sb.append(token);
+            prev = token;
+        }
+        // 去掉末尾的分号
+        int len = sb.length();
+        if (len > 0 && sb.charAt(len - 1) == ';') {
+            sb.setLength(len > 1 && sb.charAt(len - 2) == ' ' ? len - 2 : len - 1);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param sql
+     * @param start 开始引号的位置
+     * @param quote
+     * @return 结束引号之后的位置
+     */
+    private static int skipQuoted(String sql, int start, char quote) {
+        int n = sql.length();
+        int i = start + 1;
+        while (i < n) {
+            char c = sql.charAt(i);
+            if (c == '\\' && quote == '\'') {
+                i += 2;
+            } else if (c == quote) {
+                // 两个引号表示转义
+                if (i + 1 < n && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                } else {
+                    return i + 1;
+                }
+            } else {
+                i++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @param sql
+     * @param i 数字第一个字符之后的位置
+     * @return 数字之后的位置,包括小数、指数和十六进制
+     */
+    private static int skipNumber(String sql, int i) {
+        int n = sql.length();
+        while (i < n) {
+            char c = sql.charAt(i);
+            if (isWordPart(c) || c == '.') {
+                i++;
+            } else if (isSign(c) && (sql.charAt(i - 1) == 'e' || sql.charAt(i - 1) == 'E')) {
+                i++;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * @param tokens
+     * @return 正负号是否在一元位置,即前面是运算符、左括号、逗号或者语句开始
+     */
+    private static boolean isUnary(List<String> tokens) {
+        if (tokens.isEmpty()) {
+            return true;
+        }
+        String prev = tokens.get(tokens.size() - 1);
+        return "(".equals(prev) || ",".equals(prev) || OPERATORS.indexOf(prev.charAt(prev.length() - 1)) >= 0;
+    }
+
+    private static boolean isSign(char c) {
+        return c == '-' || c == '+';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isWordStart(char c) {
+        return Character.isLetter(c) || c == '_' || c == '$' || c == '@';
+    }
+
+    private static boolean isWordPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+}
@@ -0,0 +1,37 @@
+package com.taobao.profile.dependence_query.http;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+
+import com.taobao.profile.BootstrapInjector;
+import com.taobao.profile.dependence_query.DependencyProbe;
+import com.taobao.profile.dependence_query.IClassAdapter;
+
+/**
+ * 外部HTTP调用耗时探针,支持JDK的HttpURLConnection和Apache HttpClient 4.x
+ *
+ * @author shutong.dy
+ * @since 2026-10-19
+ */
+public class HttpProbe implements DependencyProbe {
+
+    public String getName() {
+        return "httpASM";
+    }
+
+    public String[] getClassPrefixes() {
+        return new String[] { HttpProfClassAdapter.JDK_CLIENT, HttpProfClassAdapter.APACHE_PACKAGE };
+    }
+
+    public boolean isNeedInject(ClassLoader loader, String className, byte[] classfileBuffer) {
+        if (HttpProfClassAdapter.JDK_CLIENT.equals(className)) {
+            // 启动类加载器中的类只有在Profiler也在启动类加载器中时才能调用探针
+            return loader == null && BootstrapInjector.isInjected();
+        }
+        return HttpProfClassAdapter.isApacheClient(className);
+    }
+
+    public IClassAdapter createClassAdapter(ClassVisitor visitor, String className, ClassReader reader) {
+        return new HttpProfClassAdapter(visitor, className);
+    }
+}
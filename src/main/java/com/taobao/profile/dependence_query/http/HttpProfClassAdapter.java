@@ -0,0 +1,173 @@
+package com.taobao.profile.dependence_query.http;
+
+import com.taobao.profile.dependence_query.IClassAdapter;
+import com.taobao.profile.instrument.ProfMethodAdapter;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * HTTP ASM类配置器.
+ * JDK注入sun.net.www.http.HttpClient.parseHTTP,即发出请求后等待并解析响应头的时间,
+ * HttpURLConnection本身含有invokedynamic,ASM 3读不了;
+ * Apache HttpClient 4.x注入各客户端实现的doExecute
+ *
+ * @author shutong.dy
+ * @since 2026-10-19
+ */
+public class HttpProfClassAdapter extends IClassAdapter {
+
+    static final String JDK_CLIENT = "sun/net/www/http/HttpClient";
+    static final String APACHE_PACKAGE = "org/apache/http/impl/client/";
+
+    /**
+     * 实现了doExecute的Apache HttpClient类
+     */
+    private static final String[] APACHE_CLIENTS = { APACHE_PACKAGE + "InternalHttpClient",
+            APACHE_PACKAGE + "MinimalHttpClient", APACHE_PACKAGE + "AbstractHttpClient" };
+
+    private static final String APACHE_EXECUTE = "doExecute(Lorg/apache/http/HttpHost;Lorg/apache/http/HttpRequest;"
+            + "Lorg/apache/http/protocol/HttpContext;)Lorg/apache/http/client/methods/CloseableHttpResponse;";
+
+    /**
+     * 是否是JDK的HttpClient
+     */
+    private boolean mJdk;
+    /**
+     * 文件名
+     */
+    private String mFileName = null;
+    /**
+     * class文件版本
+     */
+    private int mVersion;
+
+    /**
+     * @param visitor
+     * @param theClass
+     */
+    public HttpProfClassAdapter(ClassVisitor visitor, String theClass) {
+        super(visitor, theClass);
+        mJdk = JDK_CLIENT.equals(theClass);
+    }
+
+    /**
+     * @param className
+     * @return 是否是实现了doExecute的Apache HttpClient类
+     */
+    static boolean isApacheClient(String className) {
+        for (String client : APACHE_CLIENTS) {
+            if (client.equals(className)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* (non-Javadoc)
+     * @see org.objectweb.asm.ClassAdapter#visit(int, int, java.lang.String, java.lang.String, java.lang.String, java.lang.String[])
+     */
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        mVersion = version;
+        super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    /* (non-Javadoc)
+     * @see org.objectweb.asm.ClassAdapter#visitSource(java.lang.String, java.lang.String)
+     */
+    public void visitSource(final String source, final String debug) {
+        super.visitSource(source, debug);
+        mFileName = source;
+    }
+
+    /* (non-Javadoc)
+     * @see org.objectweb.asm.ClassAdapter#visitMethod(int, java.lang.String, java.lang.String, java.lang.String, java.lang.String[])
+     */
+    public MethodVisitor visitMethod(int arg, String name, String descriptor, String signature, String[] exceptions) {
+        MethodVisitor mv = super.visitMethod(arg, name, descriptor, signature, exceptions);
+        if ((arg & (Opcodes.ACC_STATIC | Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE | Opcodes.ACC_BRIDGE)) != 0) {
+            return mv;
+        }
+        if (mJdk ? isParseHttp(name, descriptor) : APACHE_EXECUTE.equals(name + descriptor)) {
+            return new HttpMethodAdapter(mv, arg, mFileName, mClassName, name, descriptor, mVersion, mJdk);
+        }
+        return mv;
+    }
+
+    /**
+     * parseHTTP(MessageHeader, [ProgressSource,] HttpURLConnection),JDK 21去掉了ProgressSource参数
+     * @param name
+     * @param descriptor
+     * @return
+     */
+    private static boolean isParseHttp(String name, String descriptor) {
+        return "parseHTTP".equals(name) && descriptor.startsWith("(Lsun/net/www/MessageHeader;")
+                && descriptor.endsWith("Lsun/net/www/protocol/http/HttpURLConnection;)Z");
+    }
+
+    /**
+     * HTTP方法适配器,复用ProfMethodAdapter的入口/出口和异常处理器,只替换探针
+     *
+     * @author shutong.dy
+     * @since 2026-10-19
+     */
+    private static class HttpMethodAdapter extends ProfMethodAdapter {
+
+        private boolean mJdk;
+        /**
+         * JDK的HttpURLConnection参数所在的局部变量,即最后一个参数
+         */
+        private int mConnectionLocal;
+
+        HttpMethodAdapter(MethodVisitor visitor, int access, String fileName, String className, String methodName,
+                String descriptor, int classVersion, boolean jdk) {
+            super(visitor, access, fileName, className, methodName, descriptor, classVersion, -1);
+            mCountOnly = false;
+            mJdk = jdk;
+            mConnectionLocal = Type.getArgumentTypes(descriptor).length;
+        }
+
+        /* (non-Javadoc)
+         * @see com.taobao.profile.instrument.ProfMethodAdapter#startProbe()
+         */
+        protected void startProbe() {
+            if (mJdk) {
+                mv.visitVarInsn(Opcodes.ALOAD, mConnectionLocal);
+                mv.visitInsn(Opcodes.ACONST_NULL);
+            } else {
+                mv.visitVarInsn(Opcodes.ALOAD, 1);
+                mv.visitVarInsn(Opcodes.ALOAD, 2);
+            }
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "com/taobao/profile/Profiler", "startHttp",
+                    "(Ljava/lang/Object;Ljava/lang/Object;)V");
+        }
+
+        /* (non-Javadoc)
+         * @see com.taobao.profile.instrument.ProfMethodAdapter#endProbe()
+         */
+        protected void endProbe() {
+            if (mJdk) {
+                // parseHTTP正常返回时响应头已解析,第一行是状态行
+                mv.visitVarInsn(Opcodes.ALOAD, 1);
+                mv.visitInsn(Opcodes.ICONST_0);
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "sun/net/www/MessageHeader", "getValue",
+                        "(I)Ljava/lang/String;");
+            } else {
+                // 栈顶是返回的响应
+                mv.visitInsn(Opcodes.DUP);
+            }
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "com/taobao/profile/Profiler", "endHttp",
+                    "(Ljava/lang/Object;)V");
+        }
+
+        /* (non-Javadoc)
+         * @see com.taobao.profile.instrument.ProfMethodAdapter#exceptionProbe()
+         */
+        protected void exceptionProbe() {
+            mv.visitInsn(Opcodes.ACONST_NULL);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "com/taobao/profile/Profiler", "endHttp",
+                    "(Ljava/lang/Object;)V");
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.taobao.profile.dependence_query.jdbc;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+
+import com.taobao.profile.dependence_query.DependencyProbe;
+import com.taobao.profile.dependence_query.IClassAdapter;
+
+/**
+ * 通用JDBC慢查询探针,只检查常见驱动和连接池的包,包内的类再按继承关系判断.
+ * 其他包中的驱动需要开启jdbcDetectIncludePackages,由ProfTransformer对包名过滤选中的类调用
+ *
+ * @author shutong.dy
+ * @since 2026-10-19
+ */
+public class JdbcProbe implements DependencyProbe {
+
+    /**
+     * 驱动和连接池的包,mysql由MysqlProbe记录
+     */
+    private static final String[] DRIVER_PACKAGES = {
+            // 驱动
+            "org/h2/", "org/hsqldb/", "org/apache/derby/", "org/sqlite/", "org/postgresql/", "org/mariadb/jdbc/",
+            "oracle/jdbc/", "com/microsoft/sqlserver/", "net/sourceforge/jtds/", "com/ibm/db2/", "com/ibm/as400/",
+            "com/sybase/", "org/firebirdsql/", "com/clickhouse/", "ru/yandex/clickhouse/", "com/oceanbase/",
+            "com/alipay/oceanbase/", "dm/jdbc/", "com/kingbase8/", "org/apache/hive/jdbc/", "org/apache/phoenix/jdbc/",
+            "com/amazon/redshift/", "net/snowflake/client/jdbc/", "io/trino/jdbc/", "com/facebook/presto/jdbc/",
+            // 连接池和分库分表中间件
+            "com/alibaba/druid/", "com/zaxxer/hikari/", "org/apache/commons/dbcp/", "org/apache/commons/dbcp2/",
+            "org/apache/tomcat/jdbc/pool/", "org/apache/tomcat/dbcp/", "com/mchange/v2/c3p0/",
+            "org/logicalcobwebs/proxool/", "com/jolbox/bonecp/", "com/taobao/tddl/", "org/apache/shardingsphere/" };
+
+    public String getName() {
+        return "jdbcASM";
+    }
+
+    public String[] getClassPrefixes() {
+        return DRIVER_PACKAGES.clone();
+    }
+
+    public boolean isNeedInject(ClassLoader loader, String className, byte[] classfileBuffer) {
+        return JdbcProfFilter.getInstance().isNeedInject(loader, className, classfileBuffer);
+    }
+
+    public IClassAdapter createClassAdapter(ClassVisitor visitor, String className, ClassReader reader) {
+        return new JdbcProfClassAdapter(visitor, className);
+    }
+}
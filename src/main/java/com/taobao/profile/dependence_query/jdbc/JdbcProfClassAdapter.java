@@ -0,0 +1,122 @@
+package com.taobao.profile.dependence_query.jdbc;
+
+import com.taobao.profile.dependence_query.IClassAdapter;
+import com.taobao.profile.instrument.ProfMethodAdapter;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * JDBC ASM类配置器,注入java.sql.Statement实现类的execute方法
+ *
+ * @author shutong.dy
+ * @since 2026-10-19
+ */
+public class JdbcProfClassAdapter extends IClassAdapter {
+
+    /**
+     * 需要注入的方法名
+     */
+    private static final String[] EXECUTE_METHODS = { "execute", "executeQuery", "executeUpdate", "executeBatch",
+            "executeLargeUpdate", "executeLargeBatch" };
+
+    /**
+     * 文件名
+     */
+    private String mFileName = null;
+    /**
+     * class文件版本
+     */
+    private int mVersion;
+
+    /**
+     * @param visitor
+     * @param theClass
+     */
+    public JdbcProfClassAdapter(ClassVisitor visitor, String theClass) {
+        super(visitor, theClass);
+    }
+
+    /* (non-Javadoc)
+     * @see org.objectweb.asm.ClassAdapter#visit(int, int, java.lang.String, java.lang.String, java.lang.String, java.lang.String[])
+     */
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        mVersion = version;
+        super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    /* (non-Javadoc)
+     * @see org.objectweb.asm.ClassAdapter#visitSource(java.lang.String, java.lang.String)
+     */
+    public void visitSource(final String source, final String debug) {
+        super.visitSource(source, debug);
+        mFileName = source;
+    }
+
+    /* (non-Javadoc)
+     * @see org.objectweb.asm.ClassAdapter#visitMethod(int, java.lang.String, java.lang.String, java.lang.String, java.lang.String[])
+     */
+    public MethodVisitor visitMethod(int arg, String name, String descriptor, String signature, String[] exceptions) {
+        MethodVisitor mv = super.visitMethod(arg, name, descriptor, signature, exceptions);
+        if ((arg & (Opcodes.ACC_STATIC | Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE | Opcodes.ACC_BRIDGE)) != 0
+                || !isExecuteMethod(name)) {
+            return mv;
+        }
+        return new JdbcMethodAdapter(mv, arg, mFileName, mClassName, name, descriptor, mVersion);
+    }
+
+    /**
+     * @param name
+     * @return
+     */
+    private static boolean isExecuteMethod(String name) {
+        for (String method : EXECUTE_METHODS) {
+            if (method.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * JDBC方法适配器,复用ProfMethodAdapter的入口/出口和异常处理器,只替换探针
+     *
+     * @author shutong.dy
+     * @since 2026-10-19
+     */
+    private static class JdbcMethodAdapter extends ProfMethodAdapter {
+
+        /**
+         * sql参数所在的局部变量,没有sql参数为-1
+         */
+        private int mSqlLocal;
+
+        JdbcMethodAdapter(MethodVisitor visitor, int access, String fileName, String className, String methodName,
+                String descriptor, int classVersion) {
+            super(visitor, access, fileName, className, methodName, descriptor, classVersion, -1);
+            mCountOnly = false;
+            mSqlLocal = descriptor.startsWith("(Ljava/lang/String;") ? 1 : -1;
+        }
+
+        /* (non-Javadoc)
+         * @see com.taobao.profile.instrument.ProfMethodAdapter#startProbe()
+         */
+        protected void startProbe() {
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            if (mSqlLocal > 0) {
+                mv.visitVarInsn(Opcodes.ALOAD, mSqlLocal);
+            } else {
+                mv.visitInsn(Opcodes.ACONST_NULL);
+            }
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "com/taobao/profile/Profiler", "startJdbc",
+                    "(Ljava/lang/Object;Ljava/lang/String;)V");
+        }
+
+        /* (non-Javadoc)
+         * @see com.taobao.profile.instrument.ProfMethodAdapter#endProbe()
+         */
+        protected void endProbe() {
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "com/taobao/profile/Profiler", "endJdbc", "()V");
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.taobao.profile.dependence_query.jdbc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+import com.taobao.profile.utils.WeakIdentityMap;
+
+/**
+ * JDBC驱动过滤器,对驱动和连接池包中的类沿继承关系判断是否实现了java.sql.Statement.
+ * 判断结果按类加载器缓存,父类通常先于子类加载,大多数类只需查一次缓存,查询不加锁
+ *
+ * @author shutong.dy
+ * @since 2026-10-19
+ */
+public class JdbcProfFilter {
+
+    /**
+     * 需要注入execute方法的接口
+     */
+    private static final String[] STATEMENT_TYPES = { "java/sql/Statement", "java/sql/PreparedStatement",
+            "java/sql/CallableStatement" };
+
+    /**
+     * 不注入的包:JDK类不会实现驱动接口;mysql由MysqlProfClassAdapter记录,避免同一次查询记录两遍
+     */
+    private static final String[] EXCLUDE_PACKAGES = { "java/", "javax/", "sun/", "com/sun/", "jdk/",
+            "com/taobao/profile/", "org/objectweb/asm/", "com/mysql/" };
+
+    /**
+     * 字节码预过滤用的包名
+     */
+    private static final byte[] JAVA_SQL = { 'j', 'a', 'v', 'a', '/', 's', 'q', 'l', '/' };
+
+    private static JdbcProfFilter instance = new JdbcProfFilter();
+
+    /**
+     * 每个类加载器中类名到是否实现Statement的缓存
+     */
+    private final WeakIdentityMap<ClassLoader, Map<String, Boolean>> decisions = new WeakIdentityMap<ClassLoader, Map<String, Boolean>>();
+
+    protected JdbcProfFilter() {
+    }
+
+    public static JdbcProfFilter getInstance() {
+        return instance;
+    }
+
+    /**
+     * 是否是需要注入的JDBC Statement实现类
+     * @param loader
+     * @param className
+     * @param classfileBuffer
+     * @return
+     */
+    public boolean isNeedInject(ClassLoader loader, String className, byte[] classfileBuffer) {
+        if (loader == null || className == null || isExcluded(className)) {
+            return false;
+        }
+        // 没有引用java.sql的类不会实现或覆盖execute方法,也就不用解析继承关系
+        if (!referencesJavaSql(classfileBuffer)) {
+            return false;
+        }
+        ClassReader reader = new ClassReader(classfileBuffer);
+        // 接口没有可以注入的execute实现,但其结果须缓存给实现类使用
+        boolean result = isStatement(loader, reader.getSuperName(), reader.getInterfaces());
+        cache(loader, className, result);
+        return result && (reader.getAccess() & Opcodes.ACC_INTERFACE) == 0;
+    }
+
+    /**
+     * @param loader
+     * @param superName
+     * @param interfaces
+     * @return 父类或者接口是否实现了Statement
+     */
+    private boolean isStatement(ClassLoader loader, String superName, String[] interfaces) {
+        for (String type : interfaces) {
+            if (isStatement(loader, type)) {
+                return true;
+            }
+        }
+        return superName != null && isStatement(loader, superName);
+    }
+
+    /**
+     * @param loader
+     * @param className
+     * @return 类是否实现了Statement
+     */
+    private boolean isStatement(ClassLoader loader, String className) {
+        for (String type : STATEMENT_TYPES) {
+            if (type.equals(className)) {
+                return true;
+            }
+        }
+        if (className.startsWith("java/") || className.startsWith("javax/")) {
+            return false;
+        }
+        Map<String, Boolean> classes = decisions.get(loader);
+        Boolean cached = classes == null ? null : classes.get(className);
+        if (cached != null) {
+            return cached.booleanValue();
+        }
+        boolean result = false;
+        InputStream in = loader.getResourceAsStream(className + ".class");
+        if (in != null) {
+            try {
+                ClassReader reader = new ClassReader(in);
+                result = isStatement(loader, reader.getSuperName(), reader.getInterfaces());
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        cache(loader, className, result);
+        return result;
+    }
+
+    /**
+     * @param loader
+     * @param className
+     * @param result
+     */
+    private void cache(ClassLoader loader, String className, boolean result) {
+        Map<String, Boolean> classes = decisions.get(loader);
+        if (classes == null) {
+            synchronized (decisions) {
+                classes = decisions.get(loader);
+                if (classes == null) {
+                    classes = new ConcurrentHashMap<String, Boolean>();
+                    decisions.put(loader, classes);
+                }
+            }
+        }
+        classes.put(className, Boolean.valueOf(result));
+    }
+
+    /**
+     * 在类的字节码中查找"java/sql/",常量池中的类名和描述符都是这种形式
+     * @param classfileBuffer
+     * @return
+     */
+    private static boolean referencesJavaSql(byte[] classfileBuffer) {
+        int last = classfileBuffer.length - JAVA_SQL.length;
+        outer: for (int i = 0; i <= last; i++) {
+            for (int j = 0; j < JAVA_SQL.length; j++) {
+                if (classfileBuffer[i + j] != JAVA_SQL[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param className
+     * @return
+     */
+    private static boolean isExcluded(String className) {
+        for (String prefix : EXCLUDE_PACKAGES) {
+            if (className.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,33 @@
+package com.taobao.profile.dependence_query.mysql;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+
+import com.taobao.profile.dependence_query.DependencyProbe;
+import com.taobao.profile.dependence_query.IClassAdapter;
+import com.taobao.profile.instrument.MethodShape;
+
+/**
+ * MySQL Connector/J 5.x和8.x的慢查询探针
+ *
+ * @author shutong.dy
+ * @since 2026-10-19
+ */
+public class MysqlProbe implements DependencyProbe {
+
+    public String getName() {
+        return "mysqlASM";
+    }
+
+    public String[] getClassPrefixes() {
+        return new String[] { MysqlProfFilter.MysqlPath, MysqlProfFilter.MysqlCjPath };
+    }
+
+    public boolean isNeedInject(ClassLoader loader, String className, byte[] classfileBuffer) {
+        return MysqlProfFilter.getInstance().isNeedInject(className);
+    }
+
+    public IClassAdapter createClassAdapter(ClassVisitor visitor, String className, ClassReader reader) {
+        return new MysqlProfClassAdapter(visitor, className, MethodShape.scan(reader).keySet());
+    }
+}
@@ -1,145 +1,269 @@
 package com.taobao.profile.dependence_query.mysql;
 
+import java.util.HashSet;
+import java.util.Set;
+
 import com.taobao.profile.dependence_query.IClassAdapter;
-import com.taobao.profile.dependence_query.IMethodAdapter;
+import com.taobao.profile.instrument.ProfMethodAdapter;
 import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
 
 /**
- * Mysql ASM类配置器
+ * Mysql ASM类配置器.
+ * 按类名区分驱动版本:5.x注入ConnectionImpl.execSQL,连接信息取自host/port/database字段;
+ * 8.x注入NativeSession.execSQL,连接信息取自getHostInfo()
  * 
  * @author weigao
  * @since 2015-6-1
  */
 public class MysqlProfClassAdapter extends IClassAdapter {
 
+	/**
+	 * 5.x的数据包类型
+	 */
+	private static final String BUFFER = "com/mysql/jdbc/Buffer";
+	/**
+	 * 8.x的数据包类型
+	 */
+	private static final String PAYLOAD = "com/mysql/cj/protocol/a/NativePacketPayload";
+	/**
+	 * 8.x的连接信息类型
+	 */
+	private static final String HOST_INFO = "com/mysql/cj/conf/HostInfo";
+
+	/**
+	 * 是否是Connector/J 8.x
+	 */
+	private boolean mCj;
+	/**
+	 * 数据包类型
+	 */
+	private String mPacketType;
+	/**
+	 * 要注入的execSQL方法(方法名+描述符),同名重载中参数最多的一个,其他重载都委托给它
+	 */
+	private String mTarget;
+	/**
+	 * 类中声明的字段,名字+描述符
+	 */
+	private Set<String> mFields = new HashSet<String>();
+	/**
+	 * 文件名
+	 */
+	private String mFileName = null;
+	/**
+	 * class文件版本
+	 */
+	private int mVersion;
+
 	/**
 	 * @param visitor
 	 * @param theClass
+	 * @param methods 类中所有方法的方法名+描述符
 	 */
-	public MysqlProfClassAdapter(ClassVisitor visitor, String theClass) {
+	public MysqlProfClassAdapter(ClassVisitor visitor, String theClass, Set<String> methods) {
 		super(visitor, theClass);
+		mCj = MysqlProfFilter.getInstance().isCj(theClass);
+		mPacketType = mCj ? PAYLOAD : BUFFER;
+		int maxArgs = -1;
+		for (String method : methods) {
+			if (!method.startsWith("execSQL(")) {
+				continue;
+			}
+			Type[] args = Type.getArgumentTypes(method.substring("execSQL".length()));
+			if (indexOf(args, "java/lang/String") >= 0 && indexOf(args, mPacketType) >= 0 && args.length > maxArgs) {
+				maxArgs = args.length;
+				mTarget = method;
+			}
+		}
 	}
 
+	/* (non-Javadoc)
+	 * @see org.objectweb.asm.ClassAdapter#visit(int, int, java.lang.String, java.lang.String, java.lang.String, java.lang.String[])
+	 */
+	public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+		mVersion = version;
+		super.visit(version, access, name, signature, superName, interfaces);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.objectweb.asm.ClassAdapter#visitSource(java.lang.String, java.lang.String)
+	 */
+	public void visitSource(final String source, final String debug) {
+		super.visitSource(source, debug);
+		mFileName = source;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.objectweb.asm.ClassAdapter#visitField(int, java.lang.String, java.lang.String, java.lang.String, java.lang.Object)
+	 */
+	public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+		// ClassReader先访问字段再访问方法
+		mFields.add(name + desc);
+		return super.visitField(access, name, desc, signature, value);
+	}
 
 	/**
-	 * 记录Mysql方法
-	 * @param mv
-	 * @param name
-	 * @param descriptor
+	 * 5.x从字段读取连接信息,字段不全时不注入
 	 * @return
 	 */
-	private IMethodAdapter record(final MethodVisitor mv, final String name, final String descriptor) {
-		return new IMethodAdapter(mv,"",name,descriptor){
-			public void visitCode() {
-
-				Label sqlIsNull = new Label();
-				Label endIf = new Label();
+	private boolean hasConnectionInfo() {
+		if (mCj) {
+			return true;
+		}
+		return mFields.contains("hostLjava/lang/String;") && mFields.contains("portI")
+				&& mFields.contains("databaseLjava/lang/String;");
+	}
 
+	/**
+	 * @param args
+	 * @param internalName
+	 * @return 参数下标,没有返回-1
+	 */
+	private static int indexOf(Type[] args, String internalName) {
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].getSort() == Type.OBJECT && args[i].getInternalName().equals(internalName)) {
+				return i;
+			}
+		}
+		return -1;
+	}
 
-				mv.visitInsn(Opcodes.ACONST_NULL);
-				mv.visitVarInsn(Opcodes.ASTORE, 30);
+	/**
+	 * @param args
+	 * @param index
+	 * @return 实例方法第index个参数所在的局部变量
+	 */
+	private static int localOf(Type[] args, int index) {
+		int local = 1;
+		for (int i = 0; i < index; i++) {
+			local += args[i].getSize();
+		}
+		return local;
+	}
 
-				mv.visitVarInsn(Opcodes.ALOAD, 2);
-				mv.visitJumpInsn(Opcodes.IFNULL, sqlIsNull);
+	/* (non-Javadoc)
+	 * @see org.objectweb.asm.ClassAdapter#visitMethod(int, java.lang.String, java.lang.String, java.lang.String, java.lang.String[])
+	 */
+	public MethodVisitor visitMethod(int arg, String name, String descriptor, String signature, String[] exceptions) {
+		MethodVisitor mv = super.visitMethod(arg, name, descriptor, signature, exceptions);
+		if (!(name + descriptor).equals(mTarget) || (arg & Opcodes.ACC_STATIC) != 0 || !hasConnectionInfo()) {
+			return mv;
+		}
+		Type[] args = Type.getArgumentTypes(descriptor);
+		int sqlLocal = localOf(args, indexOf(args, "java/lang/String"));
+		int packetLocal = localOf(args, indexOf(args, mPacketType));
+		return new MysqlMethodAdapter(mv, arg, mFileName, name, descriptor, sqlLocal, packetLocal);
+	}
 
-				mv.visitVarInsn(Opcodes.ALOAD, 2);
-				mv.visitVarInsn(Opcodes.ASTORE, 30);
-				mv.visitJumpInsn(Opcodes.GOTO, endIf);
+	/**
+	 * execSQL方法适配器,复用ProfMethodAdapter的入口/出口和异常处理器,只替换探针
+	 *
+	 * @author shutong.dy
+	 * @since 2026-10-19
+	 */
+	private class MysqlMethodAdapter extends ProfMethodAdapter {
 
-				mv.visitLabel(sqlIsNull);
+		/**
+		 * sql参数所在的局部变量
+		 */
+		private int mSqlLocal;
+		/**
+		 * 数据包参数所在的局部变量,PreparedStatement的sql在数据包中
+		 */
+		private int mPacketLocal;
 
-				mv.visitVarInsn(Opcodes.ALOAD, 4);
-				mv.visitJumpInsn(Opcodes.IFNULL, endIf);
+		MysqlMethodAdapter(MethodVisitor visitor, int access, String fileName, String methodName, String descriptor,
+				int sqlLocal, int packetLocal) {
+			super(visitor, access, fileName, mClassName, methodName, descriptor, mVersion, -1);
+			mCountOnly = false;
+			mSqlLocal = sqlLocal;
+			mPacketLocal = packetLocal;
+		}
 
-				mv.visitTypeInsn(Opcodes.NEW, "java/lang/String");
+		/**
+		 * 压入host, port, database
+		 */
+		private void loadConnectionInfo() {
+			mv.visitVarInsn(Opcodes.ALOAD, 0);
+			if (mCj) {
+				mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, mClassName, "getHostInfo", "()L" + HOST_INFO + ";");
 				mv.visitInsn(Opcodes.DUP);
-				mv.visitVarInsn(Opcodes.ALOAD, 4);
-				mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "com/mysql/jdbc/Buffer", "getByteBuffer", "()[B");
-				mv.visitLdcInsn("utf-8");
-				mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/String", "<init>", "([BLjava/lang/String;)V");
-				mv.visitVarInsn(Opcodes.ASTORE, 30);
-
-				mv.visitLabel(endIf);
-
-				mv.visitVarInsn(Opcodes.ALOAD, 0);
-				mv.visitFieldInsn(Opcodes.GETFIELD, "com/mysql/jdbc/ConnectionImpl", "host", "Ljava/lang/String;");
-
-				mv.visitVarInsn(Opcodes.ALOAD, 0);
-				mv.visitFieldInsn(Opcodes.GETFIELD, "com/mysql/jdbc/ConnectionImpl", "port", "I");
-
-				mv.visitVarInsn(Opcodes.ALOAD, 0);
-				mv.visitFieldInsn(Opcodes.GETFIELD, "com/mysql/jdbc/ConnectionImpl", "database", "Ljava/lang/String;");
-
-				mv.visitVarInsn(Opcodes.ALOAD, 30);
-
-				mv.visitMethodInsn(Opcodes.INVOKESTATIC, "com/taobao/profile/Profiler", "start4Mysql", "(Ljava/lang/String;ILjava/lang/String;Ljava/lang/String;)V");
-				mv.visitCode();
+				mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, HOST_INFO, "getHost", "()Ljava/lang/String;");
+				mv.visitInsn(Opcodes.SWAP);
+				mv.visitInsn(Opcodes.DUP);
+				mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, HOST_INFO, "getPort", "()I");
+				mv.visitInsn(Opcodes.SWAP);
+				mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, HOST_INFO, "getDatabase", "()Ljava/lang/String;");
+				return;
 			}
+			mv.visitFieldInsn(Opcodes.GETFIELD, mClassName, "host", "Ljava/lang/String;");
+			mv.visitVarInsn(Opcodes.ALOAD, 0);
+			mv.visitFieldInsn(Opcodes.GETFIELD, mClassName, "port", "I");
+			mv.visitVarInsn(Opcodes.ALOAD, 0);
+			mv.visitFieldInsn(Opcodes.GETFIELD, mClassName, "database", "Ljava/lang/String;");
+		}
 
-			public void visitInsn(int inst) {
-				finishRecord(mv, inst);
+		/**
+		 * @param label
+		 * @param packet 栈顶是否有sql和数据包
+		 */
+		private void frame(Label label, boolean packet) {
+			mv.visitLabel(label);
+			if (!isNeedFrame()) {
+				return;
 			}
-		};
-	}
-
-	/**
-	 * 记录完成
-	 * @param mv
-	 * @param inst
-	 */
-	private void finishRecord(MethodVisitor mv,int inst){
-		switch (inst) {
-			case Opcodes.ARETURN:
-			case Opcodes.DRETURN:
-			case Opcodes.FRETURN:
-			case Opcodes.IRETURN:
-			case Opcodes.LRETURN:
-			case Opcodes.RETURN:
-			case Opcodes.ATHROW:
-				mv.visitMethodInsn(Opcodes.INVOKESTATIC, "com/taobao/profile/Profiler", "end4Mysql", "()V");
-				break;
-			default:
-				break;
+			Object[] locals = getInitialLocals();
+			Object[] stack = packet ? new Object[] { "java/lang/String", Opcodes.INTEGER, "java/lang/String",
+					"java/lang/String", "[B", Opcodes.INTEGER } : new Object[] { "java/lang/String", Opcodes.INTEGER,
+					"java/lang/String", "java/lang/String" };
+			mv.visitFrame(Opcodes.F_NEW, locals.length, locals, stack.length, stack);
 		}
 
-		mv.visitInsn(inst);
-	}
+		/* (non-Javadoc)
+		 * @see com.taobao.profile.instrument.ProfMethodAdapter#startProbe()
+		 */
+		protected void startProbe() {
+			Label noPacket = new Label();
+			Label call = new Label();
 
+			loadConnectionInfo();
+			mv.visitVarInsn(Opcodes.ALOAD, mSqlLocal);
 
-	/***
-	 * 依据方法名称返回方法的注入器；
-	 * @param mv	原始的MethodVisitor对象；用于方法和修改方法
-	 * @param name	方法名称
-	 *
-	 * @return
-	 */
-	private IMethodAdapter getMethodAdapter(MethodVisitor mv,String name,String descriptor){
-		if(mClassName.startsWith(MysqlProfFilter.MysqlPath)){
-			if("execSQL".equalsIgnoreCase(name)){
-//					System.out.println(descriptor);
-				if("(Lcom/mysql/jdbc/StatementImpl;Ljava/lang/String;ILcom/mysql/jdbc/Buffer;IIZLjava/lang/String;[Lcom/mysql/jdbc/Field;Z)Lcom/mysql/jdbc/ResultSetInternalMethods;".equalsIgnoreCase(descriptor)){
-					return record(mv, name, descriptor);
-				}
-			}
-		}
+			// sql为空时传数据包的字节数组和有效长度,start4Mysql只复制sql的字节,只有慢查询才在end4Mysql中解码
+			mv.visitVarInsn(Opcodes.ALOAD, mSqlLocal);
+			mv.visitJumpInsn(Opcodes.IFNONNULL, noPacket);
+			mv.visitVarInsn(Opcodes.ALOAD, mPacketLocal);
+			mv.visitJumpInsn(Opcodes.IFNULL, noPacket);
 
-		return null;
-	}
+			mv.visitVarInsn(Opcodes.ALOAD, mPacketLocal);
+			mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, mPacketType, "getByteBuffer", "()[B");
+			mv.visitVarInsn(Opcodes.ALOAD, mPacketLocal);
+			mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, mPacketType, "getPosition", "()I");
+			mv.visitJumpInsn(Opcodes.GOTO, call);
 
-	/* (non-Javadoc)
-	 * @see org.objectweb.asm.ClassAdapter#visitMethod(int, java.lang.String, java.lang.String, java.lang.String, java.lang.String[])
-	 */
-	public MethodVisitor visitMethod(int arg, String name, String descriptor, String signature, String[] exceptions) {
-		MethodVisitor mv = super.visitMethod(arg, name, descriptor, signature, exceptions);
+			frame(noPacket, false);
+			mv.visitInsn(Opcodes.ACONST_NULL);
+			mv.visitInsn(Opcodes.ICONST_0);
 
-		IMethodAdapter methodAdapter = getMethodAdapter(mv,name,descriptor);
-		if(methodAdapter==null){
-			return mv;
+			frame(call, true);
+			// 5.x的数据包带4字节包头,sql之前都有1字节的COM_QUERY
+			mv.visitInsn(mCj ? Opcodes.ICONST_1 : Opcodes.ICONST_5);
+			mv.visitInsn(Opcodes.SWAP);
+			mv.visitMethodInsn(Opcodes.INVOKESTATIC, "com/taobao/profile/Profiler", "start4Mysql",
+					"(Ljava/lang/String;ILjava/lang/String;Ljava/lang/String;[BII)V");
+		}
+
+		/* (non-Javadoc)
+		 * @see com.taobao.profile.instrument.ProfMethodAdapter#endProbe()
+		 */
+		protected void endProbe() {
+			mv.visitMethodInsn(Opcodes.INVOKESTATIC, "com/taobao/profile/Profiler", "end4Mysql", "()V");
 		}
-		return methodAdapter;
 	}
 
 }
@@ -1,22 +1,44 @@
 package com.taobao.profile.dependence_query.mysql;
 
-import com.taobao.profile.config.ProfFilter;
-
 /**
  * @author weigao
  * @since 15/6/1
  */
-public class MysqlProfFilter extends ProfFilter {
+public class MysqlProfFilter {
 
+    /**
+     * Connector/J 5.x执行sql的类
+     */
     public final static String MysqlPath = "com/mysql/jdbc/ConnectionImpl";
 
+    /**
+     * Connector/J 8.x执行sql的类
+     */
+    public final static String MysqlCjPath = "com/mysql/cj/NativeSession";
+
     private static MysqlProfFilter instance = new MysqlProfFilter();
     protected MysqlProfFilter() {
-        includePackage.add(MysqlPath.toLowerCase());
     }
 
     public static MysqlProfFilter getInstance(){
         return instance;
     }
 
+    /**
+     * 是否是需要注入的mysql类;不能共用ProfFilter的静态包名集合,否则所有注入的类都会被当作mysql类
+     * @param className
+     * @return
+     */
+    public boolean isNeedInject(String className) {
+        return MysqlPath.equals(className) || MysqlCjPath.equals(className);
+    }
+
+    /**
+     * @param className
+     * @return 是否是Connector/J 8.x
+     */
+    public boolean isCj(String className) {
+        return MysqlCjPath.equals(className);
+    }
+
 }
@@ -0,0 +1,33 @@
+package com.taobao.profile.dependence_query.redis;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+
+import com.taobao.profile.dependence_query.DependencyProbe;
+import com.taobao.profile.dependence_query.IClassAdapter;
+import com.taobao.profile.instrument.MethodShape;
+
+/**
+ * Jedis 2.x-4.x的Redis命令耗时探针
+ *
+ * @author shutong.dy
+ * @since 2026-10-19
+ */
+public class RedisProbe implements DependencyProbe {
+
+    public String getName() {
+        return "redisASM";
+    }
+
+    public String[] getClassPrefixes() {
+        return new String[] { "redis/clients/jedis/" };
+    }
+
+    public boolean isNeedInject(ClassLoader loader, String className, byte[] classfileBuffer) {
+        return RedisProfClassAdapter.JEDIS_CONNECTION.equals(className);
+    }
+
+    public IClassAdapter createClassAdapter(ClassVisitor visitor, String className, ClassReader reader) {
+        return new RedisProfClassAdapter(visitor, className, MethodShape.scan(reader).keySet());
+    }
+}
@@ -0,0 +1,172 @@
+package com.taobao.profile.dependence_query.redis;
+
+import java.util.Set;
+
+import com.taobao.profile.dependence_query.IClassAdapter;
+import com.taobao.profile.instrument.ProfMethodAdapter;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Redis ASM类配置器.
+ * 注入Jedis Connection的sendCommand和readProtocolWithCheckingBroken,
+ * 同一连接上的回复按发送顺序与命令匹配,pipeline也适用
+ *
+ * @author shutong.dy
+ * @since 2026-10-19
+ */
+public class RedisProfClassAdapter extends IClassAdapter {
+
+    static final String JEDIS_CONNECTION = "redis/clients/jedis/Connection";
+
+    /**
+     * 4.x的sendCommand,其他重载都委托给它
+     */
+    private static final String SEND_ARGUMENTS = "sendCommand(Lredis/clients/jedis/CommandArguments;)V";
+    /**
+     * 读一个回复,getOne、getAll等都委托给它
+     */
+    private static final String READ = "readProtocolWithCheckingBroken()Ljava/lang/Object;";
+
+    /**
+     * 发送命令的方法(方法名+描述符)
+     */
+    private String mSend;
+    /**
+     * 文件名
+     */
+    private String mFileName = null;
+    /**
+     * class文件版本
+     */
+    private int mVersion;
+
+    /**
+     * @param visitor
+     * @param theClass
+     * @param methods 类中所有方法的方法名+描述符
+     */
+    public RedisProfClassAdapter(ClassVisitor visitor, String theClass, Set<String> methods) {
+        super(visitor, theClass);
+        if (methods.contains(SEND_ARGUMENTS)) {
+            mSend = SEND_ARGUMENTS;
+        } else {
+            // 2.x、3.x的sendCommand(ProtocolCommand, byte[]...),其他重载都委托给它
+            for (String method : methods) {
+                if (method.startsWith("sendCommand(L") && method.indexOf(';') == method.indexOf(";[[B)")) {
+                    mSend = method;
+                }
+            }
+        }
+        // 只能注入一半时不注入,否则等待队列中的命令永远等不到回复
+        if (!methods.contains(READ)) {
+            mSend = null;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.objectweb.asm.ClassAdapter#visit(int, int, java.lang.String, java.lang.String, java.lang.String, java.lang.String[])
+     */
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        mVersion = version;
+        super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    /* (non-Javadoc)
+     * @see org.objectweb.asm.ClassAdapter#visitSource(java.lang.String, java.lang.String)
+     */
+    public void visitSource(final String source, final String debug) {
+        super.visitSource(source, debug);
+        mFileName = source;
+    }
+
+    /* (non-Javadoc)
+     * @see org.objectweb.asm.ClassAdapter#visitMethod(int, java.lang.String, java.lang.String, java.lang.String, java.lang.String[])
+     */
+    public MethodVisitor visitMethod(int arg, String name, String descriptor, String signature, String[] exceptions) {
+        MethodVisitor mv = super.visitMethod(arg, name, descriptor, signature, exceptions);
+        if (mSend == null
+                || (arg & (Opcodes.ACC_STATIC | Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE | Opcodes.ACC_BRIDGE)) != 0) {
+            return mv;
+        }
+        String method = name + descriptor;
+        if (method.equals(mSend)) {
+            return new RedisMethodAdapter(mv, arg, mFileName, mClassName, name, descriptor, mVersion, true);
+        }
+        if (method.equals(READ)) {
+            return new RedisMethodAdapter(mv, arg, mFileName, mClassName, name, descriptor, mVersion, false);
+        }
+        return mv;
+    }
+
+    /**
+     * Redis方法适配器,复用ProfMethodAdapter的入口/出口和异常处理器,只替换探针
+     *
+     * @author shutong.dy
+     * @since 2026-10-19
+     */
+    private static class RedisMethodAdapter extends ProfMethodAdapter {
+
+        /**
+         * 是发送命令还是读回复
+         */
+        private boolean mSend;
+        /**
+         * 2.x、3.x的参数数组
+         */
+        private boolean mArgsArray;
+
+        RedisMethodAdapter(MethodVisitor visitor, int access, String fileName, String className, String methodName,
+                String descriptor, int classVersion, boolean send) {
+            super(visitor, access, fileName, className, methodName, descriptor, classVersion, -1);
+            mCountOnly = false;
+            // 读回复异常退出时须用this查找命令
+            mHandlerThis = true;
+            mSend = send;
+            mArgsArray = descriptor.indexOf("[[B)") > 0;
+        }
+
+        /* (non-Javadoc)
+         * @see com.taobao.profile.instrument.ProfMethodAdapter#startProbe()
+         */
+        protected void startProbe() {
+            if (!mSend) {
+                return;
+            }
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            if (mArgsArray) {
+                mv.visitVarInsn(Opcodes.ALOAD, 2);
+            } else {
+                mv.visitInsn(Opcodes.ACONST_NULL);
+            }
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "com/taobao/profile/Profiler", "startRedis",
+                    "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)V");
+        }
+
+        /* (non-Javadoc)
+         * @see com.taobao.profile.instrument.ProfMethodAdapter#endProbe()
+         */
+        protected void endProbe() {
+            if (mSend) {
+                return;
+            }
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "com/taobao/profile/Profiler", "endRedis",
+                    "(Ljava/lang/Object;)V");
+        }
+
+        /* (non-Javadoc)
+         * @see com.taobao.profile.instrument.ProfMethodAdapter#exceptionProbe()
+         */
+        protected void exceptionProbe() {
+            if (mSend) {
+                // 命令没有发出去,不会有回复
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, "com/taobao/profile/Profiler", "cancelRedis", "()V");
+            } else {
+                endProbe();
+            }
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/**
+ * (C) 2011-2012 Alibaba Group Holding Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ */
+package com.taobao.profile.instrument;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * 方法字节码形态,注入前预先扫描一遍类,供注入决策使用
+ *
+ * @author shutong.dy
+ * @since 2026-10-19
+ */
+public class MethodShape {
+
+	/**
+	 * 估算的字节码长度
+	 */
+	private int codeSize;
+	/**
+	 * 方法正常出口(return)数量
+	 */
+	private int returnCount;
+	/**
+	 * 是否有方法调用
+	 */
+	private boolean hasInvoke;
+	/**
+	 * 是否有循环(向后跳转)
+	 */
+	private boolean hasLoop;
+	/**
+	 * 是否有对象或数组分配
+	 */
+	private boolean hasAllocation;
+	/**
+	 * 方法和所在类上的注解描述符
+	 */
+	private Set<String> annotations;
+	/**
+	 * 原方法的局部变量表大小,注入时在其后追加局部变量
+	 */
+	private int maxLocals = -1;
+	/**
+	 * 方法的行号,与注入时最后访问到的行号相同,没有调试信息时为0
+	 */
+	private int lineNum;
+
+	/**
+	 * 扫描类中所有方法的字节码形态
+	 *
+	 * @param reader
+	 * @return key为方法名+描述符
+	 */
+	public static Map<String, MethodShape> scan(ClassReader reader) {
+		ShapeScanner scanner = new ShapeScanner();
+		// 行号属于调试信息,须在发布方法ID之前得到,不能跳过
+		reader.accept(scanner, ClassReader.SKIP_FRAMES);
+		return scanner.shapes;
+	}
+
+	/**
+	 * 是否是平凡方法:字节码不超过maxSize,或者没有方法调用、循环和对象分配
+	 *
+	 * @param maxSize
+	 * @return
+	 */
+	public boolean isTrivial(int maxSize) {
+		if (codeSize <= maxSize) {
+			return true;
+		}
+		return !hasInvoke && !hasLoop && !hasAllocation;
+	}
+
+	/**
+	 * @return 方法和所在类上的注解描述符
+	 */
+	public Set<String> getAnnotations() {
+		return annotations;
+	}
+
+	/**
+	 * @return 原方法的局部变量表大小,抽象方法为-1
+	 */
+	public int getMaxLocals() {
+		return maxLocals;
+	}
+
+	/**
+	 * @return the lineNum
+	 */
+	public int getLineNum() {
+		return lineNum;
+	}
+
+	/**
+	 * @return the codeSize
+	 */
+	public int getCodeSize() {
+		return codeSize;
+	}
+
+	/**
+	 * @return the returnCount
+	 */
+	public int getReturnCount() {
+		return returnCount;
+	}
+
+	/**
+	 * @return the hasInvoke
+	 */
+	public boolean hasInvoke() {
+		return hasInvoke;
+	}
+
+	/**
+	 * @return the hasLoop
+	 */
+	public boolean hasLoop() {
+		return hasLoop;
+	}
+
+	/**
+	 * @return the hasAllocation
+	 */
+	public boolean hasAllocation() {
+		return hasAllocation;
+	}
+
+	/**
+	 * 类扫描器,只收集方法形态
+	 *
+	 * @author shutong.dy
+	 * @since 2026-10-19
+	 */
+	private static class ShapeScanner implements ClassVisitor {
+
+		private Map<String, MethodShape> shapes = new HashMap<String, MethodShape>();
+		/**
+		 * 类上的注解,ClassReader先于方法访问
+		 */
+		private Set<String> classAnnotations = new HashSet<String>();
+
+		public void visit(int version, int access, String name, String signature, String superName,
+				String[] interfaces) {
+		}
+
+		public void visitSource(String source, String debug) {
+		}
+
+		public void visitOuterClass(String owner, String name, String desc) {
+		}
+
+		public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+			classAnnotations.add(desc);
+			return null;
+		}
+
+		public void visitAttribute(Attribute attr) {
+		}
+
+		public void visitInnerClass(String name, String outerName, String innerName, int access) {
+		}
+
+		public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+			return null;
+		}
+
+		public MethodVisitor visitMethod(int access, String name, String desc, String signature,
+				String[] exceptions) {
+			MethodShape shape = new MethodShape();
+			shape.annotations = new HashSet<String>(classAnnotations);
+			shapes.put(name + desc, shape);
+			return new MethodScanner(shape);
+		}
+
+		public void visitEnd() {
+		}
+	}
+
+	/**
+	 * 方法扫描器,按指令的最短编码估算字节码长度
+	 *
+	 * @author shutong.dy
+	 * @since 2026-10-19
+	 */
+	private static class MethodScanner implements MethodVisitor {
+
+		private MethodShape shape;
+		/**
+		 * 已经访问过的label,跳转到这些label即为向后跳转
+		 */
+		private Set<Label> visitedLabels = new HashSet<Label>();
+
+		MethodScanner(MethodShape shape) {
+			this.shape = shape;
+		}
+
+		private void jumpTo(Label label) {
+			if (visitedLabels.contains(label)) {
+				shape.hasLoop = true;
+			}
+		}
+
+		public AnnotationVisitor visitAnnotationDefault() {
+			return null;
+		}
+
+		public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+			shape.annotations.add(desc);
+			return null;
+		}
+
+		public AnnotationVisitor visitParameterAnnotation(int parameter, String desc, boolean visible) {
+			return null;
+		}
+
+		public void visitAttribute(Attribute attr) {
+		}
+
+		public void visitCode() {
+		}
+
+		public void visitFrame(int type, int nLocal, Object[] local, int nStack, Object[] stack) {
+		}
+
+		public void visitInsn(int opcode) {
+			shape.codeSize += 1;
+			if (opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN) {
+				shape.returnCount++;
+			}
+		}
+
+		public void visitIntInsn(int opcode, int operand) {
+			shape.codeSize += opcode == Opcodes.SIPUSH ? 3 : 2;
+			if (opcode == Opcodes.NEWARRAY) {
+				shape.hasAllocation = true;
+			}
+		}
+
+		public void visitVarInsn(int opcode, int var) {
+			if (var < 4 && opcode != Opcodes.RET) {
+				shape.codeSize += 1;
+			} else if (var >= 256) {
+				shape.codeSize += 4;
+			} else {
+				shape.codeSize += 2;
+			}
+		}
+
+		public void visitTypeInsn(int opcode, String type) {
+			shape.codeSize += 3;
+			if (opcode == Opcodes.NEW || opcode == Opcodes.ANEWARRAY) {
+				shape.hasAllocation = true;
+			}
+		}
+
+		public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+			shape.codeSize += 3;
+		}
+
+		public void visitMethodInsn(int opcode, String owner, String name, String desc) {
+			shape.codeSize += opcode == Opcodes.INVOKEINTERFACE ? 5 : 3;
+			shape.hasInvoke = true;
+		}
+
+		public void visitJumpInsn(int opcode, Label label) {
+			shape.codeSize += 3;
+			jumpTo(label);
+		}
+
+		public void visitLabel(Label label) {
+			visitedLabels.add(label);
+		}
+
+		public void visitLdcInsn(Object cst) {
+			shape.codeSize += (cst instanceof Long || cst instanceof Double) ? 3 : 2;
+		}
+
+		public void visitIincInsn(int var, int increment) {
+			if (var > 255 || increment > 127 || increment < -128) {
+				shape.codeSize += 6;
+			} else {
+				shape.codeSize += 3;
+			}
+		}
+
+		public void visitTableSwitchInsn(int min, int max, Label dflt, Label[] labels) {
+			shape.codeSize += 13 + labels.length * 4;
+			jumpTo(dflt);
+			for (Label label : labels) {
+				jumpTo(label);
+			}
+		}
+
+		public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+			shape.codeSize += 9 + keys.length * 8;
+			jumpTo(dflt);
+			for (Label label : labels) {
+				jumpTo(label);
+			}
+		}
+
+		public void visitMultiANewArrayInsn(String desc, int dims) {
+			shape.codeSize += 4;
+			shape.hasAllocation = true;
+		}
+
+		public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+		}
+
+		public void visitLocalVariable(String name, String desc, String signature, Label start, Label end,
+				int index) {
+		}
+
+		public void visitLineNumber(int line, Label start) {
+			shape.lineNum = line;
+		}
+
+		public void visitMaxs(int maxStack, int maxLocals) {
+			shape.maxLocals = maxLocals;
+		}
+
+		public void visitEnd() {
+		}
+	}
+}
@@ -8,16 +8,20 @@
  */
 package com.taobao.profile.instrument;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
 
 import org.objectweb.asm.ClassAdapter;
 import org.objectweb.asm.ClassVisitor;
-import org.objectweb.asm.FieldVisitor;
 import org.objectweb.asm.MethodAdapter;
 import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
 
 import com.taobao.profile.Manager;
+import com.taobao.profile.StartupProfiler;
+import com.taobao.profile.config.MethodFilter;
+import com.taobao.profile.runtime.MethodCache;
 
 /**
  * ASM类配置器
@@ -35,24 +39,54 @@ public class ProfClassAdapter extends ClassAdapter {
 	 */
 	private String mFileName = null;
 	/**
-	 * 字段对应方法列表
+	 * 预先扫描得到的方法字节码形态,key为方法名+描述符
 	 */
-	private List<String> fieldNameList = new ArrayList<String>();
+	private Map<String, MethodShape> mShapes;
+	/**
+	 * class文件版本
+	 */
+	private int mVersion;
+	/**
+	 * 注入模式
+	 */
+	private int mMode;
+
+	/**
+	 * 注入包名过滤选中的类
+	 */
+	public static final int MODE_ALL = 0;
+	/**
+	 * 只注入类初始化方法(启动剖析时包名过滤之外的类)
+	 */
+	public static final int MODE_CLINIT = 1;
+	/**
+	 * 只注入JDK方法规则选中的方法
+	 */
+	public static final int MODE_JDK = 2;
+	/**
+	 * 只注入SecureClassLoader.defineClass(启动剖析时统计类定义耗时)
+	 */
+	public static final int MODE_DEFINE = 3;
 
 	/* (non-Javadoc)
 	 * @see org.objectweb.asm.ClassAdapter#visit(int, int, java.lang.String, java.lang.String, java.lang.String, java.lang.String[])
 	 */
 	public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+		mVersion = version;
 		super.visit(version, access, name, signature, superName, interfaces);
 	}
 
 	/**
 	 * @param visitor
 	 * @param theClass
+	 * @param shapes
+	 * @param mode
 	 */
-	public ProfClassAdapter(ClassVisitor visitor, String theClass) {
+	public ProfClassAdapter(ClassVisitor visitor, String theClass, Map<String, MethodShape> shapes, int mode) {
 		super(visitor);
 		this.mClassName = theClass;
+		this.mShapes = shapes;
+		this.mMode = mode;
 	}
 
 	/* (non-Javadoc)
@@ -63,38 +97,96 @@ public class ProfClassAdapter extends ClassAdapter {
 		mFileName = source;
 	}
 
-	/* (non-Javadoc)
-	 * @see org.objectweb.asm.ClassAdapter#visitField(int, java.lang.String, java.lang.String, java.lang.String, java.lang.Object)
-	 */
-	public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
-		String up = name.substring(0, 1).toUpperCase() + name.substring(1, name.length());
-		String getFieldName = "get" + up;
-		String setFieldName = "set" + up;
-		String isFieldName = "is" + up;
-		fieldNameList.add(getFieldName);
-		fieldNameList.add(setFieldName);
-		fieldNameList.add(isFieldName);
-
-		return super.visitField(access, name, desc, signature, value);
-	}
-
 	/* (non-Javadoc)
 	 * @see org.objectweb.asm.ClassAdapter#visitMethod(int, java.lang.String, java.lang.String, java.lang.String, java.lang.String[])
 	 */
 	public MethodVisitor visitMethod(int arg, String name, String descriptor, String signature, String[] exceptions) {
-		if (Manager.isIgnoreGetSetMethod()) {
-			if (fieldNameList.contains(name)) {
-				return super.visitMethod(arg, name, descriptor, signature, exceptions);
+		if (mMode == MODE_DEFINE) {
+			MethodVisitor mv = super.visitMethod(arg, name, descriptor, signature, exceptions);
+			// defineClass(String, byte[], int, int, CodeSource)和defineClass(String, ByteBuffer, CodeSource)
+			if ("defineClass".equals(name) && descriptor.startsWith("(Ljava/lang/String;")) {
+				return new DefineClassAdapter(mv, arg, mFileName, mClassName, name, descriptor, mVersion);
 			}
+			return mv;
 		}
-		// 静态区域不注入
+		// 静态区域只在启动剖析时注入,统计类初始化耗时
 		if ("<clinit>".equals(name)) {
+			MethodVisitor mv = super.visitMethod(arg, name, descriptor, signature, exceptions);
+			if (StartupProfiler.isEnabled() && mMode != MODE_JDK) {
+				// 只统计类初始化时不预先扫描,行号为0
+				MethodShape shape = mShapes.get(name + descriptor);
+				return ProfMethodAdapter.forClinit(mv, mFileName, mClassName, descriptor, mVersion,
+						shape == null ? 0 : shape.getLineNum());
+			}
+			return mv;
+		}
+		if (mMode == MODE_CLINIT) {
 			return super.visitMethod(arg, name, descriptor, signature, exceptions);
 		}
-
+		if (mMode == MODE_JDK && !MethodFilter.isJdkMethod(mClassName, name, descriptor)) {
+			return super.visitMethod(arg, name, descriptor, signature, exceptions);
+		}
+		MethodShape shape = mShapes.get(name + descriptor);
+		// 配置了方法级规则时,只注入匹配规则或者带有注解的方法
+		if (mMode == MODE_ALL && MethodFilter.isActive()) {
+			Set<String> annotations = shape == null ? Collections.<String> emptySet() : shape.getAnnotations();
+			if (!MethodFilter.isNeedInject(mClassName, name, descriptor, annotations)) {
+				return super.visitMethod(arg, name, descriptor, signature, exceptions);
+			}
+		}
+		// 平凡方法(getter/setter等叶子方法)不注入;JDK方法是按规则逐个选中的,不在此列
+		if (Manager.isIgnoreTrivialMethod() && mMode != MODE_JDK) {
+			if (shape != null && shape.isTrivial(Manager.getTrivialMethodSize())) {
+				return super.visitMethod(arg, name, descriptor, signature, exceptions);
+			}
+		}
+		// 注入后会越过JIT内联或编译上限的方法不注入,写到方法log中
+		if (Manager.isJitAwareInstrument() && shape != null) {
+			String limit = ProfMethodAdapter.checkJitLimit(shape);
+			if (limit != null) {
+				MethodCache.addJitSkippedMethod(mClassName + ":" + name + descriptor + " "
+						+ shape.getCodeSize() + "->" + ProfMethodAdapter.instrumentedSize(shape) + " " + limit);
+				return super.visitMethod(arg, name, descriptor, signature, exceptions);
+			}
+		}
 		MethodVisitor mv = super.visitMethod(arg, name, descriptor, signature, exceptions);
-		MethodAdapter ma = new ProfMethodAdapter(mv, mFileName, mClassName, name);
+		int tokenLocal = shape == null ? -1 : shape.getMaxLocals();
+		int lineNum = shape == null ? 0 : shape.getLineNum();
+		MethodAdapter ma = new ProfMethodAdapter(mv, arg, mFileName, mClassName, name, descriptor, mVersion,
+				tokenLocal, lineNum);
 		return ma;
 	}
 
+	/**
+	 * SecureClassLoader.defineClass的适配器,复用ProfMethodAdapter的入口/出口和异常处理器,
+	 * 探针改为StartupProfiler的defineStart/defineEnd
+	 *
+	 * @author shutong.dy
+	 * @since 2026-10-19
+	 */
+	private static class DefineClassAdapter extends ProfMethodAdapter {
+
+		DefineClassAdapter(MethodVisitor visitor, int access, String fileName, String className,
+				String methodName, String descriptor, int classVersion) {
+			super(visitor, access, fileName, className, methodName, descriptor, classVersion, -1);
+			mCountOnly = false;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.taobao.profile.instrument.ProfMethodAdapter#startProbe()
+		 */
+		protected void startProbe() {
+			mv.visitVarInsn(Opcodes.ALOAD, 0);
+			mv.visitVarInsn(Opcodes.ALOAD, 1);
+			mv.visitMethodInsn(Opcodes.INVOKESTATIC, "com/taobao/profile/StartupProfiler", "defineStart",
+					"(Ljava/lang/ClassLoader;Ljava/lang/String;)V");
+		}
+
+		/* (non-Javadoc)
+		 * @see com.taobao.profile.instrument.ProfMethodAdapter#endProbe()
+		 */
+		protected void endProbe() {
+			mv.visitMethodInsn(Opcodes.INVOKESTATIC, "com/taobao/profile/StartupProfiler", "defineEnd", "()V");
+		}
+	}
 }
@@ -10,12 +10,17 @@ package com.taobao.profile.instrument;
 
 import static org.objectweb.asm.Opcodes.INVOKESTATIC;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodAdapter;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
 
-import com.taobao.profile.Profiler;
+import com.taobao.profile.Manager;
+import com.taobao.profile.config.RecordThreshold;
 import com.taobao.profile.runtime.MethodCache;
 
 /**
@@ -25,40 +30,403 @@ import com.taobao.profile.runtime.MethodCache;
  * @since 2010-6-23
  */
 public class ProfMethodAdapter extends MethodAdapter {
+	/**
+	 * 一个探针(LDC方法ID + INVOKESTATIC)的最大字节数
+	 */
+	private static final int PROBE_SIZE = 6;
+
+	/**
+	 * 异常出口处理器的字节数(探针 + ATHROW)
+	 */
+	private static final int HANDLER_SIZE = PROBE_SIZE + 1;
+
+	/**
+	 * 令牌局部变量一次LSTORE/LLOAD的最大字节数(不含wide)
+	 */
+	private static final int TOKEN_LOCAL_SIZE = 2;
+
+	/**
+	 * 默认探针所在的类
+	 */
+	private static final String PROFILER = "com/taobao/profile/Profiler";
+	/**
+	 * 启动剖析探针所在的类
+	 */
+	private static final String STARTUP_PROFILER = "com/taobao/profile/StartupProfiler";
+
 	/**
 	 * 方法ID
 	 */
 	private int mMethodId = 0;
+	/**
+	 * 探针所在的类
+	 */
+	private String mProbeOwner = PROFILER;
+	/**
+	 * 入口探针方法名
+	 */
+	private String mStartProbe = "Start";
+	/**
+	 * 出口探针方法名
+	 */
+	private String mEndProbe = "End";
+	/**
+	 * 是否生成StackMapTable帧(class版本>=50)
+	 */
+	private boolean mNeedFrame;
+	/**
+	 * 异常处理器覆盖范围的开始
+	 */
+	private Label mTryStart;
+	/**
+	 * 是否是构造函数
+	 */
+	private boolean mConstructor;
+	/**
+	 * 构造函数中已经NEW但还没有调用&lt;init&gt;的对象数,
+	 * 为0时遇到的INVOKESPECIAL &lt;init&gt;即是super()/this()调用
+	 */
+	private int mPendingNew;
+	/**
+	 * 是否已经插入Start探针
+	 */
+	private boolean mStarted;
+	/**
+	 * 计数模式:入口只插入Count探针,没有出口探针
+	 */
+	protected boolean mCountOnly;
+	/**
+	 * 异常出口处理器的帧中保留this,exceptionProbe可以ALOAD 0;
+	 * 只用于不给局部变量0赋值的实例方法(不含构造函数)
+	 */
+	protected boolean mHandlerThis;
+	/**
+	 * 保存StartToken令牌的局部变量下标,-1表示使用Start/End探针
+	 */
+	private int mTokenLocal = -1;
+	/**
+	 * 由方法描述符得到的初始帧的局部变量
+	 */
+	private Object[] mInitialLocals;
+	/**
+	 * 是否丢弃ClassReader给出的下一帧,即初始帧
+	 */
+	private boolean mSkipFrame;
+
+	/**
+	 * 依赖探针使用,不预先扫描行号
+	 * 
+	 * @param visitor
+	 * @param access
+	 * @param fileName
+	 * @param className
+	 * @param methodName
+	 * @param descriptor
+	 * @param classVersion
+	 * @param tokenLocal
+	 */
+	public ProfMethodAdapter(MethodVisitor visitor, int access, String fileName, String className,
+			String methodName, String descriptor, int classVersion, int tokenLocal) {
+		this(visitor, access, fileName, className, methodName, descriptor, classVersion, tokenLocal, 0);
+	}
 
 	/**
 	 * @param visitor
+	 * @param access
 	 * @param fileName
 	 * @param className
 	 * @param methodName
+	 * @param descriptor
+	 * @param classVersion
+	 * @param tokenLocal 原方法的局部变量表大小,令牌保存在此处;-1表示使用Start/End探针
+	 * @param lineNum 预先扫描得到的行号,随方法ID一起发布
 	 */
-	public ProfMethodAdapter(MethodVisitor visitor, String fileName, String className, String methodName) {
+	public ProfMethodAdapter(MethodVisitor visitor, int access, String fileName, String className,
+			String methodName, String descriptor, int classVersion, int tokenLocal, int lineNum) {
 		super(visitor);
-		mMethodId = MethodCache.Request();
-		MethodCache.UpdateMethodName(mMethodId, fileName, className, methodName);
-		// 记录方法数
-		Profiler.instrumentMethodCount.getAndIncrement();
+		mTokenLocal = tokenLocal;
+		mNeedFrame = (classVersion & 0xFFFF) >= Opcodes.V1_6;
+		mConstructor = "<init>".equals(methodName);
+		if (mNeedFrame) {
+			mInitialLocals = initialLocals(access, className, descriptor, mConstructor);
+		}
+		mCountOnly = Manager.isCountMode();
+		mMethodId = MethodCache.Request(fileName, className, methodName, descriptor, lineNum);
+		if (!mCountOnly) {
+			RecordThreshold.apply(mMethodId, className, methodName, descriptor);
+		}
+	}
+
+	/**
+	 * 类初始化方法的适配器,探针改为StartupProfiler的clinitStart/clinitEnd
+	 * 
+	 * @param visitor
+	 * @param fileName
+	 * @param className
+	 * @param descriptor
+	 * @param classVersion
+	 * @param lineNum
+	 * @return
+	 */
+	public static ProfMethodAdapter forClinit(MethodVisitor visitor, String fileName, String className,
+			String descriptor, int classVersion, int lineNum) {
+		ProfMethodAdapter adapter = new ProfMethodAdapter(visitor, Opcodes.ACC_STATIC, fileName, className,
+				"<clinit>", descriptor, classVersion, -1, lineNum);
+		adapter.mCountOnly = false;
+		adapter.mProbeOwner = STARTUP_PROFILER;
+		adapter.mStartProbe = "clinitStart";
+		adapter.mEndProbe = "clinitEnd";
+		return adapter;
+	}
+
+	/**
+	 * 估算注入后的字节码长度:入口一个Start探针,每个return前一个End探针,外加异常出口处理器,
+	 * 每个探针还要存取一次令牌局部变量;计数模式只有入口一个Count探针
+	 * 
+	 * @param shape
+	 * @return
+	 */
+	public static int instrumentedSize(MethodShape shape) {
+		if (Manager.isCountMode()) {
+			return shape.getCodeSize() + PROBE_SIZE;
+		}
+		int localSize = shape.getMaxLocals() > 255 ? TOKEN_LOCAL_SIZE + 2 : TOKEN_LOCAL_SIZE;
+		return shape.getCodeSize() + (PROBE_SIZE + localSize) * (1 + shape.getReturnCount()) + HANDLER_SIZE
+				+ localSize;
+	}
+
+	/**
+	 * 检查注入后是否会越过HotSpot的内联或编译上限,越过则不注入,
+	 * 以免探针改变被剖析代码本身的JIT行为
+	 * 
+	 * @param shape
+	 * @return 越过的上限名称,没有越过返回null
+	 */
+	public static String checkJitLimit(MethodShape shape) {
+		int original = shape.getCodeSize();
+		int instrumented = instrumentedSize(shape);
+		if (original <= Manager.getMaxInlineSize() && instrumented > Manager.getMaxInlineSize()) {
+			return "MaxInlineSize";
+		}
+		if (original <= Manager.getFreqInlineSize() && instrumented > Manager.getFreqInlineSize()) {
+			return "FreqInlineSize";
+		}
+		if (original <= Manager.getHugeMethodLimit() && instrumented > Manager.getHugeMethodLimit()) {
+			return "DontCompileHugeMethods";
+		}
+		return null;
 	}
 
 	/* (non-Javadoc)
 	 * @see org.objectweb.asm.MethodAdapter#visitCode()
 	 */
 	public void visitCode() {
-		this.visitLdcInsn(mMethodId);
-		this.visitMethodInsn(INVOKESTATIC, "com/taobao/profile/Profiler", "Start", "(I)V");
 		super.visitCode();
+		// ClassWriter把第一个F_NEW帧当作初始帧而不写出,ClassReader只在方法有StackMapTable时才给出初始帧,
+		// 这里总是自己给出,保证异常处理器的帧不会被当作初始帧丢掉
+		if (mNeedFrame) {
+			mv.visitFrame(Opcodes.F_NEW, mInitialLocals.length, mInitialLocals, 0, new Object[0]);
+			mSkipFrame = true;
+		}
+		// 计数不需要等待super()返回,也没有出口探针
+		if (mCountOnly) {
+			mv.visitLdcInsn(mMethodId);
+			mv.visitMethodInsn(INVOKESTATIC, PROFILER, "Count", "(I)V");
+			return;
+		}
+		// 构造函数在super()/this()返回后才开始计时,否则构造链上的时间会重叠
+		if (!mConstructor) {
+			start();
+		}
+	}
+
+	/**
+	 * 插入Start探针,并开始异常处理器的覆盖范围.
+	 * 构造函数在super()之前this未初始化,不能被异常处理器覆盖
+	 */
+	private void start() {
+		startProbe();
+		mStarted = true;
+		mTryStart = new Label();
+		mv.visitLabel(mTryStart);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.objectweb.asm.MethodAdapter#visitTypeInsn(int, java.lang.String)
+	 */
+	public void visitTypeInsn(int opcode, String type) {
+		if (mConstructor && !mCountOnly && !mStarted && opcode == Opcodes.NEW) {
+			mPendingNew++;
+		}
+		super.visitTypeInsn(opcode, type);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.objectweb.asm.MethodAdapter#visitMethodInsn(int, java.lang.String, java.lang.String, java.lang.String)
+	 */
+	public void visitMethodInsn(int opcode, String owner, String name, String desc) {
+		super.visitMethodInsn(opcode, owner, name, desc);
+		if (mConstructor && !mCountOnly && !mStarted && opcode == Opcodes.INVOKESPECIAL && "<init>".equals(name)) {
+			if (mPendingNew == 0) {
+				start();
+			} else {
+				mPendingNew--;
+			}
+		}
+	}
+
+	/**
+	 * @return 是否需要生成StackMapTable帧,子类在探针中插入跳转时使用
+	 */
+	protected boolean isNeedFrame() {
+		return mNeedFrame;
+	}
+
+	/**
+	 * @return 方法入口处帧的局部变量,不需要帧时为null
+	 */
+	protected Object[] getInitialLocals() {
+		return mInitialLocals;
+	}
+
+	/**
+	 * 插入Start探针
+	 */
+	protected void startProbe() {
+		mv.visitLdcInsn(mMethodId);
+		if (mTokenLocal >= 0) {
+			mv.visitMethodInsn(INVOKESTATIC, PROFILER, "StartToken", "(I)J");
+			mv.visitVarInsn(Opcodes.LSTORE, mTokenLocal);
+		} else {
+			mv.visitMethodInsn(INVOKESTATIC, mProbeOwner, mStartProbe, "(I)V");
+		}
+	}
+
+	/**
+	 * 插入End探针,令牌方式不需要在线程栈中查找匹配的栈帧
+	 */
+	protected void endProbe() {
+		if (mTokenLocal >= 0) {
+			mv.visitVarInsn(Opcodes.LLOAD, mTokenLocal);
+			mv.visitLdcInsn(mMethodId);
+			mv.visitMethodInsn(INVOKESTATIC, PROFILER, "End", "(JI)V");
+		} else {
+			mv.visitLdcInsn(mMethodId);
+			mv.visitMethodInsn(INVOKESTATIC, mProbeOwner, mEndProbe, "(I)V");
+		}
+	}
+
+	/**
+	 * 插入异常退出时的探针,栈顶是异常对象,默认与正常退出相同
+	 */
+	protected void exceptionProbe() {
+		endProbe();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.objectweb.asm.MethodAdapter#visitFrame(int, int, java.lang.Object[], int, java.lang.Object[])
+	 */
+	public void visitFrame(int type, int nLocal, Object[] local, int nStack, Object[] stack) {
+		if (mSkipFrame) {
+			mSkipFrame = false;
+			return;
+		}
+		// Start之后的帧中令牌局部变量都是long
+		if (mStarted && mTokenLocal >= 0 && type == Opcodes.F_NEW) {
+			Object[] locals = appendToken(nLocal, local);
+			super.visitFrame(type, locals.length, locals, nStack, stack);
+			return;
+		}
+		super.visitFrame(type, nLocal, local, nStack, stack);
+	}
+
+	/**
+	 * 由方法描述符计算初始帧的局部变量
+	 * 
+	 * @param access
+	 * @param className
+	 * @param descriptor
+	 * @param constructor
+	 * @return
+	 */
+	private static Object[] initialLocals(int access, String className, String descriptor, boolean constructor) {
+		List<Object> locals = new ArrayList<Object>();
+		if ((access & Opcodes.ACC_STATIC) == 0) {
+			locals.add(constructor ? Opcodes.UNINITIALIZED_THIS : className);
+		}
+		for (Type type : Type.getArgumentTypes(descriptor)) {
+			switch (type.getSort()) {
+			case Type.BOOLEAN:
+			case Type.CHAR:
+			case Type.BYTE:
+			case Type.SHORT:
+			case Type.INT:
+				locals.add(Opcodes.INTEGER);
+				break;
+			case Type.FLOAT:
+				locals.add(Opcodes.FLOAT);
+				break;
+			case Type.LONG:
+				locals.add(Opcodes.LONG);
+				break;
+			case Type.DOUBLE:
+				locals.add(Opcodes.DOUBLE);
+				break;
+			case Type.ARRAY:
+				locals.add(type.getDescriptor());
+				break;
+			default:
+				locals.add(type.getInternalName());
+				break;
+			}
+		}
+		return locals.toArray();
+	}
+
+	/**
+	 * 把帧的局部变量用TOP补齐到令牌的下标,再追加令牌
+	 * 
+	 * @param nLocal
+	 * @param local
+	 * @return
+	 */
+	private Object[] appendToken(int nLocal, Object[] local) {
+		List<Object> locals = new ArrayList<Object>(nLocal + 1);
+		int slots = 0;
+		for (int i = 0; i < nLocal; i++) {
+			locals.add(local[i]);
+			slots += (local[i] == Opcodes.LONG || local[i] == Opcodes.DOUBLE) ? 2 : 1;
+		}
+		for (; slots < mTokenLocal; slots++) {
+			locals.add(Opcodes.TOP);
+		}
+		locals.add(Opcodes.LONG);
+		return locals.toArray();
 	}
 
 	/* (non-Javadoc)
-	 * @see org.objectweb.asm.MethodAdapter#visitLineNumber(int, org.objectweb.asm.Label)
+	 * @see org.objectweb.asm.MethodAdapter#visitMaxs(int, int)
 	 */
-	public void visitLineNumber(final int line, final Label start) {
-		MethodCache.UpdateLineNum(mMethodId, line);
-		super.visitLineNumber(line, start);
+	public void visitMaxs(int maxStack, int maxLocals) {
+		if (mTryStart != null) {
+			// 相当于给整个方法体加上try/finally:异常退出时记录End,然后原样抛出
+			Label tryEnd = new Label();
+			Label handler = new Label();
+			mv.visitLabel(tryEnd);
+			mv.visitTryCatchBlock(mTryStart, tryEnd, handler, null);
+			mv.visitLabel(handler);
+			if (mNeedFrame) {
+				// 类以EXPAND_FRAMES读入,所有帧都必须是F_NEW
+				Object[] locals = mHandlerThis ? new Object[] { mInitialLocals[0] } : new Object[0];
+				if (mTokenLocal >= 0) {
+					locals = appendToken(locals.length, locals);
+				}
+				mv.visitFrame(Opcodes.F_NEW, locals.length, locals, 1, new Object[] { "java/lang/Throwable" });
+			}
+			exceptionProbe();
+			mv.visitInsn(Opcodes.ATHROW);
+		}
+		super.visitMaxs(maxStack, maxLocals);
 	}
 
 	/* (non-Javadoc)
@@ -72,9 +440,9 @@ public class ProfMethodAdapter extends MethodAdapter {
 		case Opcodes.IRETURN:
 		case Opcodes.LRETURN:
 		case Opcodes.RETURN:
-		case Opcodes.ATHROW:
-			this.visitLdcInsn(mMethodId);
-			this.visitMethodInsn(INVOKESTATIC, "com/taobao/profile/Profiler", "End", "(I)V");
+			if (mStarted) {
+				endProbe();
+			}
 			break;
 		default:
 			break;
@@ -11,16 +11,23 @@ package com.taobao.profile.instrument;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.security.ProtectionDomain;
+import java.util.Collections;
 
-import com.taobao.profile.dependence_query.mysql.MysqlProfClassAdapter;
-import com.taobao.profile.dependence_query.mysql.MysqlProfFilter;
+import com.taobao.profile.dependence_query.DependencyProbe;
+import com.taobao.profile.dependence_query.ProbeRegistry;
+import com.taobao.profile.dependence_query.jdbc.JdbcProbe;
 import org.objectweb.asm.ClassAdapter;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 
+import com.taobao.profile.BootstrapInjector;
 import com.taobao.profile.Manager;
 import com.taobao.profile.Profiler;
+import com.taobao.profile.StartupProfiler;
+import com.taobao.profile.config.MethodFilter;
 import com.taobao.profile.config.ProfFilter;
+import com.taobao.profile.runtime.MethodCache;
+import com.taobao.profile.utils.WeakIdentityMap;
 
 /**
  * 自定义ClassFileTransformer,用于转换类字节码
@@ -31,79 +38,224 @@ import com.taobao.profile.config.ProfFilter;
 public class ProfTransformer implements ClassFileTransformer {
 
 	/**
-	 * 尝试对Mysql的包拦截
-	 * @param loader
-	 * @param className
-	 * @param classBeingRedefined
-	 * @param protectionDomain
-	 * @param classfileBuffer
-	 * @return
+	 * 启动剖析时不统计类初始化耗时的包
 	 */
-	private byte[] transform4Mysql(ClassLoader loader, String className, Class<?> classBeingRedefined,
-								   ProtectionDomain protectionDomain, byte[] classfileBuffer){
-		try {
-			if(!MysqlProfFilter.getInstance().isNeedInject(className)){
-				return null;
-			}
+	private static final String[] CLINIT_EXCLUDE = { "java/", "javax/", "sun/", "com/sun/", "jdk/",
+			"com/taobao/profile/", "org/objectweb/asm/" };
 
-			if (Manager.instance().isDebugMode()) {
-				System.out.println(" ---- TProfiler Debug: ClassLoader:" + loader + " ---- class: " + className+"  by mysqASM");
-			}
+	/**
+	 * 启动剖析时注入defineClass以统计类定义耗时的JDK类
+	 */
+	public static final String SECURE_CLASS_LOADER = "java/security/SecureClassLoader";
 
-			// 记录注入类数
-			Profiler.instrumentClassCount.getAndIncrement();
-
-			//使用asm修改类的字节码
-			ClassReader reader = new ClassReader(classfileBuffer);
-			ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-			ClassAdapter adapter = new MysqlProfClassAdapter(writer, className);
-			reader.accept(adapter, 0);
-			// 生成新类字节码
-			return writer.toByteArray();
-		}catch (Exception e){
-			e.printStackTrace();
-		}
-		return null;
-	}
+	/**
+	 * 开启jdbcDetectIncludePackages时,对包名过滤选中的类按继承关系查找JDBC驱动
+	 */
+	private static final DependencyProbe JDBC_FALLBACK = new JdbcProbe();
+
+	/**
+	 * 类加载器是否能看到StartupProfiler
+	 */
+	private static final WeakIdentityMap<ClassLoader, Boolean> startupVisibleLoaders = new WeakIdentityMap<ClassLoader, Boolean>();
+
+	/**
+	 * 当前线程是否正在转换类.转换时首次用到的JDK类也会经过转换器,不再转换这些类,
+	 * 以免转换代码再次用到正在加载的类而抛出ClassCircularityError
+	 */
+	private static final ThreadLocal<Boolean> transforming = new ThreadLocal<Boolean>();
 
 	/* (non-Javadoc)
 	 * @see java.lang.instrument.ClassFileTransformer#transform(java.lang.ClassLoader, java.lang.String, java.lang.Class, java.security.ProtectionDomain, byte[])
 	 */
 	public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
 	        ProtectionDomain protectionDomain, byte[] classfileBuffer) throws IllegalClassFormatException {
-		if (loader != null && ProfFilter.isNotNeedInjectClassLoader(loader.getClass().getName())) {
+		if (transforming.get() != null) {
 			return classfileBuffer;
 		}
+		transforming.set(Boolean.TRUE);
+		try {
+			if (!StartupProfiler.isEnabled()) {
+				return doTransform(loader, className, classBeingRedefined, protectionDomain, classfileBuffer);
+			}
+			// 启动剖析时记录每个类的转换耗时
+			long start = System.nanoTime();
+			try {
+				return doTransform(loader, className, classBeingRedefined, protectionDomain, classfileBuffer);
+			} finally {
+				StartupProfiler.addTransform(loader, className, classfileBuffer.length, System.nanoTime() - start);
+			}
+		} finally {
+			transforming.remove();
+		}
+	}
+
+	/**
+	 * @param loader
+	 * @param className
+	 * @param classBeingRedefined
+	 * @param protectionDomain
+	 * @param classfileBuffer
+	 * @return
+	 */
+	private byte[] doTransform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+	        ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+		if (ProfFilter.isNotNeedInjectClassLoader(loader)) {
+			return classfileBuffer;
+		}
+
+		// 重新转换(其他Agent或者JDK工具触发)时传入的是未注入的字节码,须重新注入;
+		// 方法按稳定ID复用已有的方法ID,类也不再重复计数
+		boolean redefined = classBeingRedefined != null;
 
-		//如果可以注入mysql成功；则不再继续注入
-		byte[] temp = transform4Mysql(loader, className, classBeingRedefined, protectionDomain, classfileBuffer);
+		//如果依赖探针(mysql,jdbc,http等)注入成功；则不再继续注入,JDK类中的探针也优先于方法规则
+		byte[] temp = ProbeRegistry.getInstance().transform(loader, className, classfileBuffer, redefined);
 		if(temp!=null){
 			return temp;
 		}
 
-		if (!ProfFilter.isNeedInject(className)) {
+		// 启动剖析时统计类定义耗时,URLClassLoader和JDK 9起的内置类加载器都经由SecureClassLoader定义类
+		if (loader == null && SECURE_CLASS_LOADER.equals(className) && StartupProfiler.isEnabled()
+				&& BootstrapInjector.isInjected()) {
+			try {
+				return instrument(className, classfileBuffer, ProfClassAdapter.MODE_DEFINE, redefined);
+			} catch (Throwable e) {
+				e.printStackTrace();
+				return classfileBuffer;
+			}
+		}
+
+		// JDK类只在Profiler已经注入启动类加载器时注入规则选中的方法
+		if (loader == null && MethodFilter.isJdkClass(className) && BootstrapInjector.isInjected()) {
+			try {
+				return instrument(className, classfileBuffer, ProfClassAdapter.MODE_JDK, redefined);
+			} catch (Throwable e) {
+				e.printStackTrace();
+				return classfileBuffer;
+			}
+		}
+
+		if (!isNeedInject(className)) {
+			// 启动剖析时其他类也统计类初始化耗时
+			if (StartupProfiler.isEnabled() && isNeedClinitTime(loader, className)) {
+				try {
+					return instrument(className, classfileBuffer, ProfClassAdapter.MODE_CLINIT, redefined);
+				} catch (Throwable e) {
+					e.printStackTrace();
+				}
+			}
 			return classfileBuffer;
 		}
-		if (ProfFilter.isNotNeedInject(className)) {
+		// 已经离线织入的类不再重复注入
+		if (MethodCache.isWovenClass(className)) {
 			return classfileBuffer;
 		}
+		// 已经通过类加载器和包名过滤的类,显式开启时再按继承关系查找JDBC驱动
+		if (Manager.isJdbcDetectIncludePackages()) {
+			temp = ProbeRegistry.getInstance().transform(JDBC_FALLBACK, loader, className, classfileBuffer, redefined);
+			if (temp != null) {
+				return temp;
+			}
+		}
 		if (Manager.instance().isDebugMode()) {
 			System.out.println(" ---- TProfiler Debug: ClassLoader:" + loader + " ---- class: " + className);
 		}
 
-		// 记录注入类数
-		Profiler.instrumentClassCount.getAndIncrement();
 		try {
-			ClassReader reader = new ClassReader(classfileBuffer);
-			ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-			ClassAdapter adapter = new ProfClassAdapter(writer, className);
-			reader.accept(adapter, 0);
-			// 生成新类字节码
-			return writer.toByteArray();
+			return instrument(className, classfileBuffer, ProfClassAdapter.MODE_ALL, redefined);
 		} catch (Throwable e) {
 			e.printStackTrace();
 			// 返回旧类字节码
 			return classfileBuffer;
 		}
 	}
+
+	/**
+	 * 根据包名过滤器判断是否需要注入
+	 * 
+	 * @param className
+	 * @return
+	 */
+	static boolean isNeedInject(String className) {
+		return ProfFilter.isNeedInject(className) && !ProfFilter.isNotNeedInject(className);
+	}
+
+	/**
+	 * 包名过滤之外的类是否需要统计类初始化耗时.
+	 * 启动类加载器加载的类看不到StartupProfiler,JDK和Agent自身的类也不统计
+	 * 
+	 * @param loader
+	 * @param className
+	 * @return
+	 */
+	private static boolean isNeedClinitTime(ClassLoader loader, String className) {
+		if (loader == null || className == null) {
+			return false;
+		}
+		for (String prefix : CLINIT_EXCLUDE) {
+			if (className.startsWith(prefix)) {
+				return false;
+			}
+		}
+		return canSeeStartupProfiler(loader);
+	}
+
+	/**
+	 * 插件类加载器不一定委派到系统类加载器,看不到StartupProfiler的类注入后会在类初始化时失败
+	 * 
+	 * @param loader
+	 * @return
+	 */
+	private static boolean canSeeStartupProfiler(ClassLoader loader) {
+		Boolean visible = startupVisibleLoaders.get(loader);
+		if (visible != null) {
+			return visible.booleanValue();
+		}
+		boolean result;
+		try {
+			result = Class.forName(StartupProfiler.class.getName(), false, loader) == StartupProfiler.class;
+		} catch (Throwable e) {
+			result = false;
+		}
+		startupVisibleLoaders.put(loader, Boolean.valueOf(result));
+		return result;
+	}
+
+	/**
+	 * 注入Profiler探针,运行时转换与离线织入共用
+	 * 
+	 * @param className
+	 * @param classfileBuffer
+	 * @return 注入后的类字节码
+	 */
+	static byte[] instrument(String className, byte[] classfileBuffer) {
+		return instrument(className, classfileBuffer, ProfClassAdapter.MODE_ALL, false);
+	}
+
+	/**
+	 * @param className
+	 * @param classfileBuffer
+	 * @param mode ProfClassAdapter的注入模式
+	 * @param redefined 是否是重新转换,重新转换的类已经计数
+	 * @return 注入后的类字节码
+	 */
+	private static byte[] instrument(String className, byte[] classfileBuffer, int mode, boolean redefined) {
+		ClassReader reader = new ClassReader(classfileBuffer);
+		// 沿用原常量池:ASM 3不认识NestHost/NestMembers、MethodParameters等属性,只能原样复制,
+		// 重建常量池会使其中的下标指向错误的常量,JDK 11及以上的类因此无法加载甚至使JVM崩溃
+		ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+		ClassAdapter adapter;
+		if (mode == ProfClassAdapter.MODE_CLINIT) {
+			adapter = new ProfClassAdapter(writer, className, Collections.<String, MethodShape> emptyMap(), mode);
+		} else {
+			if (!redefined) {
+				// 记录注入类数
+				Profiler.instrumentClassCount.getAndIncrement();
+			}
+			adapter = new ProfClassAdapter(writer, className, MethodShape.scan(reader), mode);
+		}
+		// 展开帧,注入的令牌局部变量可以直接追加到每一帧的局部变量表中
+		reader.accept(adapter, ClassReader.EXPAND_FRAMES);
+		// 生成新类字节码
+		return writer.toByteArray();
+	}
 }
@@ -0,0 +1,221 @@
+/**
+ * (C) 2011-2012 Alibaba Group Holding Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ */
+package com.taobao.profile.instrument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import com.taobao.profile.Manager;
+import com.taobao.profile.runtime.MethodCache;
+
+/**
+ * 离线织入工具,在构建阶段用ProfClassAdapter注入jar包或class目录,
+ * 同时生成方法表供运行时MethodCache加载,应用启动时不再有字节码转换开销
+ *
+ * @author shutong.dy
+ * @since 2026-10-19
+ */
+public class StaticWeaver {
+
+	/**
+	 * 方法表文件名
+	 */
+	public static final String METHOD_TABLE_NAME = "tmethod.table";
+
+	/**
+	 * 输出目录
+	 */
+	private File outputDir;
+	/**
+	 * 已织入的类名
+	 */
+	private List<String> wovenClasses = new ArrayList<String>();
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: <output dir> <jar or class dir> [<jar or class dir> ...]");
+			return;
+		}
+		// 读取profile.properties中的包名过滤配置
+		Manager.instance().initialization();
+		StaticWeaver weaver = new StaticWeaver(new File(args[0]));
+		try {
+			for (int i = 1; i < args.length; i++) {
+				weaver.weave(new File(args[i]));
+			}
+			weaver.writeMethodTable();
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @param outputDir
+	 */
+	public StaticWeaver(File outputDir) {
+		this.outputDir = outputDir;
+	}
+
+	/**
+	 * 织入jar包或class目录,结果写到输出目录的同名文件中
+	 *
+	 * @param input
+	 * @throws IOException
+	 */
+	public void weave(File input) throws IOException {
+		if (!outputDir.exists()) {
+			outputDir.mkdirs();
+		}
+		File target = new File(outputDir, input.getName());
+		if (input.isDirectory()) {
+			weaveDirectory(input, target, "");
+		} else {
+			weaveJar(input, target);
+		}
+	}
+
+	/**
+	 * 写出方法表,运行时通过methodTablePath配置加载
+	 *
+	 * @throws IOException
+	 */
+	public void writeMethodTable() throws IOException {
+		File table = new File(outputDir, METHOD_TABLE_NAME);
+		MethodCache.writeMethodTable(table.getPath(), wovenClasses);
+		System.out.println("woven class:" + wovenClasses.size() + " method table:" + table.getAbsolutePath());
+	}
+
+	/**
+	 * @param source
+	 * @param target
+	 * @throws IOException
+	 */
+	private void weaveJar(File source, File target) throws IOException {
+		JarFile jar = new JarFile(source);
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(target));
+		try {
+			Enumeration<JarEntry> entries = jar.entries();
+			while (entries.hasMoreElements()) {
+				JarEntry entry = entries.nextElement();
+				String name = entry.getName();
+				// 注入后签名失效,去掉签名文件
+				if (isSignatureFile(name)) {
+					continue;
+				}
+				out.putNextEntry(new JarEntry(name));
+				if (!entry.isDirectory()) {
+					byte[] data = read(jar.getInputStream(entry));
+					out.write(weaveClass(name, data));
+				}
+				out.closeEntry();
+			}
+		} finally {
+			out.close();
+			jar.close();
+		}
+	}
+
+	/**
+	 * @param source
+	 * @param target
+	 * @param path 相对路径
+	 * @throws IOException
+	 */
+	private void weaveDirectory(File source, File target, String path) throws IOException {
+		target.mkdirs();
+		File[] files = source.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String name = path + file.getName();
+			if (file.isDirectory()) {
+				weaveDirectory(file, new File(target, file.getName()), name + "/");
+				continue;
+			}
+			byte[] data = read(new FileInputStream(file));
+			OutputStream out = new FileOutputStream(new File(target, file.getName()));
+			try {
+				out.write(weaveClass(name, data));
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * 对需要注入的类执行注入,其他文件原样返回
+	 *
+	 * @param name 在jar包或目录中的路径
+	 * @param data
+	 * @return
+	 */
+	private byte[] weaveClass(String name, byte[] data) {
+		if (!name.endsWith(".class") || name.startsWith("META-INF/")) {
+			return data;
+		}
+		String className = name.substring(0, name.length() - ".class".length());
+		if (!ProfTransformer.isNeedInject(className)) {
+			return data;
+		}
+		try {
+			byte[] result = ProfTransformer.instrument(className, data);
+			wovenClasses.add(className);
+			return result;
+		} catch (Throwable e) {
+			System.err.println("weave class failed, keep original: " + className);
+			e.printStackTrace();
+			return data;
+		}
+	}
+
+	/**
+	 * @param name
+	 * @return
+	 */
+	private boolean isSignatureFile(String name) {
+		if (!name.startsWith("META-INF/")) {
+			return false;
+		}
+		return name.endsWith(".SF") || name.endsWith(".RSA") || name.endsWith(".DSA") || name.endsWith(".EC");
+	}
+
+	/**
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	private byte[] read(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for (int len = -1; (len = in.read(buffer)) != -1;) {
+				out.write(buffer, 0, len);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -8,10 +8,25 @@
  */
 package com.taobao.profile.runtime;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import com.taobao.profile.Manager;
 import com.taobao.profile.Profiler;
+import com.taobao.profile.config.RecordThreshold;
 import com.taobao.profile.utils.DailyRollingFileWriter;
 
 /**
@@ -23,78 +38,518 @@ import com.taobao.profile.utils.DailyRollingFileWriter;
 public class MethodCache {
 
 	/**
-	 * 方法缓存默认大小
+	 * 每个分块的方法数(2的幂)
 	 */
-	private static final int INIT_CACHE_SIZE = 10240;
+	private static final int CHUNK_BITS = 12;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
 	/**
-	 * 方法名缓存
+	 * 最大分块数,最多支持MAX_CHUNKS * CHUNK_SIZE个方法
 	 */
-	private static Vector<MethodInfo> mCacheMethods = new Vector<MethodInfo>(INIT_CACHE_SIZE);
+	private static final int MAX_CHUNKS = 1024;
+	/**
+	 * 发布失败时写入方法信息的ID,等待同一方法的线程见到后放弃注入
+	 */
+	private static final int FAILED_ID = -2;
+	/**
+	 * 方法名缓存,只追加的分块表,分块按需创建,扩容时不复制已有数据
+	 */
+	private static final AtomicReferenceArray<AtomicReferenceArray<MethodInfo>> mCacheChunks = new AtomicReferenceArray<AtomicReferenceArray<MethodInfo>>(
+			MAX_CHUNKS);
+	/**
+	 * 下一个方法ID
+	 */
+	private static final AtomicInteger mNextId = new AtomicInteger(0);
+	/**
+	 * 稳定ID到方法的映射,用于检测哈希冲突
+	 */
+	private static final ConcurrentHashMap<Long, MethodInfo> mStableIds = new ConcurrentHashMap<Long, MethodInfo>();
 	
 	/**
-	 * 方法名writer
+	 * 因JIT内联或编译上限而未注入的方法
 	 */
-	private static DailyRollingFileWriter fileWriter = new DailyRollingFileWriter(Manager.METHOD_LOG_PATH);
+	private static Vector<String> jitSkippedMethods = new Vector<String>();
+	/**
+	 * 方法表文件头
+	 */
+	private static final String METHOD_TABLE_HEAD = "#tprofiler method table";
+	/**
+	 * 已离线织入的类名,加载方法表后不再修改
+	 */
+	private static volatile Set<String> wovenClasses = Collections.emptySet();
 
 	/**
-	 * 占位并生成方法ID
-	 * 
-	 * @return
+	 * 方法名writer,首次写出时创建,离线织入工具不会生成日志文件
 	 */
-	public synchronized static int Request() {
-		mCacheMethods.add(new MethodInfo());
-		return mCacheMethods.size() - 1;
-	}
+	private static DailyRollingFileWriter fileWriter;
 
 	/**
-	 * 更新行号
+	 * 字典重置标记,之后的字典下标重新编号
+	 */
+	public static final String DICT_RESET = "#dict";
+	/**
+	 * 类名字典行前缀
+	 */
+	public static final String DICT_CLASS = "@c";
+	/**
+	 * 文件名字典行前缀
+	 */
+	public static final String DICT_FILE = "@f";
+	/**
+	 * 当前文件中是否已写出字典重置标记
+	 */
+	private static boolean dictStarted = false;
+	/**
+	 * 已写出的方法数,之后的方法ID尚未写出
+	 */
+	private static int flushedMethodCount = 0;
+	/**
+	 * 离线方法表占用的ID数,其中方法表没有的ID写出时跳过
+	 */
+	private static int tableIdCount = 0;
+	/**
+	 * 已写出的未注入方法数
+	 */
+	private static int flushedSkippedCount = 0;
+	/**
+	 * 写出时日志文件的滚动次数
+	 */
+	private static int flushedRollingCount = 0;
+	/**
+	 * 已写出的类名字典
+	 */
+	private static Map<String, Integer> classDict = new HashMap<String, Integer>();
+	/**
+	 * 已写出的文件名字典
+	 */
+	private static Map<String, Integer> fileDict = new HashMap<String, Integer>();
+
+	/**
+	 * 生成方法ID并发布方法信息,无锁,可被并行的类加载同时调用.
+	 * 返回的ID在本进程内连续,供探针索引数组;写出的log使用稳定ID
 	 * 
-	 * @param id
-	 * @param linenum
+	 * @param fileName
+	 * @param className
+	 * @param methodName
+	 * @param descriptor
+	 * @return
 	 */
-	public synchronized static void UpdateLineNum(int id, int linenum) {
-		mCacheMethods.get(id).setMLineNum(linenum);
+	public static int Request(String fileName, String className, String methodName, String descriptor) {
+		return Request(fileName, className, methodName, descriptor, 0);
 	}
 
 	/**
-	 * 更新类名方法名
+	 * 生成方法ID并发布方法信息.方法信息发布后不再修改,
+	 * dump线程随时可能增量写出,行号须在发布前确定.
+	 * 同一方法(稳定ID相同)再次注入时,如类被重新转换,复用已有的ID,不重复写出和计数
 	 * 
-	 * @param id
 	 * @param fileName
 	 * @param className
 	 * @param methodName
+	 * @param descriptor
+	 * @param lineNum
+	 * @return
 	 */
-	public synchronized static void UpdateMethodName(int id, String fileName, String className, String methodName) {
-		MethodInfo methodInfo = mCacheMethods.get(id);
+	public static int Request(String fileName, String className, String methodName, String descriptor, int lineNum) {
+		MethodInfo methodInfo = new MethodInfo();
 		methodInfo.setMFileName(fileName);
 		methodInfo.setMClassName(className);
 		methodInfo.setMMethodName(methodName);
+		methodInfo.setMDescriptor(descriptor.intern());
+		methodInfo.setMLineNum(lineNum);
+		MethodInfo owner = stableId(methodInfo);
+		if (owner != methodInfo) {
+			return awaitId(owner);
+		}
+		int id = mNextId.getAndIncrement();
+		boolean published = false;
+		try {
+			publish(id, methodInfo);
+			published = true;
+		} finally {
+			if (!published) {
+				// 发布失败(如方法数超过上限)时让出稳定ID,等待中的线程也不再空等
+				mStableIds.remove(methodInfo.getMStableId(), methodInfo);
+				methodInfo.setMId(FAILED_ID);
+			}
+		}
+		methodInfo.setMId(id);
+		// 记录方法数
+		Profiler.instrumentMethodCount.getAndIncrement();
+		return id;
+	}
+
+	/**
+	 * 等待另一个线程给同一方法分配ID,只在并行注入同一方法时需要等待.
+	 * 该线程发布失败时本次注入同样失败
+	 * 
+	 * @param owner
+	 * @return
+	 */
+	private static int awaitId(MethodInfo owner) {
+		int id;
+		while ((id = owner.getMId()) == -1) {
+			Thread.yield();
+		}
+		if (id == FAILED_ID) {
+			throw new IllegalStateException("method id not published: " + owner.getMClassName() + "."
+					+ owner.getMMethodName() + owner.getMDescriptor());
+		}
+		return id;
+	}
+
+	/**
+	 * 把方法表中的方法放到指定的ID上
+	 * 
+	 * @param id 方法表中的ID
+	 * @param methodInfo
+	 * @param hasStableId 方法表中是否记录了稳定ID
+	 * @return ID或稳定ID已被占用时返回false
+	 */
+	private static boolean reserve(int id, MethodInfo methodInfo, boolean hasStableId) {
+		if (id < 0 || id >= MAX_CHUNKS * CHUNK_SIZE) {
+			return false;
+		}
+		if (id >= mNextId.get()) {
+			mNextId.set(id + 1);
+		} else if (get(id) != null) {
+			return false;
+		}
+		if (hasStableId) {
+			if (mStableIds.putIfAbsent(methodInfo.getMStableId(), methodInfo) != null) {
+				return false;
+			}
+		} else if (stableId(methodInfo) != methodInfo) {
+			return false;
+		}
+		publish(id, methodInfo);
+		methodInfo.setMId(id);
+		Profiler.instrumentMethodCount.getAndIncrement();
+		return true;
+	}
+
+	/**
+	 * 取得稳定方法ID,写出log时用来代替进程内的方法ID
+	 * 
+	 * @param id 进程内的方法ID
+	 * @return
+	 */
+	public static long getStableId(int id) {
+		MethodInfo methodInfo = get(id);
+		if (methodInfo == null) {
+			return id;
+		}
+		return methodInfo.getMStableId();
+	}
+
+	/**
+	 * 由类名、方法名和描述符计算64位哈希作为稳定ID,同一方法在每次重启、每台机器上都相同.
+	 * 与已有的不同方法冲突时继续探测下一个值
+	 * 
+	 * @param methodInfo
+	 * @return 稳定ID的所有者,同一方法已经注册过时为之前的方法信息,否则为methodInfo本身
+	 */
+	private static MethodInfo stableId(MethodInfo methodInfo) {
+		long hash = hash64(methodInfo.getMClassName() + '.' + methodInfo.getMMethodName() + methodInfo.getMDescriptor());
+		while (true) {
+			methodInfo.setMStableId(hash);
+			MethodInfo owner = mStableIds.putIfAbsent(hash, methodInfo);
+			if (owner == null) {
+				return methodInfo;
+			}
+			if (owner.isSameMethod(methodInfo)) {
+				return owner;
+			}
+			hash = mix64(hash + 0x9E3779B97F4A7C15L);
+		}
+	}
+
+	/**
+	 * FNV-1a 64位哈希
+	 * 
+	 * @param value
+	 * @return
+	 */
+	private static long hash64(String value) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return mix64(hash);
 	}
 
 	/**
-	 * 写出方法信息
+	 * @param hash
+	 * @return
+	 */
+	private static long mix64(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/**
+	 * 取得方法信息
+	 * 
+	 * @param id
+	 * @return 尚未发布时返回null
+	 */
+	public static MethodInfo get(int id) {
+		if (id < 0 || id >= size()) {
+			return null;
+		}
+		AtomicReferenceArray<MethodInfo> chunk = mCacheChunks.get(id >>> CHUNK_BITS);
+		if (chunk == null) {
+			return null;
+		}
+		return chunk.get(id & CHUNK_MASK);
+	}
+
+	/**
+	 * @return 已分配的方法ID数,发布失败的ID超出上限,不计算在内
+	 */
+	public static int size() {
+		return Math.min(mNextId.get(), MAX_CHUNKS * CHUNK_SIZE);
+	}
+
+	/**
+	 * 将方法信息写入对应的分块,每个位置只写一次
+	 * 
+	 * @param id
+	 * @param methodInfo
+	 */
+	private static void publish(int id, MethodInfo methodInfo) {
+		int index = id >>> CHUNK_BITS;
+		if (index >= MAX_CHUNKS) {
+			throw new IllegalStateException("too many instrumented methods: " + id);
+		}
+		AtomicReferenceArray<MethodInfo> chunk = mCacheChunks.get(index);
+		if (chunk == null) {
+			chunk = new AtomicReferenceArray<MethodInfo>(CHUNK_SIZE);
+			if (!mCacheChunks.compareAndSet(index, null, chunk)) {
+				chunk = mCacheChunks.get(index);
+			}
+		}
+		chunk.set(id & CHUNK_MASK, methodInfo);
+	}
+
+	/**
+	 * 记录因JIT内联或编译上限而未注入的方法
+	 * 
+	 * @param method 类名:方法名描述符 原长度->注入后长度 上限名称
+	 */
+	public static void addJitSkippedMethod(String method) {
+		jitSkippedMethods.add(method);
+	}
+
+	/**
+	 * 写出方法信息,只写出上次写出之后新增的方法;类名和文件名写入字典,
+	 * 方法行只引用字典下标.当前文件中第一次写出时先写字典重置标记
 	 */
 	public synchronized static void flushMethodData() {
+		if (fileWriter == null) {
+			fileWriter = new DailyRollingFileWriter(Manager.METHOD_LOG_PATH);
+		}
+		if (flushedRollingCount != fileWriter.getRollingCount()) {
+			// 日志已滚动到新文件,需要重新写出完整字典
+			resetFlushState();
+		}
 		fileWriter.append("instrumentclass:");
 		fileWriter.append(Profiler.instrumentClassCount.toString());
 		fileWriter.append(" instrumentmethod:");
 		fileWriter.append(Profiler.instrumentMethodCount.toString());
 		fileWriter.append("\n");
+		if (!dictStarted) {
+			fileWriter.append(DICT_RESET);
+			fileWriter.append("\n");
+			dictStarted = true;
+		}
 
-		Vector<MethodInfo> vector = mCacheMethods;
-		int size = vector.size();
+		int size = size();
 		StringBuilder sb = new StringBuilder();
-		for (int i = 0; i < size; i++) {
-			sb.append(i);
+		for (int i = flushedMethodCount; i < size; i++) {
+			MethodInfo methodInfo = get(i);
+			if (methodInfo == null) {
+				if (i < tableIdCount) {
+					flushedMethodCount = i + 1;
+					continue;
+				}
+				// 已分配ID但还未发布,下次从这里继续
+				break;
+			}
+			int classIndex = dictIndex(classDict, DICT_CLASS, methodInfo.getMClassName(), sb);
+			int fileIndex = dictIndex(fileDict, DICT_FILE, methodInfo.getMFileName(), sb);
+			sb.append(methodInfo.getMStableId());
+			sb.append(' ');
+			sb.append(classIndex);
+			sb.append(' ');
+			sb.append(fileIndex);
 			sb.append(' ');
-			sb.append(vector.get(i).toString());
+			sb.append(methodInfo.getMMethodName());
+			sb.append(' ');
+			sb.append(methodInfo.getMLineNum());
 			sb.append('\n');
 			fileWriter.append(sb.toString());
 			sb.setLength(0);
+			flushedMethodCount = i + 1;
 			if ((i % 50) == 0) {
 				fileWriter.flushAppend();
 			}
 		}
+		Vector<String> skipped = jitSkippedMethods;
+		size = skipped.size();
+		for (int i = flushedSkippedCount; i < size; i++) {
+			fileWriter.append("#jitskip ");
+			fileWriter.append(skipped.get(i));
+			fileWriter.append("\n");
+		}
+		flushedSkippedCount = size;
 		fileWriter.flushAppend();
 	}
+
+	/**
+	 * 取得字典下标,第一次出现时先写出字典行
+	 * 
+	 * @param dict
+	 * @param type
+	 * @param value
+	 * @param sb
+	 * @return
+	 */
+	private static int dictIndex(Map<String, Integer> dict, String type, String value, StringBuilder sb) {
+		String key = String.valueOf(value);
+		Integer index = dict.get(key);
+		if (index == null) {
+			index = dict.size();
+			dict.put(key, index);
+			sb.append(type);
+			sb.append(' ');
+			sb.append(index);
+			sb.append(' ');
+			sb.append(key);
+			sb.append('\n');
+		}
+		return index;
+	}
+
+	/**
+	 * 重置增量写出状态
+	 */
+	private static void resetFlushState() {
+		flushedMethodCount = 0;
+		flushedSkippedCount = 0;
+		dictStarted = false;
+		classDict.clear();
+		fileDict.clear();
+		flushedRollingCount = fileWriter.getRollingCount();
+	}
+
+	/**
+	 * 是否是已离线织入的类
+	 * 
+	 * @param className
+	 * @return
+	 */
+	public static boolean isWovenClass(String className) {
+		return wovenClasses.contains(className);
+	}
+
+	/**
+	 * 写出离线织入生成的方法表
+	 * 
+	 * @param path
+	 * @param classNames 已织入的类名
+	 * @throws IOException
+	 */
+	public synchronized static void writeMethodTable(String path, Collection<String> classNames) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(path));
+		try {
+			writer.write(METHOD_TABLE_HEAD);
+			writer.write('\n');
+			for (String className : classNames) {
+				writer.write("class\t");
+				writer.write(className);
+				writer.write('\n');
+			}
+			int size = size();
+			for (int i = 0; i < size; i++) {
+				MethodInfo info = get(i);
+				if (info == null) {
+					continue;
+				}
+				writer.write(String.valueOf(i));
+				writer.write('\t');
+				writer.write(String.valueOf(info.getMFileName()));
+				writer.write('\t');
+				writer.write(info.getMClassName());
+				writer.write('\t');
+				writer.write(info.getMMethodName());
+				writer.write('\t');
+				writer.write(info.getMDescriptor());
+				writer.write('\t');
+				writer.write(String.valueOf(info.getMLineNum()));
+				writer.write('\t');
+				writer.write(String.valueOf(info.getMStableId()));
+				writer.write('\n');
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * 加载离线织入生成的方法表,必须在注册ClassFileTransformer之前调用,
+	 * 使运行时分配的方法ID接在离线ID之后.
+	 * 织入的类中写死了方法表中的ID,每个方法都放到表中的ID上,ID不要求连续;
+	 * 表中记录了稳定ID时按记录的稳定ID登记,旧格式的表重新计算
+	 * 
+	 * @param path
+	 * @throws IOException
+	 */
+	public synchronized static void loadMethodTable(String path) throws IOException {
+		if (size() != 0) {
+			throw new IllegalStateException("method table must be loaded before any method is instrumented");
+		}
+		Set<String> classes = new HashSet<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(path));
+		try {
+			String line = reader.readLine();
+			if (!METHOD_TABLE_HEAD.equals(line)) {
+				throw new IOException("not a tprofiler method table: " + path);
+			}
+			while ((line = reader.readLine()) != null) {
+				String[] data = line.split("\t");
+				if (data.length == 2 && "class".equals(data[0])) {
+					classes.add(data[1]);
+					continue;
+				}
+				if (data.length != 6 && data.length != 7) {
+					throw new IOException("broken method table line: " + line);
+				}
+				int id = Integer.parseInt(data[0]);
+				MethodInfo methodInfo = new MethodInfo();
+				methodInfo.setMFileName("null".equals(data[1]) ? null : data[1]);
+				methodInfo.setMClassName(data[2]);
+				methodInfo.setMMethodName(data[3]);
+				methodInfo.setMDescriptor(data[4].intern());
+				methodInfo.setMLineNum(Integer.parseInt(data[5]));
+				if (data.length == 7) {
+					methodInfo.setMStableId(Long.parseLong(data[6]));
+				}
+				if (!reserve(id, methodInfo, data.length == 7)) {
+					throw new IOException("duplicate method table entry: " + line);
+				}
+				RecordThreshold.apply(id, data[2], data[3], data[4]);
+			}
+		} finally {
+			reader.close();
+		}
+		tableIdCount = size();
+		wovenClasses = classes;
+		Profiler.instrumentClassCount.getAndAdd(classes.size());
+	}
 }
@@ -24,14 +24,26 @@ public class MethodInfo {
 	 * 方法名
 	 */
 	private String mMethodName;
+	/**
+	 * 方法描述符
+	 */
+	private String mDescriptor;
+	/**
+	 * 稳定方法ID,由类名、方法名和描述符哈希得到
+	 */
+	private long mStableId;
 	/**
 	 * 文件名
 	 */
 	private String mFileName;
 	/**
-	 * 行号
+	 * 行号,发布之前写入
+	 */
+	private volatile int mLineNum;
+	/**
+	 * 进程内的方法ID,发布之后写入,-1表示尚未分配,-2表示发布失败
 	 */
-	private int mLineNum;
+	private volatile int mId = -1;
 
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
@@ -68,6 +80,59 @@ public class MethodInfo {
 		mMethodName = methodName;
 	}
 
+	/**
+	 * @return
+	 */
+	public String getMDescriptor() {
+		return mDescriptor;
+	}
+
+	/**
+	 * @param descriptor
+	 */
+	public void setMDescriptor(String descriptor) {
+		mDescriptor = descriptor;
+	}
+
+	/**
+	 * @return
+	 */
+	public long getMStableId() {
+		return mStableId;
+	}
+
+	/**
+	 * @param stableId
+	 */
+	public void setMStableId(long stableId) {
+		mStableId = stableId;
+	}
+
+	/**
+	 * @return 进程内的方法ID,尚未分配时为-1,发布失败时为-2
+	 */
+	public int getMId() {
+		return mId;
+	}
+
+	/**
+	 * @param id
+	 */
+	public void setMId(int id) {
+		mId = id;
+	}
+
+	/**
+	 * 是否与另一个方法信息表示同一个方法(类名、方法名和描述符都相同)
+	 * 
+	 * @param other
+	 * @return
+	 */
+	public boolean isSameMethod(MethodInfo other) {
+		return mClassName.equals(other.mClassName) && mMethodName.equals(other.mMethodName)
+				&& mDescriptor.equals(other.mDescriptor);
+	}
+
 	/**
 	 * @return
 	 */
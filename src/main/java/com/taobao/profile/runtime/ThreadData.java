@@ -28,6 +28,42 @@ public class ThreadData {
 	 * 当前栈深度
 	 */
 	public int stackNum = 0;
+	/**
+	 * 每一层栈深度上正在执行的方法ID,令牌探针不维护stackFrame,依赖探针由此找到调用它的方法
+	 */
+	public int[] methodStack = new int[16];
+
+	/**
+	 * 记录栈深度depth上正在执行的方法
+	 * 
+	 * @param depth
+	 * @param methodId
+	 */
+	public void setMethod(int depth, int methodId) {
+		int[] methods = methodStack;
+		if (depth >= methods.length) {
+			methods = new int[Math.max(depth + 1, methods.length * 2)];
+			System.arraycopy(methodStack, 0, methods, 0, methodStack.length);
+			methodStack = methods;
+		}
+		methods[depth] = methodId;
+	}
+
+	/**
+	 * @param maxDepth 最多取最内层的几个方法
+	 * @return 当前调用链上的方法ID,从外到内
+	 */
+	public int[] getMethodPath(int maxDepth) {
+		int[] methods = methodStack;
+		int depth = Math.min(stackNum, methods.length);
+		if (depth <= 0) {
+			return new int[0];
+		}
+		int from = Math.max(0, depth - maxDepth);
+		int[] path = new int[depth - from];
+		System.arraycopy(methods, from, path, 0, path.length);
+		return path;
+	}
 
 	/**
 	 * 清空数据
@@ -15,7 +15,10 @@ import com.taobao.profile.Manager;
 import com.taobao.profile.Profiler;
 import com.taobao.profile.config.ProfConfig;
 import com.taobao.profile.dependence_query.RecordSlowQuery;
+import com.taobao.profile.dependence_query.SlowQueryAggregator;
 import com.taobao.profile.dependence_query.SlowQueryData;
+import com.taobao.profile.dependence_query.SlowQueryStat;
+import com.taobao.profile.runtime.MethodCache;
 import com.taobao.profile.runtime.ProfStack;
 import com.taobao.profile.runtime.ThreadData;
 import com.taobao.profile.utils.DailyRollingFileWriter;
@@ -36,6 +39,14 @@ public class DataDumpThread extends Thread {
 	 * log mysql writer
 	 */
 	private DailyRollingFileWriter mysqlFileWriter;
+	/**
+	 * log count writer,只在计数模式下创建
+	 */
+	private DailyRollingFileWriter countFileWriter;
+	/**
+	 * 慢查询按SQL指纹聚合
+	 */
+	private SlowQueryAggregator slowQueryAggregator;
 	/**
 	 * 默认profile时间(s)
 	 */
@@ -55,6 +66,10 @@ public class DataDumpThread extends Thread {
 		fileWriter = new DailyRollingFileWriter(config.getLogFilePath());
 		File temp = new File(config.getLogFilePath());
 		mysqlFileWriter = new DailyRollingFileWriter(temp.getParent()+"/mysqlProfiler.log");
+		if (config.isCountMode()) {
+			countFileWriter = new DailyRollingFileWriter(config.getCountFilePath());
+		}
+		slowQueryAggregator = new SlowQueryAggregator(config.getSlowQueryExemplars());
 		eachProfUseTime = config.getEachProfUseTime();
 		eachProfIntervalTime = config.getEachProfIntervalTime();
 	}
@@ -76,6 +91,9 @@ public class DataDumpThread extends Thread {
 
 					dumpProfileData();
 					dumpMysqlData();
+					if (countFileWriter != null) {
+						dumpCountData();
+					}
 				}
 				TimeUnit.SECONDS.sleep(eachProfIntervalTime);
 			}
@@ -118,8 +136,8 @@ public class DataDumpThread extends Thread {
 				// stack number
 				sb.append(data[1]);
 				sb.append('\t');
-				// method id
-				sb.append(data[0]);
+				// stable method id
+				sb.append(MethodCache.getStableId((int) data[0]));
 				sb.append('\t');
 				// use time
 				sb.append(data[2]);
@@ -134,7 +152,34 @@ public class DataDumpThread extends Thread {
 	}
 
 	/**
-	 * 记录Mysql方法的日志
+	 * 将本次profile的方法调用次数写到log中,只写调用过的方法
+	 */
+	private void dumpCountData() {
+		long[] counts = Profiler.drainCounts(MethodCache.size());
+		StringBuilder sb = new StringBuilder();
+		for (int id = 0; id < counts.length; id++) {
+			if (counts[id] == 0) {
+				continue;
+			}
+			// stable method id
+			sb.append(MethodCache.getStableId(id));
+			sb.append('\t');
+			// invocation count
+			sb.append(counts[id]);
+			sb.append('\n');
+			countFileWriter.append(sb.toString());
+			sb.setLength(0);
+		}
+		countFileWriter.append("=\n");
+		countFileWriter.flushAppend();
+	}
+
+	/**
+	 * 按(类型, 目标, SQL指纹)聚合本次profile的慢查询写到log中,每组一行统计:
+	 * S	类型	目标	次数	总耗时	最大耗时	耗时分布	指纹,耗时单位为微秒;
+	 * 之后是该组按调用链的汇总:P	调用链哈希	次数	总耗时	最大耗时	从外到内的方法稳定ID(逗号分隔),
+	 * 和该组最慢的几条查询:E	耗时	开始时间(毫秒)	线程	调用方法的稳定ID	调用链哈希	sql,
+	 * 没有被注入的调用方法时方法ID为-1
 	 */
 	private void dumpMysqlData(){
 
@@ -144,28 +189,94 @@ public class DataDumpThread extends Thread {
 			if (profilerData == null) {
 				continue;
 			}
-			ProfStack<RecordSlowQuery> profile = profilerData.profileData;
-			while (profile.size() > 0) {
-				RecordSlowQuery cur = profile.pop();
-				StringBuilder sb = new StringBuilder();
-				sb.append(cur.getRequestDesc().get("host"));
+			// 查询线程会复用栈帧,须持有锁
+			synchronized (profilerData) {
+				ProfStack<RecordSlowQuery> profile = profilerData.profileData;
+				while (profile.size() > 0) {
+					slowQueryAggregator.add(profile.pop());
+				}
+				profilerData.clear();
+			}
+		}
+		StringBuilder sb = new StringBuilder();
+		for (SlowQueryStat stat : slowQueryAggregator.drain()) {
+			sb.append("S\t");
+			sb.append(stat.getType());
+			sb.append('\t');
+			sb.append(stat.getTarget());
+			sb.append('\t');
+			sb.append(stat.getCount());
+			sb.append('\t');
+			sb.append(stat.getTotal());
+			sb.append('\t');
+			sb.append(stat.getMax());
+			sb.append('\t');
+			sb.append(stat.histogramString());
+			sb.append('\t');
+			sb.append(stat.getFingerprint());
+			sb.append('\n');
+			for (SlowQueryStat.PathStat path : stat.getPaths()) {
+				sb.append("P\t");
+				sb.append(path.getHash());
 				sb.append('\t');
-				sb.append(cur.getRequestDesc().get("port"));
+				sb.append(path.getCount());
 				sb.append('\t');
-				sb.append(cur.getRequestDesc().get("db"));
+				sb.append(path.getTotal());
 				sb.append('\t');
-				sb.append(cur.getRequestDesc().get("sql"));
+				sb.append(path.getMax());
 				sb.append('\t');
-				sb.append(cur.getRequestDesc().get("nanoTime"));
+				long[] stableIds = path.getStableIds();
+				for (int i = 0; i < stableIds.length; i++) {
+					if (i > 0) {
+						sb.append(',');
+					}
+					sb.append(stableIds[i]);
+				}
 				sb.append('\n');
-				mysqlFileWriter.append(sb.toString());
-				sb.setLength(0);
 			}
-			mysqlFileWriter.flushAppend();
-			profilerData.clear();
+			for (int i = 0; i < stat.getExemplarCount(); i++) {
+				RecordSlowQuery exemplar = stat.getExemplar(i);
+				sb.append("E\t");
+				sb.append(stat.getExemplarTime(i));
+				sb.append('\t');
+				sb.append(exemplar.getStartMillis());
+				sb.append('\t');
+				sb.append(exemplar.getThreadIndex());
+				sb.append('\t');
+				long[] stableIds = SlowQueryAggregator.getStableIds(exemplar);
+				sb.append(stableIds.length == 0 ? -1 : stableIds[stableIds.length - 1]);
+				sb.append('\t');
+				sb.append(SlowQueryAggregator.getPathHash(stableIds));
+				sb.append('\t');
+				sb.append(oneLine(exemplar.getSql()));
+				sb.append('\n');
+			}
+			mysqlFileWriter.append(sb.toString());
+			sb.setLength(0);
 		}
 		mysqlFileWriter.append("=\n");
 		mysqlFileWriter.flushAppend();
 
 	}
+
+	/**
+	 * @param sql
+	 * @return 去掉制表符和换行后的sql,保证一条记录占一行
+	 */
+	private static String oneLine(String sql) {
+		if (sql == null) {
+			return "null";
+		}
+		StringBuilder sb = null;
+		for (int i = 0; i < sql.length(); i++) {
+			char c = sql.charAt(i);
+			if (c == '\t' || c == '\n' || c == '\r') {
+				if (sb == null) {
+					sb = new StringBuilder(sql);
+				}
+				sb.setCharAt(i, ' ');
+			}
+		}
+		return sb == null ? sql : sb.toString();
+	}
 }
@@ -0,0 +1,214 @@
+/**
+ * (C) 2011-2012 Alibaba Group Holding Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ */
+package com.taobao.profile.thread;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.taobao.profile.StartupProfiler;
+import com.taobao.profile.StartupProfiler.DefineRecord;
+import com.taobao.profile.StartupProfiler.TransformRecord;
+import com.taobao.profile.config.ProfConfig;
+import com.taobao.profile.runtime.MethodCache;
+import com.taobao.profile.runtime.MethodInfo;
+
+/**
+ * 启动报告线程,启动剖析时间结束后按耗时排序写出类初始化、类定义、类转换和类加载器汇总
+ *
+ * @author shutong.dy
+ * @since 2026-10-19
+ */
+public class StartupReportThread extends Thread {
+
+	/**
+	 * 报告路径
+	 */
+	private final String filePath;
+	/**
+	 * 启动剖析持续时间(秒)
+	 */
+	private final int profileTime;
+
+	/**
+	 * 线程构造器
+	 *
+	 * @param config
+	 */
+	public StartupReportThread(ProfConfig config) {
+		filePath = config.getStartupFilePath();
+		profileTime = config.getStartupProfileTime();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Thread#run()
+	 */
+	public void run() {
+		try {
+			TimeUnit.SECONDS.sleep(profileTime);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		StartupProfiler.setEnabled(false);
+		try {
+			writeReport();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			StartupProfiler.clear();
+		}
+	}
+
+	/**
+	 * @throws IOException
+	 */
+	private void writeReport() throws IOException {
+		File file = new File(filePath);
+		if (file.getParentFile() != null) {
+			file.getParentFile().mkdirs();
+		}
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		try {
+			writeClinit(writer);
+			writeDefine(writer);
+			writeTransform(writer);
+			writeLoader(writer);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * 类初始化,按总耗时排序
+	 *
+	 * @param writer
+	 * @throws IOException
+	 */
+	private void writeClinit(BufferedWriter writer) throws IOException {
+		List<long[]> records = StartupProfiler.getClinitRecords();
+		Collections.sort(records, new Comparator<long[]>() {
+			public int compare(long[] o1, long[] o2) {
+				return o1[1] < o2[1] ? 1 : (o1[1] == o2[1] ? 0 : -1);
+			}
+		});
+		writer.write("#clinit\tclass\ttotal(us)\tself(us)\tthread\n");
+		for (long[] record : records) {
+			MethodInfo info = MethodCache.get((int) record[0]);
+			StringBuilder sb = new StringBuilder();
+			sb.append(info == null ? String.valueOf(record[0]) : info.getMClassName());
+			sb.append('\t');
+			sb.append(record[1] / 1000);
+			sb.append('\t');
+			sb.append(record[2] / 1000);
+			sb.append('\t');
+			sb.append(record[3]);
+			sb.append('\n');
+			writer.write(sb.toString());
+		}
+	}
+
+	/**
+	 * 类定义,按总耗时排序
+	 *
+	 * @param writer
+	 * @throws IOException
+	 */
+	private void writeDefine(BufferedWriter writer) throws IOException {
+		List<DefineRecord> records = StartupProfiler.getDefineRecords();
+		Collections.sort(records, new Comparator<DefineRecord>() {
+			public int compare(DefineRecord o1, DefineRecord o2) {
+				return o1.getTotal() < o2.getTotal() ? 1 : (o1.getTotal() == o2.getTotal() ? 0 : -1);
+			}
+		});
+		writer.write("#define\tclass\tloader\ttotal(us)\tself(us)\n");
+		for (DefineRecord record : records) {
+			StringBuilder sb = new StringBuilder();
+			sb.append(record.getClassName());
+			sb.append('\t');
+			sb.append(record.getLoaderName());
+			sb.append('\t');
+			sb.append(record.getTotal() / 1000);
+			sb.append('\t');
+			sb.append(record.getSelf() / 1000);
+			sb.append('\n');
+			writer.write(sb.toString());
+		}
+	}
+
+	/**
+	 * Agent转换每个类的耗时,按耗时排序
+	 *
+	 * @param writer
+	 * @throws IOException
+	 */
+	private void writeTransform(BufferedWriter writer) throws IOException {
+		List<TransformRecord> records = StartupProfiler.getTransformRecords();
+		Collections.sort(records, new Comparator<TransformRecord>() {
+			public int compare(TransformRecord o1, TransformRecord o2) {
+				return o1.getUseTime() < o2.getUseTime() ? 1 : (o1.getUseTime() == o2.getUseTime() ? 0 : -1);
+			}
+		});
+		writer.write("#transform\tclass\tloader\tbytes\ttransform(us)\n");
+		for (TransformRecord record : records) {
+			StringBuilder sb = new StringBuilder();
+			sb.append(record.getClassName());
+			sb.append('\t');
+			sb.append(record.getLoaderName());
+			sb.append('\t');
+			sb.append(record.getSize());
+			sb.append('\t');
+			sb.append(record.getUseTime() / 1000);
+			sb.append('\n');
+			writer.write(sb.toString());
+		}
+	}
+
+	/**
+	 * 按类加载器汇总,按转换耗时排序
+	 *
+	 * @param writer
+	 * @throws IOException
+	 */
+	private void writeLoader(BufferedWriter writer) throws IOException {
+		List<Map.Entry<String, long[]>> stats = new ArrayList<Map.Entry<String, long[]>>(StartupProfiler
+				.getLoaderStats().entrySet());
+		Collections.sort(stats, new Comparator<Map.Entry<String, long[]>>() {
+			public int compare(Map.Entry<String, long[]> o1, Map.Entry<String, long[]> o2) {
+				long t1 = o1.getValue()[2];
+				long t2 = o2.getValue()[2];
+				return t1 < t2 ? 1 : (t1 == t2 ? 0 : -1);
+			}
+		});
+		writer.write("#loader\tloader\tclasses\tbytes\ttransform(us)\tdefine(us)\n");
+		for (Map.Entry<String, long[]> entry : stats) {
+			long[] stat = entry.getValue();
+			StringBuilder sb = new StringBuilder();
+			sb.append(entry.getKey());
+			sb.append('\t');
+			sb.append(stat[0]);
+			sb.append('\t');
+			sb.append(stat[1]);
+			sb.append('\t');
+			sb.append(stat[2] / 1000);
+			sb.append('\t');
+			sb.append(stat[3] / 1000);
+			sb.append('\n');
+			writer.write(sb.toString());
+		}
+	}
+}
@@ -39,6 +39,11 @@ public class DailyRollingFileWriter {
 	 */
 	private BufferedWriter bufferedWriter;
 
+	/**
+	 * 滚动次数,每次生成新文件加一
+	 */
+	private int rollingCount = 0;
+
 	/**
 	 * 日志头
 	 */
@@ -83,6 +88,15 @@ public class DailyRollingFileWriter {
 		}
 	}
 
+	/**
+	 * 已经滚动的次数,调用方据此判断当前文件是否是新文件
+	 * 
+	 * @return
+	 */
+	public int getRollingCount() {
+		return rollingCount;
+	}
+
 	/**
 	 * @param head
 	 */
@@ -166,6 +180,7 @@ public class DailyRollingFileWriter {
 		file.renameTo(target);
 		createWriter(new File(fileName));
 		rollingFileName = datedFilename;
+		rollingCount++;
 	}
 
 	/**
@@ -0,0 +1,130 @@
+/**
+ * (C) 2011-2012 Alibaba Group Holding Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ */
+package com.taobao.profile.utils;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按对象实例(==)比较key的弱引用Map,读不加锁,写加锁并顺带清理已回收的key.
+ * 用于按ClassLoader实例缓存判断结果,不受ClassLoader覆盖equals/hashCode的影响,也不阻止其卸载
+ *
+ * @author shutong.dy
+ * @since 2026-10-19
+ */
+public class WeakIdentityMap<K, V> {
+
+	private final ConcurrentHashMap<Object, V> map = new ConcurrentHashMap<Object, V>();
+
+	/**
+	 * 已回收的key
+	 */
+	private final ReferenceQueue<K> queue = new ReferenceQueue<K>();
+
+	/**
+	 * @param key
+	 * @return 没有时返回null
+	 */
+	public V get(K key) {
+		return map.get(new Lookup(key));
+	}
+
+	/**
+	 * @param key
+	 * @param value
+	 */
+	public synchronized void put(K key, V value) {
+		expunge();
+		map.put(new WeakKey<K>(key, queue), value);
+	}
+
+	/**
+	 * 清空
+	 */
+	public synchronized void clear() {
+		map.clear();
+		expunge();
+	}
+
+	/**
+	 * @return 未回收的key数
+	 */
+	public int size() {
+		return map.size();
+	}
+
+	/**
+	 * 移除已回收的key
+	 */
+	private void expunge() {
+		Object ref;
+		while ((ref = queue.poll()) != null) {
+			map.remove(ref);
+		}
+	}
+
+	/**
+	 * 存入Map的弱引用key,回收后只与自身相等
+	 */
+	private static class WeakKey<K> extends WeakReference<K> {
+
+		private final int hash;
+
+		WeakKey(K key, ReferenceQueue<K> queue) {
+			super(key, queue);
+			hash = System.identityHashCode(key);
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			Object key = get();
+			if (key == null) {
+				return false;
+			}
+			if (obj instanceof Lookup) {
+				return ((Lookup) obj).key == key;
+			}
+			// 并发未命中时同一个key可能被put两次,须替换而不是重复存入
+			if (obj instanceof WeakKey) {
+				return ((WeakKey<?>) obj).get() == key;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * 查找用的key,只在一次get中使用
+	 */
+	private static class Lookup {
+
+		private final Object key;
+
+		Lookup(Object key) {
+			this.key = key;
+		}
+
+		public int hashCode() {
+			return System.identityHashCode(key);
+		}
+
+		public boolean equals(Object obj) {
+			if (key != null && obj instanceof WeakKey) {
+				return ((WeakKey<?>) obj).get() == key;
+			}
+			return false;
+		}
+	}
+}
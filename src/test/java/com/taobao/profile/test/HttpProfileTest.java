@@ -0,0 +1,132 @@
+package com.taobao.profile.test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.taobao.profile.Profiler;
+import com.taobao.profile.dependence_query.HttpFingerprint;
+import com.taobao.profile.dependence_query.RecordSlowQuery;
+import com.taobao.profile.dependence_query.SlowQueryAggregator;
+import com.taobao.profile.dependence_query.SlowQueryData;
+import com.taobao.profile.dependence_query.SlowQueryStat;
+
+public class HttpProfileTest {
+
+  private HttpServer server;
+
+  @Before
+  public void setUp() throws Exception {
+    Profiler.setNeedNanoTime(true);
+    Profiler.setRecordTime(0);
+    Profiler.setProfileFlag(true);
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        byte[] body = "ok".getBytes("utf-8");
+        int status = exchange.getRequestURI().getPath().startsWith("/users/") ? 200 : 404;
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+      }
+    });
+    server.start();
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+    Profiler.setProfileFlag(false);
+    Profiler.setRecordTime(-1);
+    Profiler.clearData();
+  }
+
+  @Test
+  public void testRecordApacheHttpClient() throws Exception {
+    ServerSocket closed = new ServerSocket(0);
+    closed.close();
+    String base = "http://127.0.0.1:" + server.getAddress().getPort();
+
+    ClassLoader loader = new TransformingClassLoader("org.apache.http.", getClass().getClassLoader());
+    Class<?> clientClass = loader.loadClass("org.apache.http.impl.client.CloseableHttpClient");
+    Object client = loader.loadClass("org.apache.http.impl.client.HttpClients").getMethod("createDefault")
+        .invoke(null);
+    try {
+      Assert.assertEquals(200, execute(loader, client, base + "/users/42?token=secret"));
+      Assert.assertEquals(200, execute(loader, client, base + "/users/7"));
+      Assert.assertEquals(404, execute(loader, client, base + "/missing"));
+      try {
+        execute(loader, client, "http://127.0.0.1:" + closed.getLocalPort() + "/users/1");
+        Assert.fail();
+      } catch (InvocationTargetException e) {
+        // 连接失败也要结束记录
+      }
+    } finally {
+      clientClass.getMethod("close").invoke(client);
+    }
+
+    List<String> requests = new ArrayList<String>();
+    SlowQueryData data = Profiler.slowQueryProfile[(int) Thread.currentThread().getId()];
+    for (int i = 0; i < data.profileData.size(); i++) {
+      RecordSlowQuery record = data.profileData.elementAt(i);
+      Assert.assertEquals("HTTP", record.getType());
+      requests.add(record.getTarget() + " " + record.getSql());
+    }
+    String target = "127.0.0.1:" + server.getAddress().getPort();
+    Assert.assertEquals(4, requests.size());
+    Assert.assertEquals(target + " GET /users/42 200", requests.get(0));
+    Assert.assertEquals(target + " GET /missing 404", requests.get(2));
+    Assert.assertEquals("127.0.0.1:" + closed.getLocalPort() + " GET /users/1 -", requests.get(3));
+    Assert.assertEquals(0, data.httpDepth);
+
+    SlowQueryAggregator aggregator = new SlowQueryAggregator(1);
+    for (int i = 0; i < data.profileData.size(); i++) {
+      aggregator.add(data.profileData.elementAt(i));
+    }
+    List<String> routes = new ArrayList<String>();
+    for (SlowQueryStat stat : aggregator.drain()) {
+      routes.add(stat.getTarget() + " " + stat.getFingerprint());
+    }
+    Assert.assertEquals(3, routes.size());
+    Assert.assertTrue(routes.toString(), routes.contains(target + " GET /users/{id} 2xx"));
+  }
+
+  @Test
+  public void testFingerprint() {
+    Assert.assertEquals("GET /api/v1/users/{id}/orders 2xx",
+        HttpFingerprint.fingerprint("GET /api/v1/users/123/orders 201"));
+    Assert.assertEquals("POST /files/{id} 5xx",
+        HttpFingerprint.fingerprint("POST /files/3f2504e0-4f89-11d3-9a0c-0305e82c3301 503"));
+    Assert.assertEquals("GET /static/app.js -", HttpFingerprint.fingerprint("GET /static/app.js -"));
+    Assert.assertEquals("GET / 2xx", HttpFingerprint.fingerprint("GET / 200"));
+  }
+
+  private static int execute(ClassLoader loader, Object client, String url) throws Exception {
+    Object request = loader.loadClass("org.apache.http.client.methods.HttpGet").getConstructor(String.class)
+        .newInstance(url);
+    Class<?> requestClass = loader.loadClass("org.apache.http.client.methods.HttpUriRequest");
+    Object response = loader.loadClass("org.apache.http.impl.client.CloseableHttpClient")
+        .getMethod("execute", requestClass).invoke(client, request);
+    try {
+      Object statusLine = loader.loadClass("org.apache.http.HttpResponse").getMethod("getStatusLine")
+          .invoke(response);
+      return (Integer) loader.loadClass("org.apache.http.StatusLine").getMethod("getStatusCode")
+          .invoke(statusLine);
+    } finally {
+      loader.loadClass("java.io.Closeable").getMethod("close").invoke(response);
+    }
+  }
+}
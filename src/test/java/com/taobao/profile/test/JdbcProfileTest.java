@@ -0,0 +1,128 @@
+package com.taobao.profile.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.taobao.profile.Profiler;
+import com.taobao.profile.dependence_query.DependencyProbe;
+import com.taobao.profile.dependence_query.ProbeRegistry;
+import com.taobao.profile.dependence_query.RecordSlowQuery;
+import com.taobao.profile.dependence_query.SlowQueryData;
+import com.taobao.profile.instrument.ProfTransformer;
+import com.taobao.profile.runtime.MethodCache;
+
+public class JdbcProfileTest {
+
+  @Before
+  public void setUp() {
+    Profiler.setNeedNanoTime(true);
+    Profiler.setRecordTime(0);
+    Profiler.setProfileFlag(true);
+  }
+
+  @After
+  public void tearDown() {
+    Profiler.setProfileFlag(false);
+    Profiler.setRecordTime(-1);
+    Profiler.clearData();
+  }
+
+  @Test
+  public void testRecordH2Statements() throws Exception {
+    ClassLoader loader = new TransformingClassLoader("org.h2.", getClass().getClassLoader());
+    Driver driver = (Driver) loader.loadClass("org.h2.Driver").newInstance();
+    long begin = System.currentTimeMillis();
+    Connection conn = driver.connect("jdbc:h2:mem:tprofiler", new Properties());
+    try {
+      Statement stmt = conn.createStatement();
+      stmt.execute("CREATE TABLE ITEM(ID INT PRIMARY KEY, NAME VARCHAR(20))");
+      PreparedStatement insert = conn.prepareStatement("INSERT INTO ITEM VALUES(?, ?)");
+      insert.setInt(1, 1);
+      insert.setString(2, "a");
+      insert.executeUpdate();
+      try {
+        stmt.executeQuery("SELECT * FROM NOT_EXISTS");
+        Assert.fail();
+      } catch (SQLException e) {
+        // 异常退出也要结束记录
+      }
+      PreparedStatement query = conn.prepareStatement("SELECT NAME FROM ITEM WHERE ID = ?");
+      query.setInt(1, 1);
+      ResultSet rs = query.executeQuery();
+      Assert.assertTrue(rs.next());
+      Assert.assertEquals("a", rs.getString(1));
+    } finally {
+      conn.close();
+    }
+
+    List<String> sqls = new ArrayList<String>();
+    SlowQueryData data = Profiler.slowQueryProfile[(int) Thread.currentThread().getId()];
+    for (int i = 0; i < data.profileData.size(); i++) {
+      RecordSlowQuery record = data.profileData.elementAt(i);
+      Assert.assertEquals("JDBC", record.getType());
+      Assert.assertEquals("jdbc:h2:mem:tprofiler", record.getUrl());
+      Assert.assertEquals(Thread.currentThread().getId(), record.getThreadIndex());
+      Assert.assertTrue(record.getStartMillis() >= begin && record.getStartMillis() <= System.currentTimeMillis());
+      sqls.add(record.getSql());
+    }
+    Assert.assertEquals(4, sqls.size());
+    Assert.assertEquals("CREATE TABLE ITEM(ID INT PRIMARY KEY, NAME VARCHAR(20))", sqls.get(0));
+    Assert.assertTrue(sqls.get(1), sqls.get(1).contains("INSERT INTO ITEM VALUES"));
+    Assert.assertEquals("SELECT * FROM NOT_EXISTS", sqls.get(2));
+    Assert.assertTrue(sqls.get(3), sqls.get(3).contains("SELECT NAME FROM ITEM"));
+    Assert.assertEquals(0, data.jdbcDepth);
+  }
+
+  @Test
+  public void testRetransformReusesMethodIds() throws Exception {
+    String name = "org/h2/jdbc/JdbcStatement";
+    InputStream in = getClass().getClassLoader().getResourceAsStream(name + ".class");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    for (int len = -1; (len = in.read(buffer)) != -1;) {
+      out.write(buffer, 0, len);
+    }
+    in.close();
+    byte[] bytes = out.toByteArray();
+    ClassLoader loader = new TransformingClassLoader("org.h2.", getClass().getClassLoader());
+    ProfTransformer transformer = new ProfTransformer();
+
+    byte[] first = transformer.transform(loader, name, null, null, bytes);
+    Assert.assertNotSame(bytes, first);
+    int size = MethodCache.size();
+    int methods = Profiler.instrumentMethodCount.get();
+    int classes = Profiler.instrumentClassCount.get();
+    // 重新转换时仍然注入,复用同样的方法ID
+    byte[] again = transformer.transform(loader, name, Object.class, null, bytes);
+    Assert.assertArrayEquals(first, again);
+    Assert.assertEquals(size, MethodCache.size());
+    Assert.assertEquals(methods, Profiler.instrumentMethodCount.get());
+    Assert.assertEquals(classes, Profiler.instrumentClassCount.get());
+  }
+
+  @Test
+  public void testProbeMatch() {
+    ProbeRegistry registry = ProbeRegistry.getInstance();
+    // 不在任何探针包中的类不经过JDBC探针
+    Assert.assertTrue(registry.match("com/taobao/trade/OrderService").isEmpty());
+    Assert.assertTrue(registry.match("org/h2").isEmpty());
+    List<DependencyProbe> probes = registry.match("org/h2/jdbc/JdbcStatement");
+    Assert.assertEquals(1, probes.size());
+    Assert.assertEquals("jdbcASM", probes.get(0).getName());
+    Assert.assertSame(probes, registry.match("org/h2/jdbc/JdbcPreparedStatement"));
+  }
+}
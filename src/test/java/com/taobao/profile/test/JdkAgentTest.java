@@ -0,0 +1,358 @@
+package com.taobao.profile.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.taobao.profile.Profiler;
+import com.taobao.profile.StartupProfiler;
+import com.taobao.profile.StartupProfiler.DefineRecord;
+import com.taobao.profile.dependence_query.RecordSlowQuery;
+import com.taobao.profile.dependence_query.SlowQueryData;
+import com.taobao.profile.runtime.MethodCache;
+import com.taobao.profile.runtime.MethodInfo;
+import com.taobao.profile.runtime.ThreadData;
+
+import tprofilertest.Samples;
+
+/**
+ * 在子JVM中以-javaagent启动Profiler并开启-Xverify:all,检查重新转换和注入的JDK类能通过校验.
+ * 默认用当前JDK,-Dtprofiler.test.java=/path/to/bin/java 可以换成其他版本的JDK
+ */
+public class JdkAgentTest {
+
+  private File dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = File.createTempFile("tprofiler-agent", "");
+    dir.delete();
+    dir.mkdirs();
+  }
+
+  @After
+  public void tearDown() {
+    delete(dir);
+  }
+
+  @Test
+  public void testInstrumentJdkClasses() throws Exception {
+    String output = runChild("methods");
+    Assert.assertTrue(output, output.contains("lock methods: true"));
+    Assert.assertTrue(output, output.contains("channel methods: true"));
+    Assert.assertTrue(output, output.contains("ok"));
+  }
+
+  @Test
+  public void testRecordHttpUrlConnection() throws Exception {
+    String output = runChild("http");
+    Assert.assertTrue(output, output.contains("HTTP GET /users/7 200"));
+    Assert.assertTrue(output, output.contains("HTTP GET /missing 404"));
+    Assert.assertTrue(output, output.contains("ok"));
+  }
+
+  @Test
+  public void testVerifyInstrumentedMethods() throws Exception {
+    String output = runChild("samples");
+    Assert.assertTrue(output, output.contains("caught: 2"));
+    Assert.assertTrue(output, output.contains("wide: 7425.0"));
+    Assert.assertTrue(output, output.contains("value: cba"));
+    Assert.assertTrue(output, output.contains("record: 0 tprofilertest/Samples.fail(I)V"));
+    Assert.assertTrue(output, output.contains("record: 1 tprofilertest/Samples.fail(I)V"));
+    Assert.assertTrue(output, output.contains("record: 0 tprofilertest/Samples.catchFailures(I)I"));
+    Assert.assertTrue(output, output.contains("record: 0 tprofilertest/Samples.wide(JD)D"));
+    Assert.assertTrue(output, output.contains("record: 0 tprofilertest/Samples$Base.<init>(Ljava/lang/Object;)V"));
+    Assert.assertTrue(output, output.contains("record: 0 tprofilertest/Samples$Derived.<init>()V"));
+    Assert.assertTrue(output, output.contains("ok"));
+  }
+
+  @Test
+  public void testStartupDefineClass() throws Exception {
+    String output = runChild("startup");
+    Assert.assertTrue(output, output.contains("define: com/taobao/profile/test/JdkAgentTest$Child"));
+    Assert.assertTrue(output, output.contains("define: tprofilertest/Samples$Derived"));
+    Assert.assertTrue(output, output.contains("define: tprofilertest/Samples$Base"));
+    Assert.assertTrue(output, output.contains("nested: true"));
+    Assert.assertTrue(output, output.contains("ok"));
+  }
+
+  private String runChild(String mode) throws Exception {
+    File agent = new File(dir, "tprofiler.jar");
+    writeAgentJar(agent);
+    File config = new File(dir, "profile.properties");
+    writeConfig(config, "startup".equals(mode));
+
+    String java = System.getProperty("tprofiler.test.java",
+        System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+    String classpath = codeSource(ClassReader.class) + File.pathSeparator + codeSource(JdkAgentTest.class);
+    List<String> command = new ArrayList<String>();
+    command.add(java);
+    command.add("-Xverify:all");
+    command.add("-Dprofile.properties=" + config.getAbsolutePath());
+    command.add("-javaagent:" + agent.getAbsolutePath());
+    command.add("-cp");
+    command.add(classpath);
+    command.add(Child.class.getName());
+    command.add(mode);
+    Process process = new ProcessBuilder(command).directory(dir).redirectErrorStream(true).start();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    copy(process.getInputStream(), out);
+    String output = out.toString("utf-8");
+    Assert.assertEquals(output, 0, process.waitFor());
+    return output;
+  }
+
+  /**
+   * 用编译好的类打出Agent jar包,启动类加载器注入只在Agent从jar包加载时进行
+   */
+  private static void writeAgentJar(File agent) throws Exception {
+    Manifest manifest = new Manifest();
+    Attributes attributes = manifest.getMainAttributes();
+    attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    attributes.putValue("Premain-Class", "com.taobao.profile.Main");
+    attributes.putValue("Can-Retransform-Classes", "true");
+    JarOutputStream jar = new JarOutputStream(new FileOutputStream(agent), manifest);
+    try {
+      addEntries(jar, new File(codeSource(Profiler.class)), "");
+    } finally {
+      jar.close();
+    }
+  }
+
+  private static void addEntries(JarOutputStream jar, File dir, String prefix) throws IOException {
+    for (File file : dir.listFiles()) {
+      String name = prefix + file.getName();
+      if (file.isDirectory()) {
+        addEntries(jar, file, name + "/");
+      } else if (!name.equals("META-INF/MANIFEST.MF")) {
+        jar.putNextEntry(new JarEntry(name));
+        InputStream in = new FileInputStream(file);
+        try {
+          copy(in, jar);
+        } finally {
+          in.close();
+        }
+        jar.closeEntry();
+      }
+    }
+  }
+
+  private void writeConfig(File config, boolean startup) throws IOException {
+    ServerSocket socket = new ServerSocket(0);
+    int port = socket.getLocalPort();
+    socket.close();
+    String logs = new File(dir, "logs").getAbsolutePath().replace('\\', '/');
+    StringBuilder sb = new StringBuilder();
+    // 剖析时间段不开启,不会清空子JVM自己开启的记录
+    sb.append("startProfTime = 0:00:00\n");
+    sb.append("endProfTime = 0:00:00\n");
+    sb.append("eachProfUseTime = 5\n");
+    sb.append("eachProfIntervalTime = 50\n");
+    sb.append("samplerIntervalTime = 10000\n");
+    sb.append("port = ").append(port).append('\n');
+    sb.append("needNanoTime = true\n");
+    sb.append("recordTime = 0\n");
+    sb.append("logFilePath = ").append(logs).append("/tprofiler.log\n");
+    sb.append("methodFilePath = ").append(logs).append("/tmethod.log\n");
+    sb.append("samplerFilePath = ").append(logs).append("/tsampler.log\n");
+    sb.append("startupFilePath = ").append(logs).append("/tstartup.log\n");
+    sb.append("countFilePath = ").append(logs).append("/tcount.log\n");
+    sb.append("includePackageStartsWith = tprofilertest\n");
+    if (startup) {
+      sb.append("startupProfile = true\n");
+      sb.append("startupProfileTime = 600\n");
+    }
+    sb.append("includeJdkMethods = java.util.concurrent.locks.ReentrantLock#lock*;sun.nio.ch.SocketChannelImpl#read\n");
+    OutputStream out = new FileOutputStream(config);
+    try {
+      out.write(sb.toString().getBytes("utf-8"));
+    } finally {
+      out.close();
+    }
+  }
+
+  private static String codeSource(Class<?> clazz) throws Exception {
+    return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath();
+  }
+
+  private static void copy(InputStream in, OutputStream out) throws IOException {
+    byte[] buffer = new byte[4096];
+    for (int len = -1; (len = in.read(buffer)) != -1;) {
+      out.write(buffer, 0, len);
+    }
+  }
+
+  private static void delete(File file) {
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File child : files) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  /**
+   * 子JVM的入口
+   */
+  public static class Child {
+
+    public static void main(String[] args) throws Exception {
+      if ("http".equals(args[0])) {
+        recordHttp();
+      } else if ("samples".equals(args[0])) {
+        runSamples();
+      } else if ("startup".equals(args[0])) {
+        defineClasses();
+      } else {
+        instrumentMethods();
+      }
+      System.out.println("ok");
+      System.exit(0);
+    }
+
+    private static void instrumentMethods() throws IOException {
+      ReentrantLock lock = new ReentrantLock();
+      lock.lock();
+      lock.unlock();
+      System.out.println("lock methods: " + isInstrumented("java/util/concurrent/locks/ReentrantLock", "lock"));
+      // JDK 11起SocketChannelImpl带有NestMembers属性,在Agent启动之后才加载
+      ServerSocketChannel server = ServerSocketChannel.open();
+      server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+      SocketChannel client = SocketChannel.open(server.socket().getLocalSocketAddress());
+      SocketChannel accepted = server.accept();
+      accepted.write(ByteBuffer.wrap(new byte[] { 1 }));
+      client.read(ByteBuffer.allocate(1));
+      client.close();
+      accepted.close();
+      server.close();
+      System.out.println("channel methods: " + isInstrumented("sun/nio/ch/SocketChannelImpl", "read"));
+    }
+
+    /**
+     * 启动剖析时由SecureClassLoader定义的类,定义Derived时先定义了父类Base
+     */
+    private static void defineClasses() throws Exception {
+      URL classes = Samples.class.getProtectionDomain().getCodeSource().getLocation();
+      URLClassLoader loader = new URLClassLoader(new URL[] { classes }, null);
+      loader.loadClass("tprofilertest.Samples$Derived");
+      DefineRecord derived = null;
+      DefineRecord base = null;
+      for (DefineRecord record : StartupProfiler.getDefineRecords()) {
+        if (record.getClassName().equals("tprofilertest/Samples$Derived")) {
+          derived = record;
+        } else if (record.getClassName().equals("tprofilertest/Samples$Base")) {
+          base = record;
+        }
+        System.out.println("define: " + record.getClassName());
+      }
+      if (derived != null && base != null) {
+        System.out.println("nested: " + (derived.getSelf() + base.getTotal() == derived.getTotal()));
+      }
+    }
+
+    /**
+     * 样例类由Agent按包名注入,在-Xverify:all下执行
+     */
+    private static void runSamples() {
+      Profiler.setDefaultRecordThreshold(-1);
+      Profiler.setProfileFlag(true);
+      try {
+        try {
+          Samples.fail(9);
+        } catch (IllegalStateException e) {
+          // 异常退出也要记录
+        }
+        System.out.println("caught: " + Samples.catchFailures(2));
+        System.out.println("wide: " + Samples.wide(100L, 0.5d));
+        System.out.println("value: " + new Samples.Derived().getValue());
+      } finally {
+        Profiler.setProfileFlag(false);
+      }
+      ThreadData data = Profiler.threadProfile[(int) Thread.currentThread().getId()];
+      for (int i = 0; i < data.profileData.size(); i++) {
+        long[] frame = data.profileData.elementAt(i);
+        MethodInfo info = MethodCache.get((int) frame[0]);
+        System.out.println("record: " + frame[1] + " " + info.getMClassName() + "." + info.getMMethodName()
+            + info.getMDescriptor());
+      }
+    }
+
+    /**
+     * JDK 11起sun.net.www.http.HttpClient带有NestMembers属性,由HTTP探针改写
+     */
+    private static void recordHttp() throws IOException {
+      HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      server.createContext("/", new HttpHandler() {
+        public void handle(HttpExchange exchange) throws IOException {
+          byte[] body = "ok".getBytes("utf-8");
+          int status = exchange.getRequestURI().getPath().startsWith("/users/") ? 200 : 404;
+          exchange.sendResponseHeaders(status, body.length);
+          OutputStream out = exchange.getResponseBody();
+          out.write(body);
+          out.close();
+        }
+      });
+      server.start();
+      Profiler.setRecordTime(0);
+      Profiler.setProfileFlag(true);
+      try {
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+        request(base + "/users/7?x=1");
+        request(base + "/missing");
+      } finally {
+        Profiler.setProfileFlag(false);
+        server.stop(0);
+      }
+      SlowQueryData data = Profiler.slowQueryProfile[(int) Thread.currentThread().getId()];
+      for (int i = 0; i < data.profileData.size(); i++) {
+        RecordSlowQuery record = data.profileData.elementAt(i);
+        System.out.println(record.getType() + " " + record.getSql());
+      }
+    }
+
+    private static void request(String url) throws IOException {
+      HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+      System.out.println("status: " + conn.getResponseCode());
+      conn.disconnect();
+    }
+
+    private static boolean isInstrumented(String className, String methodName) {
+      for (int id = 0; id < MethodCache.size(); id++) {
+        MethodInfo info = MethodCache.get(id);
+        if (info != null && className.equals(info.getMClassName()) && methodName.equals(info.getMMethodName())) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package com.taobao.profile.test;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.taobao.profile.config.MethodFilter;
+
+public class MethodFilterTest {
+
+  @Test
+  public void testIsNeedInject() {
+    Set<String> none = Collections.emptySet();
+    MethodFilter.addIncludeMethod("com.taobao.trade.*Service#create*");
+    MethodFilter.addIncludeMethod("com.taobao.item.ItemDAO#query(Ljava/lang/Long;)*");
+    MethodFilter.addIncludeMethod("regex:com\\.taobao\\.cart\\..*#(add|remove)\\(.*");
+    MethodFilter.addProfiledAnnotation("com.taobao.profile.Profiled");
+
+    Assert.assertTrue(MethodFilter.isNeedInject("com/taobao/trade/OrderService", "createOrder", "()V", none));
+    Assert.assertFalse(MethodFilter.isNeedInject("com/taobao/trade/OrderService", "cancel", "()V", none));
+    Assert.assertTrue(MethodFilter.isNeedInject("com/taobao/item/ItemDAO", "query", "(Ljava/lang/Long;)Ljava/util/List;", none));
+    Assert.assertFalse(MethodFilter.isNeedInject("com/taobao/item/ItemDAO", "query", "(Ljava/lang/String;)Ljava/util/List;", none));
+    Assert.assertTrue(MethodFilter.isNeedInject("com/taobao/cart/Cart", "remove", "(J)Z", none));
+    Assert.assertFalse(MethodFilter.isNeedInject("com/taobao/cartx/Cart", "remove", "(J)Z", none));
+    Assert.assertTrue(MethodFilter.isNeedInject("com/taobao/Foo", "bar", "()V",
+        Collections.singleton("Lcom/taobao/profile/Profiled;")));
+  }
+}
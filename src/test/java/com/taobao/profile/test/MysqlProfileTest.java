@@ -0,0 +1,57 @@
+package com.taobao.profile.test;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.taobao.profile.Profiler;
+import com.taobao.profile.dependence_query.RecordSlowQuery;
+import com.taobao.profile.dependence_query.SlowQueryData;
+
+public class MysqlProfileTest {
+
+  @Before
+  public void setUp() {
+    Profiler.setNeedNanoTime(true);
+    Profiler.setRecordTime(0);
+    Profiler.setProfileFlag(true);
+  }
+
+  @After
+  public void tearDown() {
+    Profiler.setProfileFlag(false);
+    Profiler.setRecordTime(-1);
+    Profiler.clearData();
+  }
+
+  @Test
+  public void testCopyPacketAtStart() throws Exception {
+    // 5.x的数据包:4字节包头,1字节COM_QUERY,之后是sql,有效长度之后是上一次的残留
+    byte[] buffer = new byte[64];
+    byte[] first = "select * from user where id = 1".getBytes("utf-8");
+    buffer[4] = 3;
+    System.arraycopy(first, 0, buffer, 5, first.length);
+    Profiler.start4Mysql("db1", 3306, "test", null, buffer, 5, 5 + first.length);
+
+    // 查询结束前驱动复用同一个缓冲区发送下一个数据包
+    byte[] second = "update user set name = 'b'".getBytes("utf-8");
+    System.arraycopy(second, 0, buffer, 5, second.length);
+    Profiler.end4Mysql();
+
+    SlowQueryData data = Profiler.slowQueryProfile[(int) Thread.currentThread().getId()];
+    Assert.assertEquals(1, data.profileData.size());
+    RecordSlowQuery record = data.profileData.elementAt(0);
+    Assert.assertEquals("MYSQL", record.getType());
+    Assert.assertEquals("select * from user where id = 1", record.getSql());
+  }
+
+  @Test
+  public void testSqlArgument() {
+    Profiler.start4Mysql("db1", 3306, "test", "select 1", new byte[16], 5, 16);
+    Profiler.end4Mysql();
+
+    SlowQueryData data = Profiler.slowQueryProfile[(int) Thread.currentThread().getId()];
+    Assert.assertEquals("select 1", data.profileData.elementAt(0).getSql());
+  }
+}
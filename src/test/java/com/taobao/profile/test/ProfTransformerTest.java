@@ -0,0 +1,179 @@
+package com.taobao.profile.test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ByteVector;
+import org.objectweb.asm.ClassAdapter;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import com.taobao.profile.Profiler;
+import com.taobao.profile.config.MethodFilter;
+import com.taobao.profile.config.ProfFilter;
+import com.taobao.profile.instrument.ProfTransformer;
+import com.taobao.profile.runtime.MethodCache;
+import com.taobao.profile.runtime.MethodInfo;
+import com.taobao.profile.runtime.ThreadData;
+
+public class ProfTransformerTest {
+
+  static {
+    ProfFilter.addIncludeClass("tprofilertest/");
+    // 其他用例配置的方法规则是全局的,测试类也须在规则之内
+    MethodFilter.addIncludeMethod("tprofilertest.*#*");
+  }
+
+  private ClassLoader loader;
+
+  @Before
+  public void setUp() {
+    Profiler.setNeedNanoTime(true);
+    // 记录所有调用
+    Profiler.setDefaultRecordThreshold(-1);
+    Profiler.setProfileFlag(true);
+    loader = new TransformingClassLoader("tprofilertest.", getClass().getClassLoader());
+  }
+
+  @After
+  public void tearDown() {
+    Profiler.setProfileFlag(false);
+    Profiler.setDefaultRecordThreshold(500);
+    Profiler.clearData();
+  }
+
+  @Test
+  public void testRecordExceptionalExit() throws Exception {
+    Class<?> samples = loader.loadClass("tprofilertest.Samples");
+    try {
+      samples.getMethod("fail", int.class).invoke(null, 9);
+      Assert.fail();
+    } catch (InvocationTargetException e) {
+      Assert.assertEquals("fail 9", e.getCause().getMessage());
+    }
+    Assert.assertEquals(2, samples.getMethod("catchFailures", int.class).invoke(null, 2));
+
+    // 异常退出后栈深度恢复,之后的调用不会错位
+    Assert.assertEquals(Arrays.asList("0 tprofilertest/Samples.fail(I)V", "1 tprofilertest/Samples.fail(I)V",
+        "1 tprofilertest/Samples.fail(I)V", "0 tprofilertest/Samples.catchFailures(I)I"), records());
+  }
+
+  @Test
+  public void testStartConstructorAfterSuper() throws Exception {
+    Object derived = loader.loadClass("tprofilertest.Samples$Derived").newInstance();
+
+    // super()/this()返回后才开始计时,构造链上的记录不重叠
+    Assert.assertEquals(Arrays.asList("0 tprofilertest/Samples$Base.<init>(Ljava/lang/Object;)V",
+        "0 tprofilertest/Samples$Derived.<init>(Ljava/lang/String;)V",
+        "0 tprofilertest/Samples$Derived.<init>()V"), records());
+    Assert.assertEquals("cba", derived.getClass().getMethod("getValue").invoke(derived));
+  }
+
+  @Test
+  public void testTokenAfterWideLocals() throws Exception {
+    Class<?> samples = loader.loadClass("tprofilertest.Samples");
+    Assert.assertEquals(7425d, samples.getMethod("wide", long.class, double.class).invoke(null, 100L, 0.5d));
+
+    Assert.assertEquals(Arrays.asList("0 tprofilertest/Samples.wide(JD)D"), records());
+  }
+
+  @Test
+  public void testKeepNestMembers() throws Exception {
+    String className = "tprofilertest/nest/Outer";
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    // JDK 11的类版本,ASM 3不认识NestMembers,只能原样复制
+    cw.visit(55, Opcodes.ACC_PUBLIC + Opcodes.ACC_SUPER, className, null, "java/lang/Object", null);
+    cw.visitSource("Outer.java", null);
+    cw.visitAttribute(new NestMembers(className + "$Inner", className + "$Other"));
+    MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC + Opcodes.ACC_STATIC, "run", "()V", null, null);
+    mv.visitCode();
+    for (int i = 0; i < 4; i++) {
+      mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Thread", "yield", "()V");
+    }
+    mv.visitInsn(Opcodes.RETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+    cw.visitEnd();
+    byte[] original = cw.toByteArray();
+
+    byte[] transformed = new ProfTransformer().transform(getClass().getClassLoader(), className, null, null,
+        original);
+
+    Assert.assertNotSame(original, transformed);
+    Assert.assertTrue(isInstrumented(className, "run"));
+    final NestMembers[] found = new NestMembers[1];
+    new ClassReader(transformed).accept(new ClassAdapter(new ClassWriter(0)) {
+      public void visitAttribute(Attribute attr) {
+        if (attr instanceof NestMembers) {
+          found[0] = (NestMembers) attr;
+        }
+      }
+    }, new Attribute[] { new NestMembers() }, 0);
+    Assert.assertNotNull(found[0]);
+    Assert.assertArrayEquals(new String[] { className + "$Inner", className + "$Other" }, found[0].classes);
+  }
+
+  /**
+   * @return 当前线程的记录,格式为"栈深度 类名.方法名描述符",按结束顺序
+   */
+  private static List<String> records() {
+    List<String> records = new ArrayList<String>();
+    ThreadData data = Profiler.threadProfile[(int) Thread.currentThread().getId()];
+    for (int i = 0; data != null && i < data.profileData.size(); i++) {
+      long[] frame = data.profileData.elementAt(i);
+      MethodInfo info = MethodCache.get((int) frame[0]);
+      records.add(frame[1] + " " + info.getMClassName() + "." + info.getMMethodName() + info.getMDescriptor());
+    }
+    return records;
+  }
+
+  private static boolean isInstrumented(String className, String methodName) {
+    for (int id = 0; id < MethodCache.size(); id++) {
+      MethodInfo info = MethodCache.get(id);
+      if (info != null && className.equals(info.getMClassName()) && methodName.equals(info.getMMethodName())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * JDK 11起的NestMembers属性:成员类数加上各成员类的常量池下标
+   */
+  private static class NestMembers extends Attribute {
+
+    private final String[] classes;
+
+    NestMembers(String... classes) {
+      super("NestMembers");
+      this.classes = classes;
+    }
+
+    protected Attribute read(ClassReader cr, int off, int len, char[] buf, int codeOff, Label[] labels) {
+      String[] classes = new String[cr.readUnsignedShort(off)];
+      for (int i = 0; i < classes.length; i++) {
+        classes[i] = cr.readClass(off + 2 + 2 * i, buf);
+      }
+      return new NestMembers(classes);
+    }
+
+    protected ByteVector write(ClassWriter cw, byte[] code, int len, int maxStack, int maxLocals) {
+      ByteVector bytes = new ByteVector();
+      bytes.putShort(classes.length);
+      for (String name : classes) {
+        bytes.putShort(cw.newClass(name));
+      }
+      return bytes;
+    }
+  }
+}
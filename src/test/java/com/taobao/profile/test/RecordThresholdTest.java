@@ -0,0 +1,66 @@
+package com.taobao.profile.test;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.taobao.profile.Profiler;
+import com.taobao.profile.config.RecordThreshold;
+import com.taobao.profile.runtime.ThreadData;
+
+public class RecordThresholdTest {
+
+  @After
+  public void tearDown() {
+    RecordThreshold.clear();
+  }
+
+  @Test
+  public void testGetThreshold() {
+    RecordThreshold.setDefaultThreshold(500);
+    RecordThreshold.addRule("com.taobao.rpc:50", true);
+    RecordThreshold.addRule("com.taobao.rpc.batch:100000", true);
+    RecordThreshold.addRule("com.taobao.rpc.*Handler#ping*:5", false);
+
+    Assert.assertEquals(500, RecordThreshold.getThreshold("com/taobao/trade/Order", "create", "()V"));
+    Assert.assertEquals(50, RecordThreshold.getThreshold("com/taobao/rpc/Client", "invoke", "()V"));
+    Assert.assertEquals(100000, RecordThreshold.getThreshold("com/taobao/rpc/batch/Job", "run", "()V"));
+    Assert.assertEquals(5, RecordThreshold.getThreshold("com/taobao/rpc/EchoHandler", "ping", "(J)J"));
+    Assert.assertEquals(50, RecordThreshold.getThreshold("com/taobao/rpc/EchoHandler", "echo", "(J)J"));
+  }
+
+  @Test
+  public void testIgnoreInvalidRule() {
+    RecordThreshold.setDefaultThreshold(500);
+    RecordThreshold.addRule("com.taobao.rpc:5O", true);
+    RecordThreshold.addRule("com.taobao.rpc.*Handler#ping*:", false);
+
+    Assert.assertEquals(500, RecordThreshold.getThreshold("com/taobao/rpc/Client", "invoke", "()V"));
+    Assert.assertEquals(500, RecordThreshold.getThreshold("com/taobao/rpc/EchoHandler", "ping", "(J)J"));
+  }
+
+  @Test
+  public void testUnsetMethodUsesCurrentDefault() {
+    // 远离真实方法ID的块,不影响其他用例
+    int methodId = 4000000;
+    Profiler.setNeedNanoTime(true);
+    Profiler.setDefaultRecordThreshold(10000000);
+    Profiler.setRecordThreshold(methodId + 1, -1);
+    // 同一块中没有单独阈值的方法之后按新的全局阈值记录
+    Profiler.setDefaultRecordThreshold(-1);
+    Profiler.setProfileFlag(true);
+    try {
+      Profiler.End(Profiler.StartToken(methodId), methodId);
+      Profiler.End(Profiler.StartToken(methodId + 1), methodId + 1);
+
+      ThreadData data = Profiler.threadProfile[(int) Thread.currentThread().getId()];
+      Assert.assertEquals(2, data.profileData.size());
+      Assert.assertEquals(methodId, data.profileData.elementAt(0)[0]);
+      Assert.assertEquals(methodId + 1, data.profileData.elementAt(1)[0]);
+    } finally {
+      Profiler.setProfileFlag(false);
+      Profiler.setDefaultRecordThreshold(500);
+      Profiler.clearData();
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package com.taobao.profile.test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.taobao.profile.Profiler;
+import com.taobao.profile.dependence_query.RecordSlowQuery;
+import com.taobao.profile.dependence_query.SlowQueryAggregator;
+import com.taobao.profile.dependence_query.SlowQueryData;
+import com.taobao.profile.dependence_query.SlowQueryStat;
+
+public class RedisProfileTest {
+
+  private ServerSocket server;
+
+  @Before
+  public void setUp() throws Exception {
+    Profiler.setNeedNanoTime(true);
+    Profiler.setRecordTime(0);
+    Profiler.setProfileFlag(true);
+    server = new ServerSocket(0);
+    Thread thread = new Thread(new Runnable() {
+      public void run() {
+        serve();
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.close();
+    Profiler.setProfileFlag(false);
+    Profiler.setRecordTime(-1);
+    Profiler.clearData();
+  }
+
+  @Test
+  public void testRecordJedisCommands() throws Exception {
+    ClassLoader loader = new TransformingClassLoader("redis.clients.", getClass().getClassLoader());
+    Class<?> jedisClass = loader.loadClass("redis.clients.jedis.Jedis");
+    Object jedis = jedisClass.getConstructor(String.class, int.class).newInstance("127.0.0.1",
+        server.getLocalPort());
+    try {
+      Assert.assertEquals("OK", invoke(jedis, "set", "user:1", "a"));
+      Assert.assertEquals("a", invoke(jedis, "get", "user:1"));
+      Assert.assertEquals("a", invoke(jedis, "get", "user:22"));
+      try {
+        invoke(jedis, "incr", "counter");
+        Assert.fail();
+      } catch (InvocationTargetException e) {
+        // 错误回复也要结束记录
+      }
+    } finally {
+      jedisClass.getMethod("close").invoke(jedis);
+    }
+
+    List<String> commands = new ArrayList<String>();
+    SlowQueryData data = Profiler.slowQueryProfile[(int) Thread.currentThread().getId()];
+    for (int i = 0; i < data.profileData.size(); i++) {
+      RecordSlowQuery record = data.profileData.elementAt(i);
+      Assert.assertEquals("REDIS", record.getType());
+      Assert.assertEquals("127.0.0.1:" + server.getLocalPort(), record.getTarget());
+      Assert.assertEquals("redis.clients.jedis.Client", record.getStatement());
+      commands.add(record.getSql());
+    }
+    Assert.assertEquals(4, commands.size());
+    Assert.assertEquals("SET user:1", commands.get(0));
+    Assert.assertEquals("GET user:1", commands.get(1));
+    Assert.assertEquals("INCR counter", commands.get(3));
+    Assert.assertEquals(0, data.pendingSize);
+
+    SlowQueryAggregator aggregator = new SlowQueryAggregator(1);
+    for (int i = 0; i < data.profileData.size(); i++) {
+      aggregator.add(data.profileData.elementAt(i));
+    }
+    List<String> fingerprints = new ArrayList<String>();
+    for (SlowQueryStat stat : aggregator.drain()) {
+      fingerprints.add(stat.getFingerprint());
+    }
+    Assert.assertEquals(3, fingerprints.size());
+    Assert.assertTrue(fingerprints.toString(), fingerprints.contains("GET user:*"));
+    Assert.assertTrue(fingerprints.toString(), fingerprints.contains("INCR counter"));
+  }
+
+  private static Object invoke(Object jedis, String name, String... args) throws Exception {
+    Class<?>[] types = new Class<?>[args.length];
+    for (int i = 0; i < args.length; i++) {
+      types[i] = String.class;
+    }
+    return jedis.getClass().getMethod(name, types).invoke(jedis, (Object[]) args);
+  }
+
+  /**
+   * 只接受一个连接,读取RESP数组形式的命令,SET回复OK,GET回复a,其他回复错误
+   */
+  private void serve() {
+    try {
+      Socket socket = server.accept();
+      try {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "utf-8"));
+        OutputStream out = socket.getOutputStream();
+        String line;
+        while ((line = in.readLine()) != null) {
+          int count = Integer.parseInt(line.substring(1));
+          String command = null;
+          for (int i = 0; i < count; i++) {
+            in.readLine();
+            String arg = in.readLine();
+            if (command == null) {
+              command = arg;
+            }
+          }
+          String reply;
+          if ("SET".equals(command)) {
+            reply = "+OK\r\n";
+          } else if ("GET".equals(command)) {
+            reply = "$1\r\na\r\n";
+          } else {
+            reply = "-ERR unknown command\r\n";
+          }
+          out.write(reply.getBytes("utf-8"));
+          out.flush();
+        }
+      } finally {
+        socket.close();
+      }
+    } catch (Exception e) {
+      // 测试结束时关闭
+    }
+  }
+}
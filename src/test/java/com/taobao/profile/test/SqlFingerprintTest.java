@@ -0,0 +1,83 @@
+package com.taobao.profile.test;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.taobao.profile.dependence_query.RecordSlowQuery;
+import com.taobao.profile.dependence_query.SlowQueryAggregator;
+import com.taobao.profile.dependence_query.SlowQueryStat;
+import com.taobao.profile.dependence_query.SqlFingerprint;
+
+public class SqlFingerprintTest {
+
+  @Test
+  public void testLiterals() {
+    Assert.assertEquals("select * from t where id = ? and name = ?",
+        SqlFingerprint.fingerprint("SELECT *  FROM t\n WHERE id=42 AND name = 'it''s \\'x\\''"));
+    Assert.assertEquals("select a - ? from t where b > ? and c = ?",
+        SqlFingerprint.fingerprint("select a-1 from t where b>-2.5e-3 and c = 0x1F;"));
+    Assert.assertEquals("select `order`.id from `order` where \"x\" = ?",
+        SqlFingerprint.fingerprint("select `order`.id from `order` /* hint */ where \"x\" = 1 -- tail"));
+    Assert.assertEquals("select col1 from t1", SqlFingerprint.fingerprint("select col1 from t1"));
+  }
+
+  @Test
+  public void testLists() {
+    Assert.assertEquals("select * from t where id in (?+)",
+        SqlFingerprint.fingerprint("select * from t where id in (1, 2, 3)"));
+    Assert.assertEquals(SqlFingerprint.fingerprint("select * from t where id in (1)"),
+        SqlFingerprint.fingerprint("select * from t where id IN ( 7,8,9,10 )"));
+    Assert.assertEquals("insert into t (a, b) values (?+)",
+        SqlFingerprint.fingerprint("insert into t(a, b) values (1, 'x'), (2, 'y'),(3,'z')"));
+    Assert.assertEquals("select count (*) from t where f (a, ?)",
+        SqlFingerprint.fingerprint("select count(*) from t where f(a, 1)"));
+  }
+
+  @Test
+  public void testAggregate() {
+    SlowQueryAggregator aggregator = new SlowQueryAggregator(2);
+    aggregator.add(mysql("db1", "select * from t where id = 1", 3));
+    RecordSlowQuery nested = mysql("db1", "select * from t where id = 2", 9);
+    nested.setMethodPath(new int[] { 1, 2 });
+    aggregator.add(nested);
+    aggregator.add(mysql("db1", "select * from t where id = 3", 5));
+    aggregator.add(mysql("db2", "select * from t where id = 4", 1));
+
+    List<SlowQueryStat> stats = aggregator.drain();
+    Assert.assertEquals(2, stats.size());
+    SlowQueryStat stat = stats.get(0);
+    Assert.assertEquals("h:3306/db1", stat.getTarget());
+    Assert.assertEquals("select * from t where id = ?", stat.getFingerprint());
+    Assert.assertEquals(3, stat.getCount());
+    Assert.assertEquals(17000, stat.getTotal());
+    Assert.assertEquals(9000, stat.getMax());
+    Assert.assertEquals(2, stat.getExemplarCount());
+    Assert.assertEquals("select * from t where id = 2", stat.getExemplar(0).getSql());
+    Assert.assertEquals("select * from t where id = 3", stat.getExemplar(1).getSql());
+    Assert.assertEquals("12:1,13:1,14:1", stat.histogramString());
+    Assert.assertEquals(4095, stat.percentile(30));
+    Assert.assertEquals(9000, stat.percentile(99));
+    Assert.assertEquals(2, stat.getPaths().size());
+    SlowQueryStat.PathStat path = stat.getPaths().get(0);
+    Assert.assertEquals(1, path.getCount());
+    Assert.assertEquals(2, path.getStableIds().length);
+    Assert.assertEquals(path.getHash(), SlowQueryAggregator.getPathHash(path.getStableIds()));
+    path = stat.getPaths().get(1);
+    Assert.assertEquals(8000, path.getTotal());
+    Assert.assertEquals(0, path.getStableIds().length);
+    Assert.assertTrue(aggregator.drain().isEmpty());
+  }
+
+  private static RecordSlowQuery mysql(String db, String sql, long millis) {
+    RecordSlowQuery record = new RecordSlowQuery();
+    record.setType("MYSQL");
+    record.setHost("h");
+    record.setPort(3306);
+    record.setDb(db);
+    record.setSql(sql);
+    record.setUseTime(millis);
+    return record;
+  }
+}
@@ -0,0 +1,64 @@
+package com.taobao.profile.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.taobao.profile.instrument.ProfTransformer;
+
+/**
+ * 自己加载指定包下的类,并像Agent一样经过ProfTransformer转换
+ */
+class TransformingClassLoader extends ClassLoader {
+
+  private final String prefix;
+  private final ProfTransformer transformer = new ProfTransformer();
+
+  TransformingClassLoader(String prefix, ClassLoader parent) {
+    super(parent);
+    this.prefix = prefix;
+  }
+
+  protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+    if (!name.startsWith(prefix)) {
+      return super.loadClass(name, resolve);
+    }
+    Class<?> c = findLoadedClass(name);
+    if (c == null) {
+      c = findClass(name);
+    }
+    if (resolve) {
+      resolveClass(c);
+    }
+    return c;
+  }
+
+  protected Class<?> findClass(String name) throws ClassNotFoundException {
+    String path = name.replace('.', '/');
+    InputStream in = getParent().getResourceAsStream(path + ".class");
+    if (in == null) {
+      throw new ClassNotFoundException(name);
+    }
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      for (int len = -1; (len = in.read(buffer)) != -1;) {
+        out.write(buffer, 0, len);
+      }
+      byte[] bytes = transformer.transform(this, path, null, null, out.toByteArray());
+      return defineClass(name, bytes, 0, bytes.length);
+    } catch (Exception e) {
+      throw new ClassNotFoundException(name, e);
+    } finally {
+      try {
+        in.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  public InputStream getResourceAsStream(String name) {
+    return getParent().getResourceAsStream(name);
+  }
+}
@@ -5,6 +5,7 @@ import org.junit.Test;
 
 import com.taobao.profile.utils.Utilities;
 import com.taobao.profile.utils.VariableNotFoundException;
+import com.taobao.profile.utils.WeakIdentityMap;
 
 public class UtilitiesTest{
 
@@ -15,4 +16,21 @@ public class UtilitiesTest{
     String str2 = System.getProperty("user.home") + "/logs/" + System.getProperty("user.language") + "/tprofiler.log";  
     Assert.assertEquals(str1, str2);
   }
+
+  @Test
+  public void testWeakIdentityMap() {
+    WeakIdentityMap<String, Boolean> map = new WeakIdentityMap<String, Boolean>();
+    String a = new String("loader");
+    String b = new String("loader");
+    map.put(a, Boolean.TRUE);
+    Assert.assertEquals(Boolean.TRUE, map.get(a));
+    // equals相同的不同实例不共享结果
+    Assert.assertNull(map.get(b));
+    map.put(b, Boolean.FALSE);
+    map.put(b, Boolean.TRUE);
+    Assert.assertEquals(2, map.size());
+    Assert.assertEquals(Boolean.TRUE, map.get(b));
+    map.clear();
+    Assert.assertNull(map.get(a));
+  }
 }
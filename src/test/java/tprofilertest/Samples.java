@@ -0,0 +1,69 @@
+package tprofilertest;
+
+/**
+ * 经过ProfTransformer注入后执行的样例,包名不在Agent自身的排除列表中
+ */
+public class Samples {
+
+  /**
+   * 被调用的方法异常退出,由异常出口处理器记录
+   */
+  public static int catchFailures(int count) {
+    int caught = 0;
+    for (int i = 0; i < count; i++) {
+      try {
+        fail(i);
+      } catch (IllegalStateException e) {
+        caught++;
+      }
+    }
+    return caught;
+  }
+
+  public static void fail(int i) {
+    throw new IllegalStateException("fail " + i);
+  }
+
+  /**
+   * long/double参数和局部变量占两个槽,令牌局部变量在它们之后
+   */
+  public static double wide(long count, double scale) {
+    long sum = 0L;
+    double total = 0d;
+    for (long i = 0; i < count; i++) {
+      sum += i;
+      total += i * scale;
+    }
+    if (sum < 0) {
+      throw new IllegalArgumentException("overflow");
+    }
+    return sum + total;
+  }
+
+  public static class Base {
+
+    private final Object value;
+
+    public Base(Object value) {
+      this.value = value;
+    }
+
+    public Object getValue() {
+      return value;
+    }
+  }
+
+  /**
+   * super()之前先NEW了参数对象,this()之前没有
+   */
+  public static class Derived extends Base {
+
+    public Derived(String text) {
+      super(new StringBuilder(text).reverse().toString());
+    }
+
+    public Derived() {
+      this("abc");
+    }
+  }
+}